@@ -0,0 +1,91 @@
+package Utilities;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import ReminderAPI.ReminderHandle;
+
+/**
+ * State and completion bookkeeping shared by the {@link ReminderHandle}s of every reminder engine.
+ *
+ * @see QuartzReminder
+ * @see TimingWheelReminder
+ */
+public abstract class AbstractReminderHandle implements ReminderHandle {
+
+    private final int eventID;
+    private final CompletableFuture<ReminderHandle> fired = new CompletableFuture<>();
+    private volatile Instant fireTime;
+    private volatile Status status = Status.PENDING;
+
+    protected AbstractReminderHandle(int eventID, Instant fireTime) {
+        this.eventID = eventID;
+        this.fireTime = fireTime;
+    }
+
+    /**
+     * <p>Removes the reminder from the engine.</p>
+     *
+     * @return true if it was still there
+     */
+    protected abstract boolean doCancel();
+
+    /**
+     * <p>Moves the reminder inside the engine.</p>
+     *
+     * @param fireAt
+     * @return true if it was still there
+     */
+    protected abstract boolean doReschedule(Instant fireAt);
+
+    @Override
+    public int getEventID() {
+        return eventID;
+    }
+
+    @Override
+    public Instant getFireTime() {
+        return fireTime;
+    }
+
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean cancel() {
+        if (status != Status.PENDING || !doCancel())
+            return false;
+        markCancelled();
+        return true;
+    }
+
+    @Override
+    public boolean reschedule(Instant fireAt) {
+        if (status != Status.PENDING || !doReschedule(fireAt))
+            return false;
+        fireTime = fireAt;
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<ReminderHandle> whenFired() {
+        return fired;
+    }
+
+    void markFired() {
+        status = Status.FIRED;
+        fired.complete(this);
+    }
+
+    void markFailed(Throwable cause) {
+        status = Status.FAILED;
+        fired.completeExceptionally(cause);
+    }
+
+    void markCancelled() {
+        status = Status.CANCELLED;
+        fired.cancel(false);
+    }
+}
@@ -0,0 +1,91 @@
+package repositories;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * {@link DataRepository} able to resolve many users or events in one call.
+ *
+ * <p>
+ * The defaults fall back to one lookup per item, implementations backed by a database override them
+ * with a single set-based query, see {@link JdbcBatchRepository}.
+ * </p>
+ *
+ * @see DataRepository
+ */
+public interface BatchDataRepository extends DataRepository {
+
+    /**
+     * find all users with one of the given names.
+     *
+     * @param names
+     * @return the users found by username, names without a user are left out
+     */
+    default Map<String, User> findUsersByNames(Collection<String> names) {
+        Map<String, User> users = new HashMap<>(names.size() * 4 / 3 + 1);
+        for (String name : names) {
+            User user = findUserByName(name);
+            if (user != null)
+                users.put(name, user);
+        }
+        return users;
+    }
+
+    /**
+     * find all events with one of the given IDs.
+     *
+     * @param eventIDs
+     * @return the events found by event ID, IDs without an event are left out
+     */
+    default Map<Integer, Event> findEventsByIDs(Collection<Integer> eventIDs) {
+        Map<Integer, Event> events = new HashMap<>(eventIDs.size() * 4 / 3 + 1);
+        for (Integer eventID : eventIDs) {
+            Event event = findEventByID(eventID);
+            if (event != null)
+                events.put(eventID, event);
+        }
+        return events;
+    }
+
+    /**
+     * find all users with one of the given names, in one call when the repository supports it.
+     *
+     * @param repository any repository
+     * @param names
+     * @return the users found by username, names without a user are left out
+     */
+    static Map<String, User> findUsersByNames(DataRepository repository, Collection<String> names) {
+        if (repository instanceof BatchDataRepository)
+            return ((BatchDataRepository) repository).findUsersByNames(names);
+        Map<String, User> users = new HashMap<>(names.size() * 4 / 3 + 1);
+        for (String name : names) {
+            User user = repository.findUserByName(name);
+            if (user != null)
+                users.put(name, user);
+        }
+        return users;
+    }
+
+    /**
+     * find all events with one of the given IDs, in one call when the repository supports it.
+     *
+     * @param repository any repository
+     * @param eventIDs
+     * @return the events found by event ID, IDs without an event are left out
+     */
+    static Map<Integer, Event> findEventsByIDs(DataRepository repository, Collection<Integer> eventIDs) {
+        if (repository instanceof BatchDataRepository)
+            return ((BatchDataRepository) repository).findEventsByIDs(eventIDs);
+        Map<Integer, Event> events = new HashMap<>(eventIDs.size() * 4 / 3 + 1);
+        for (Integer eventID : eventIDs) {
+            Event event = repository.findEventByID(eventID);
+            if (event != null)
+                events.put(eventID, event);
+        }
+        return events;
+    }
+}
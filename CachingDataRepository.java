@@ -0,0 +1,199 @@
+package repositories;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * Read-through cache in front of a {@link DataRepository}.
+ *
+ * <p>
+ * The same event is looked up by every one of its reminders (up to seven, from one week down to five minutes)
+ * and the same users take part in hundreds of events, so most lookups of a firing reminder are repeats. Events and
+ * users are kept in two Guava caches bounded by size and by time since they were loaded. Lookups that found
+ * nothing can be cached too (negative caching), so a participant without a user does not cost a query on every
+ * firing either.
+ * </p>
+ *
+ * <p>
+ * Whoever changes an event or a user is expected to call {@link #invalidateEvent(int)} or
+ * {@link #invalidateUser(String)}, the time to live only bounds how stale a missed invalidation can get. The
+ * {@code EventReconciler} and the cancel and reschedule calls of {@code QuartzReminder} drop the events they touch.
+ * </p>
+ *
+ * <pre>
+ *      DataRepository repo = new CachingDataRepository(postgresAdapter, 100_000, Duration.ofMinutes(5), true);
+ *      QuartzReminder reminder = new QuartzReminder(repo);
+ * </pre>
+ *
+ * @see BatchDataRepository
+ */
+public class CachingDataRepository implements BatchDataRepository {
+
+    private final DataRepository delegate;
+    private final boolean cacheMisses;
+    private final Cache<Integer, Optional<Event>> events;
+    private final Cache<String, Optional<User>> users;
+
+    /**
+     * <p>Constructor</p>
+     * @param delegate repository the misses are read from
+     * @param maximumSize maximum number of entries of each cache
+     * @param timeToLive how long an entry is kept after being loaded
+     * @param cacheMisses whether lookups that found nothing are cached as well
+     */
+    public CachingDataRepository(DataRepository delegate, long maximumSize, Duration timeToLive, boolean cacheMisses) {
+        this.delegate = delegate;
+        this.cacheMisses = cacheMisses;
+        this.events = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+        this.users = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Event findEventByID(int eventID) {
+        Optional<Event> cached = events.getIfPresent(eventID);
+        if (cached != null)
+            return cached.orElse(null);
+        Event event = delegate.findEventByID(eventID);
+        if (event != null || cacheMisses)
+            events.put(eventID, Optional.ofNullable(event));
+        return event;
+    }
+
+    @Override
+    public User findUserByName(String name) {
+        Optional<User> cached = users.getIfPresent(name);
+        if (cached != null)
+            return cached.orElse(null);
+        User user = delegate.findUserByName(name);
+        if (user != null || cacheMisses)
+            users.put(name, Optional.ofNullable(user));
+        return user;
+    }
+
+    /**
+     * <p>Serves the cached users and resolves all the others with one batched call on the wrapped repository.</p>
+     */
+    @Override
+    public Map<String, User> findUsersByNames(Collection<String> names) {
+        Map<String, User> found = new HashMap<>(names.size() * 4 / 3 + 1);
+        List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            Optional<User> cached = users.getIfPresent(name);
+            if (cached == null)
+                missing.add(name);
+            else
+                cached.ifPresent(user -> found.put(name, user));
+        }
+        if (missing.isEmpty())
+            return found;
+
+        Map<String, User> loaded = BatchDataRepository.findUsersByNames(delegate, missing);
+        for (String name : missing) {
+            User user = loaded.get(name);
+            if (user != null) {
+                found.put(name, user);
+                users.put(name, Optional.of(user));
+            } else if (cacheMisses) {
+                users.put(name, Optional.empty());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * <p>Serves the cached events and resolves all the others with one batched call on the wrapped repository.</p>
+     */
+    @Override
+    public Map<Integer, Event> findEventsByIDs(Collection<Integer> eventIDs) {
+        Map<Integer, Event> found = new HashMap<>(eventIDs.size() * 4 / 3 + 1);
+        List<Integer> missing = new ArrayList<>();
+        for (Integer eventID : eventIDs) {
+            Optional<Event> cached = events.getIfPresent(eventID);
+            if (cached == null)
+                missing.add(eventID);
+            else
+                cached.ifPresent(event -> found.put(eventID, event));
+        }
+        if (missing.isEmpty())
+            return found;
+
+        Map<Integer, Event> loaded = BatchDataRepository.findEventsByIDs(delegate, missing);
+        for (Integer eventID : missing) {
+            Event event = loaded.get(eventID);
+            if (event != null) {
+                found.put(eventID, event);
+                events.put(eventID, Optional.of(event));
+            } else if (cacheMisses) {
+                events.put(eventID, Optional.empty());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * <p>Drops the cached event, to be called whenever it changes.</p>
+     *
+     * @param eventID
+     */
+    public void invalidateEvent(int eventID) {
+        events.invalidate(eventID);
+    }
+
+    /**
+     * <p>Drops the cached user, to be called whenever it changes.</p>
+     *
+     * @param name username
+     */
+    public void invalidateUser(String name) {
+        users.invalidate(name);
+    }
+
+    /**
+     * <p>Drops every cached event and user.</p>
+     */
+    public void invalidateAll() {
+        events.invalidateAll();
+        users.invalidateAll();
+    }
+
+    /**
+     * @return hit and miss counts of the event cache
+     */
+    public CacheStats getEventStats() {
+        return events.stats();
+    }
+
+    /**
+     * @return hit and miss counts of the user cache
+     */
+    public CacheStats getUserStats() {
+        return users.stats();
+    }
+
+    /**
+     * @return the repository behind the cache
+     */
+    public DataRepository getDelegate() {
+        return delegate;
+    }
+}
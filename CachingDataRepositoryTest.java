@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import entities.Event;
+import entities.User;
+import repositories.CachingDataRepository;
+import repositories.DataRepository;
+
+public class CachingDataRepositoryTest {
+
+    private DataRepository repository;
+    private Event testEvent;
+
+    @BeforeEach
+    public void setUp() {
+        testEvent = new Event(1, "test event", "test organizer", Instant.now(), 1, Arrays.asList("name1", "name2"));
+        repository = EasyMock.mock(DataRepository.class);
+    }
+
+    @Test
+    public void testRepeatedLookupsHitTheCache() {
+        EasyMock.expect(repository.findEventByID(1)).andReturn(testEvent).once();
+        EasyMock.expect(repository.findUserByName("name1")).andReturn(new User("name1", "name1@test")).once();
+        EasyMock.expect(repository.findUserByName("name2")).andReturn(null).once();
+        EasyMock.replay(repository);
+
+        var cached = new CachingDataRepository(repository, 100, Duration.ofMinutes(5), true);
+        for (int i = 0; i < 7; i++) {
+            assertSame(testEvent, cached.findEventByID(1));
+            Map<String, User> users = cached.findUsersByNames(testEvent.participantsList);
+            assertEquals(1, users.size());
+            assertNull(cached.findUserByName("name2"));
+        }
+
+        EasyMock.verify(repository);
+        assertEquals(6, cached.getEventStats().hitCount());
+        assertEquals(1, cached.getEventStats().missCount());
+    }
+
+    @Test
+    public void testInvalidateReloads() {
+        EasyMock.expect(repository.findEventByID(1)).andReturn(testEvent).times(2);
+        EasyMock.replay(repository);
+
+        var cached = new CachingDataRepository(repository, 100, Duration.ofMinutes(5), false);
+        cached.findEventByID(1);
+        cached.invalidateEvent(1);
+        cached.findEventByID(1);
+
+        EasyMock.verify(repository);
+    }
+}
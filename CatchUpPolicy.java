@@ -0,0 +1,247 @@
+package Utilities;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.quartz.TriggerListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Catch-up policy for reminders fired late, e.g. after the scheduler was paused or restarted.
+ *
+ * <p>
+ * The one-shot reminder triggers fire right away when they misfired, so after an outage every overdue reminder
+ * would go out at the same moment. This listener vetoes or delays those late fires instead:
+ * </p>
+ * <ul>
+ * <li>a reminder for an event that already started is dropped,</li>
+ * <li>several overdue offsets of the same event collapse into the first one,</li>
+ * <li>the remaining late reminders are released at no more than <code>ratePerSecond</code>, the ones over the
+ * rate are vetoed and fired again later by a one-shot <code>-catchup</code> trigger.</li>
+ * </ul>
+ * <p>
+ * Reminders fired on time are never touched.
+ * </p>
+ *
+ * <pre>
+ *      reminder.catchup.lateThresholdMillis = 60000
+ *      reminder.catchup.dropAfterStart = true
+ *      reminder.catchup.collapseWindowMillis = 600000
+ *      reminder.catchup.ratePerSecond = 20
+ * </pre>
+ *
+ * @see QuartzReminder
+ */
+public class CatchUpPolicy implements TriggerListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatchUpPolicy.class);
+
+    /**
+     * trigger data flag of the triggers releasing a delayed reminder
+     */
+    public static final String CATCH_UP = "CATCH_UP";
+
+    static final String CATCH_UP_SUFFIX = "-catchup";
+
+    /**
+     * @param key
+     * @return the key of the trigger releasing the reminder of {@code key} late
+     */
+    static TriggerKey catchUpKey(TriggerKey key) {
+        return key.getName().endsWith(CATCH_UP_SUFFIX) ? key : new TriggerKey(key.getName() + CATCH_UP_SUFFIX, key.getGroup());
+    }
+
+    /**
+     * @param key
+     * @return the key of the reminder a catch-up trigger releases, {@code key} itself for any other trigger
+     */
+    static TriggerKey replacedKey(TriggerKey key) {
+        String name = key.getName();
+        return name.endsWith(CATCH_UP_SUFFIX)
+                ? new TriggerKey(name.substring(0, name.length() - CATCH_UP_SUFFIX.length()), key.getGroup())
+                : key;
+    }
+
+    private final long lateThresholdMillis;
+    private final boolean dropAfterStart;
+    private final long collapseWindowMillis;
+    private final long intervalMicros;
+
+    /**
+     * last late fire let through, per event job, within the collapse window
+     */
+    private final Map<JobKey, Long> recentCatchUps = new ConcurrentHashMap<>();
+    private final AtomicLong nextSlotMicros = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong lateFires = new AtomicLong();
+
+    /**
+     * <p>Constructor</p>
+     * @param lateThresholdMillis a fire later than this is handled as catch-up
+     * @param dropAfterStart whether late reminders of events that already started are dropped
+     * @param collapseWindowMillis late offsets of the same event within this window collapse into one, 0 disables
+     * @param ratePerSecond maximum rate at which late reminders are released, 0 for no limit
+     */
+    public CatchUpPolicy(long lateThresholdMillis, boolean dropAfterStart, long collapseWindowMillis, double ratePerSecond) {
+        this.lateThresholdMillis = lateThresholdMillis;
+        this.dropAfterStart = dropAfterStart;
+        this.collapseWindowMillis = collapseWindowMillis;
+        this.intervalMicros = ratePerSecond > 0 ? (long) (1_000_000 / ratePerSecond) : 0;
+    }
+
+    /**
+     * @param properties
+     * @return the policy configured by the <code>reminder.catchup.*</code> settings
+     */
+    public static CatchUpPolicy fromProperties(Properties properties) {
+        return new CatchUpPolicy(
+                Long.parseLong(properties.getProperty("reminder.catchup.lateThresholdMillis", "60000").trim()),
+                Boolean.parseBoolean(properties.getProperty("reminder.catchup.dropAfterStart", "true").trim()),
+                Long.parseLong(properties.getProperty("reminder.catchup.collapseWindowMillis", "600000").trim()),
+                Double.parseDouble(properties.getProperty("reminder.catchup.ratePerSecond", "20").trim()));
+    }
+
+    @Override
+    public String getName() {
+        return "reminderCatchUpPolicy";
+    }
+
+    @Override
+    public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+        long now = System.currentTimeMillis();
+        JobDataMap data = trigger.getJobDataMap();
+
+        if (dropAfterStart && data.containsKey(EventReminderJob.EVENT_START)
+                && now >= data.getLong(EventReminderJob.EVENT_START)
+                && (data.containsKey(CATCH_UP) || isLate(context, now))) {
+            dropped.incrementAndGet();
+            logger.info("dropped {}, its event already started", trigger.getKey());
+            return true;
+        }
+        if (data.containsKey(CATCH_UP) || !isLate(context, now))
+            return false;
+
+        if (lateFires.incrementAndGet() % 1024 == 0)
+            recentCatchUps.values().removeIf(at -> now - at >= collapseWindowMillis);
+
+        if (collapseWindowMillis > 0) {
+            Long previous = recentCatchUps.get(trigger.getJobKey());
+            if (previous != null && now - previous < collapseWindowMillis) {
+                collapsed.incrementAndGet();
+                return true;
+            }
+            recentCatchUps.put(trigger.getJobKey(), now);
+        }
+
+        if (intervalMicros == 0)
+            return false;
+        long slotMillis = reserveSlot(now * 1000) / 1000;
+        if (slotMillis <= now)
+            return false;
+        return defer(trigger, context, slotMillis);
+    }
+
+    /**
+     * <p>Measured from the time the reminder was originally due: a misfired trigger fires "now", which also resets
+     * the scheduled fire time of the context, so that would never show a late fire.</p>
+     */
+    private boolean isLate(JobExecutionContext context, long now) {
+        return now - EventReminderJob.dueAt(context) > lateThresholdMillis;
+    }
+
+    /**
+     * @return the release time of the next late reminder, in epoch micros
+     */
+    private long reserveSlot(long nowMicros) {
+        while (true) {
+            long next = nextSlotMicros.get();
+            long slot = Math.max(next, nowMicros);
+            if (nextSlotMicros.compareAndSet(next, slot + intervalMicros))
+                return slot;
+        }
+    }
+
+    /**
+     * <p>Schedules a one-shot trigger firing the same job at the reserved slot.</p>
+     *
+     * @return true if the late fire can be vetoed, false to let it through when the trigger could not be stored
+     */
+    private boolean defer(Trigger trigger, JobExecutionContext context, long slotMillis) {
+        TriggerKey key = trigger.getKey();
+        Scheduler scheduler = context.getScheduler();
+        JobDataMap data = new JobDataMap(trigger.getJobDataMap());
+        data.put(CATCH_UP, true);
+        // the catch-up fires at another time but still is the reminder that was due, e.g. to the outbox
+        if (!data.containsKey(EventReminderJob.EVENT_START))
+            data.put(EventReminderJob.DUE_AT, EventReminderJob.dueAt(context));
+        Trigger catchUp = TriggerBuilder.newTrigger()
+                .forJob(trigger.getJobKey())
+                .withIdentity(catchUpKey(key))
+                .withDescription("Catch-up of " + key)
+                .withPriority(trigger.getPriority())
+                .usingJobData(data)
+                .startAt(new Date(slotMillis))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+                .build();
+        try {
+            if (scheduler.rescheduleJob(catchUp.getKey(), catchUp) == null)
+                scheduler.scheduleJob(catchUp);
+            deferred.incrementAndGet();
+            return true;
+        } catch (SchedulerException e) {
+            logger.error("could not defer {}, firing it now", key, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void triggerFired(Trigger trigger, JobExecutionContext context) {
+    }
+
+    @Override
+    public void triggerMisfired(Trigger trigger) {
+    }
+
+    @Override
+    public void triggerComplete(Trigger trigger, JobExecutionContext context,
+            CompletedExecutionInstruction triggerInstructionCode) {
+    }
+
+    /**
+     * @return late reminders dropped because their event already started
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return late reminders collapsed into another offset of the same event
+     */
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    /**
+     * @return late reminders delayed to stay under the release rate
+     */
+    public long getDeferredCount() {
+        return deferred.get();
+    }
+}
@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
+
+import Utilities.CatchUpPolicy;
+import Utilities.EventReminderJob;
+import Utilities.QuartzReminder;
+
+public class CatchUpPolicyTest {
+
+    private static final AtomicInteger executions = new AtomicInteger();
+
+    public static class CountingJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) {
+            executions.incrementAndGet();
+        }
+    }
+
+    private Scheduler scheduler;
+    private CatchUpPolicy policy;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("org.quartz.scheduler.instanceName", "CatchUpPolicyTest");
+        properties.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+        properties.setProperty("org.quartz.threadPool.threadCount", "4");
+        properties.setProperty("org.quartz.jobStore.class", "Utilities.ConcurrentJobStore");
+        properties.setProperty("org.quartz.jobStore.misfireThreshold", "1000");
+        scheduler = new StdSchedulerFactory(properties).getScheduler();
+        // late after half a second, one late reminder released per second
+        policy = new CatchUpPolicy(500, true, 60_000, 1);
+        scheduler.getListenerManager().addTriggerListener(policy);
+        executions.set(0);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        scheduler.shutdown(true);
+    }
+
+    private void schedule(int eventID, long dueAt, int offsetSeconds) throws Exception {
+        JobKey jobKey = JobKey.jobKey(Integer.toString(eventID), QuartzReminder.EVENT_GROUP);
+        if (!scheduler.checkExists(jobKey))
+            scheduler.addJob(JobBuilder.newJob(CountingJob.class).withIdentity(jobKey).storeDurably().build(), false);
+        Trigger trigger = TriggerBuilder.newTrigger()
+                .forJob(jobKey)
+                .withIdentity(eventID + "-" + offsetSeconds, QuartzReminder.REMINDER_GROUP)
+                .usingJobData(EventReminderJob.EVENT_START, dueAt + offsetSeconds * 1000L)
+                .startAt(new Date(dueAt))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+                .build();
+        scheduler.scheduleJob(trigger);
+    }
+
+    @Test
+    public void testRemindersMisfiredDuringAPauseAreCaughtUp() throws Exception {
+        long now = System.currentTimeMillis();
+        // event 1 starts while the scheduler is paused
+        schedule(1, now + 1000, 1);
+        // two overdue offsets of event 2 collapse into one
+        schedule(2, now + 1000, 60);
+        schedule(2, now + 1500, 59);
+        // event 3 is late as well, but over the release rate
+        schedule(3, now + 1000, 120);
+        // event 4 comes due after the pause and fires on time
+        schedule(4, now + 5000, 300);
+
+        // paused well past the misfire threshold, so every overdue trigger misfires and fires "now"
+        Thread.sleep(4000 - (System.currentTimeMillis() - now));
+        scheduler.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (executions.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(500);
+
+        assertEquals(1, policy.getDroppedCount());
+        assertEquals(1, policy.getCollapsedCount());
+        assertEquals(1, policy.getDeferredCount());
+        // one offset of event 2, event 3 (one of them through its catch-up trigger) and event 4
+        assertEquals(3, executions.get());
+        assertTrue(scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()).isEmpty());
+    }
+}
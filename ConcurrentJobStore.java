@@ -0,0 +1,1127 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.Calendar;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.SchedulerConfigException;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.Trigger.TriggerState;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.impl.matchers.StringMatcher.StringOperatorName;
+import org.quartz.spi.ClassLoadHelper;
+import org.quartz.spi.JobStore;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.quartz.spi.TriggerFiredBundle;
+import org.quartz.spi.TriggerFiredResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory {@link JobStore} with the semantics of {@link org.quartz.simpl.RAMJobStore} but without its global lock.
+ *
+ * <p>
+ * <code>RAMJobStore</code> guards every map, the trigger time index and all trigger states with one monitor, so
+ * bulk scheduling through {@link QuartzReminder} and the scheduler thread acquiring and completing triggers
+ * queue up behind each other. Here:
+ * </p>
+ * <ul>
+ * <li>jobs, triggers and calendars live in concurrent maps,</li>
+ * <li>the waiting triggers are ordered by fire time, priority and key in a {@link ConcurrentSkipListSet},</li>
+ * <li>a job, its triggers and their states are guarded by one of <code>stripes</code> locks picked by the job key,
+ * so operations on different jobs never wait for each other.</li>
+ * </ul>
+ * <p>
+ * Paused groups, blocked jobs of <code>@DisallowConcurrentExecution</code> classes, misfire handling and the
+ * completion instructions behave exactly like in <code>RAMJobStore</code>. Nothing is persisted.
+ * </p>
+ * <p>
+ * With <code>lanes</code>, the triggers are split by priority into lanes that each keep part of the thread pool
+ * for themselves. <code>9:200, 7:100</code> keeps 200 threads for the triggers of priority 9 and above and 100 for
+ * those of priority 7 and 8, the others share the rest. A trigger is only acquired while the threads reserved for
+ * the more urgent lanes and not used by them stay free, so a backlog of low priority triggers waits in the store,
+ * where it is handled as misfired if it waits too long, instead of taking every thread from the urgent ones.
+ * </p>
+ *
+ * <pre>
+ *      org.quartz.jobStore.class = Utilities.ConcurrentJobStore
+ *      org.quartz.jobStore.misfireThreshold = 60000
+ *      org.quartz.jobStore.stripes = 64
+ *      org.quartz.jobStore.lanes = 9:200, 7:100
+ * </pre>
+ *
+ * @see org.quartz.simpl.RAMJobStore
+ */
+public class ConcurrentJobStore implements JobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentJobStore.class);
+
+    private static final AtomicLong firedTriggerCounter = new AtomicLong(System.currentTimeMillis());
+
+    private final Map<JobKey, JobWrapper> jobs = new ConcurrentHashMap<>();
+    private final Map<TriggerKey, TriggerWrapper> triggers = new ConcurrentHashMap<>();
+    private final Map<String, Calendar> calendars = new ConcurrentHashMap<>();
+    /** the waiting triggers by lane, the most urgent lane first and the shared one last */
+    private Lane[] lanes = { new Lane(Integer.MIN_VALUE, 0) };
+    /** lane of every acquired trigger until its job completed, by fire instance id, only kept with lanes */
+    private final Map<String, Lane> inFlight = new ConcurrentHashMap<>();
+    /** a due trigger was left waiting for capacity since the last release */
+    private final AtomicBoolean holding = new AtomicBoolean();
+    private final Set<String> pausedTriggerGroups = ConcurrentHashMap.newKeySet();
+    private final Set<String> pausedJobGroups = ConcurrentHashMap.newKeySet();
+
+    private Object[] locks;
+    private int stripes = 64;
+    private long misfireThreshold = 5000L;
+    private String laneSpec;
+    private int capacity = Integer.MAX_VALUE;
+    private String instanceId = "NON_CLUSTERED";
+    private SchedulerSignaler signaler;
+
+    public long getMisfireThreshold() {
+        return misfireThreshold;
+    }
+
+    /**
+     * <p>Set by Quartz from <code>org.quartz.jobStore.misfireThreshold</code>.</p>
+     *
+     * @param misfireThreshold milliseconds a trigger may be late before it counts as misfired
+     */
+    public void setMisfireThreshold(long misfireThreshold) {
+        if (misfireThreshold < 1)
+            throw new IllegalArgumentException("Misfire threshold must be larger than 0");
+        this.misfireThreshold = misfireThreshold;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * <p>Set by Quartz from <code>org.quartz.jobStore.stripes</code>, rounded up to a power of two.</p>
+     *
+     * @param stripes number of locks the jobs are spread over
+     */
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public String getLanes() {
+        return laneSpec;
+    }
+
+    /**
+     * <p>Set by Quartz from <code>org.quartz.jobStore.lanes</code>.</p>
+     *
+     * @param lanes comma separated <code>minPriority:reservedThreads</code> pairs, empty for a single lane
+     */
+    public void setLanes(String lanes) {
+        this.laneSpec = lanes;
+    }
+
+    @Override
+    public void initialize(ClassLoadHelper loadHelper, SchedulerSignaler signaler) throws SchedulerConfigException {
+        if (stripes <= 0)
+            throw new SchedulerConfigException("stripes must be > 0");
+        if (laneSpec != null && !laneSpec.trim().isEmpty())
+            lanes = parseLanes(laneSpec);
+        this.signaler = signaler;
+        int size = 1;
+        while (size < stripes)
+            size <<= 1;
+        locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        logger.info("concurrent job store initialized with {} stripes", size);
+        if (lanes.length > 1)
+            logger.info("{} lanes over {} threads: {}", lanes.length, capacity, laneSpec);
+    }
+
+    private static Lane[] parseLanes(String spec) throws SchedulerConfigException {
+        List<Lane> parsed = new ArrayList<>();
+        for (String lane : spec.split(",")) {
+            String[] parts = lane.trim().split(":");
+            try {
+                parsed.add(new Lane(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())));
+            } catch (RuntimeException e) {
+                throw new SchedulerConfigException("lane '" + lane.trim() + "' is not minPriority:reservedThreads");
+            }
+        }
+        parsed.sort((a, b) -> Integer.compare(b.minPriority, a.minPriority));
+        parsed.add(new Lane(Integer.MIN_VALUE, 0));
+        return parsed.toArray(new Lane[0]);
+    }
+
+    private Object stripe(JobKey jobKey) {
+        int h = jobKey.hashCode();
+        return locks[(h ^ (h >>> 16)) & (locks.length - 1)];
+    }
+
+    @Override
+    public void schedulerStarted() {
+    }
+
+    @Override
+    public void schedulerPaused() {
+    }
+
+    @Override
+    public void schedulerResumed() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean supportsPersistence() {
+        return false;
+    }
+
+    @Override
+    public long getEstimatedTimeToReleaseAndAcquireTrigger() {
+        return 5;
+    }
+
+    @Override
+    public boolean isClustered() {
+        return false;
+    }
+
+    @Override
+    public void setInstanceId(String schedInstId) {
+        this.instanceId = schedInstId;
+    }
+
+    @Override
+    public void setInstanceName(String schedName) {
+    }
+
+    /**
+     * <p>Set by Quartz, the capacity shared by the lanes.</p>
+     */
+    @Override
+    public void setThreadPoolSize(int poolSize) {
+        if (poolSize > 0)
+            this.capacity = poolSize;
+    }
+
+    @Override
+    public long getAcquireRetryDelay(int failureCount) {
+        return 20;
+    }
+
+    // ---------------------------------------------------------------- jobs and triggers
+
+    @Override
+    public void storeJobAndTrigger(JobDetail newJob, OperableTrigger newTrigger) throws JobPersistenceException {
+        storeJob(newJob, false);
+        storeTrigger(newTrigger, false);
+    }
+
+    @Override
+    public void storeJob(JobDetail newJob, boolean replaceExisting) throws JobPersistenceException {
+        JobKey key = newJob.getKey();
+        JobDetail copy = (JobDetail) newJob.clone();
+        synchronized (stripe(key)) {
+            JobWrapper existing = jobs.get(key);
+            if (existing == null) {
+                jobs.put(key, new JobWrapper(copy));
+            } else if (replaceExisting) {
+                existing.jobDetail = copy;
+            } else {
+                throw new ObjectAlreadyExistsException(newJob);
+            }
+        }
+    }
+
+    @Override
+    public void storeJobsAndTriggers(Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
+            throws JobPersistenceException {
+        if (!replace) {
+            for (Map.Entry<JobDetail, Set<? extends Trigger>> e : triggersAndJobs.entrySet()) {
+                if (checkExists(e.getKey().getKey()))
+                    throw new ObjectAlreadyExistsException(e.getKey());
+                for (Trigger trigger : e.getValue()) {
+                    if (checkExists(trigger.getKey()))
+                        throw new ObjectAlreadyExistsException(trigger);
+                }
+            }
+        }
+        for (Map.Entry<JobDetail, Set<? extends Trigger>> e : triggersAndJobs.entrySet()) {
+            storeJob(e.getKey(), true);
+            for (Trigger trigger : e.getValue()) {
+                storeTrigger((OperableTrigger) trigger, true);
+            }
+        }
+    }
+
+    @Override
+    public boolean removeJob(JobKey jobKey) {
+        synchronized (stripe(jobKey)) {
+            JobWrapper jw = jobs.remove(jobKey);
+            if (jw == null)
+                return false;
+            for (TriggerWrapper tw : jw.triggers) {
+                triggers.remove(tw.key, tw);
+                unindex(tw);
+            }
+            jw.triggers.clear();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeJobs(List<JobKey> jobKeys) {
+        boolean allFound = true;
+        for (JobKey key : jobKeys) {
+            allFound = removeJob(key) && allFound;
+        }
+        return allFound;
+    }
+
+    @Override
+    public JobDetail retrieveJob(JobKey jobKey) {
+        JobWrapper jw = jobs.get(jobKey);
+        return jw == null ? null : (JobDetail) jw.jobDetail.clone();
+    }
+
+    @Override
+    public void storeTrigger(OperableTrigger newTrigger, boolean replaceExisting) throws JobPersistenceException {
+        TriggerKey key = newTrigger.getKey();
+        TriggerWrapper tw = new TriggerWrapper((OperableTrigger) newTrigger.clone());
+        while (true) {
+            TriggerWrapper existing = triggers.get(key);
+            if (existing != null) {
+                if (!replaceExisting)
+                    throw new ObjectAlreadyExistsException(newTrigger);
+                removeTrigger(existing, false);
+                continue;
+            }
+            synchronized (stripe(tw.jobKey)) {
+                JobWrapper jw = jobs.get(tw.jobKey);
+                if (jw == null)
+                    throw new JobPersistenceException("The job (" + tw.jobKey + ") referenced by the trigger does not exist.");
+                if (insert(jw, tw))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * <p>Adds the trigger to its job, called with the job's stripe held.</p>
+     *
+     * @return false if another trigger with the same key got stored meanwhile
+     */
+    private boolean insert(JobWrapper jw, TriggerWrapper tw) {
+        if (triggers.putIfAbsent(tw.key, tw) != null)
+            return false;
+        jw.triggers.add(tw);
+        if (pausedTriggerGroups.contains(tw.key.getGroup()) || pausedJobGroups.contains(tw.jobKey.getGroup())) {
+            tw.state = jw.blocked ? State.PAUSED_BLOCKED : State.PAUSED;
+        } else if (jw.blocked) {
+            tw.state = State.BLOCKED;
+        } else {
+            tw.state = State.WAITING;
+            index(tw);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeTrigger(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        return tw != null && removeTrigger(tw, true);
+    }
+
+    private boolean removeTrigger(TriggerWrapper tw, boolean removeOrphanedJob) {
+        boolean jobDeleted = false;
+        synchronized (stripe(tw.jobKey)) {
+            if (!triggers.remove(tw.key, tw))
+                return false;
+            unindex(tw);
+            JobWrapper jw = jobs.get(tw.jobKey);
+            if (jw != null) {
+                jw.triggers.remove(tw);
+                if (removeOrphanedJob && jw.triggers.isEmpty() && !jw.jobDetail.isDurable()) {
+                    jobs.remove(tw.jobKey);
+                    jobDeleted = true;
+                }
+            }
+        }
+        if (jobDeleted)
+            signaler.notifySchedulerListenersJobDeleted(tw.jobKey);
+        return true;
+    }
+
+    @Override
+    public boolean removeTriggers(List<TriggerKey> triggerKeys) {
+        boolean allFound = true;
+        for (TriggerKey key : triggerKeys) {
+            allFound = removeTrigger(key) && allFound;
+        }
+        return allFound;
+    }
+
+    @Override
+    public boolean replaceTrigger(TriggerKey triggerKey, OperableTrigger newTrigger) throws JobPersistenceException {
+        TriggerWrapper old = triggers.get(triggerKey);
+        if (old == null)
+            return false;
+        if (!old.jobKey.equals(newTrigger.getJobKey()))
+            throw new JobPersistenceException("New trigger is not related to the same job as the old trigger.");
+        TriggerWrapper tw = new TriggerWrapper((OperableTrigger) newTrigger.clone());
+        synchronized (stripe(old.jobKey)) {
+            if (!triggers.remove(triggerKey, old))
+                return false;
+            unindex(old);
+            JobWrapper jw = jobs.get(old.jobKey);
+            jw.triggers.remove(old);
+            if (!insert(jw, tw)) {
+                insert(jw, old);
+                throw new ObjectAlreadyExistsException(newTrigger);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public OperableTrigger retrieveTrigger(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        if (tw == null)
+            return null;
+        synchronized (stripe(tw.jobKey)) {
+            return (OperableTrigger) tw.trigger.clone();
+        }
+    }
+
+    @Override
+    public boolean checkExists(JobKey jobKey) {
+        return jobs.containsKey(jobKey);
+    }
+
+    @Override
+    public boolean checkExists(TriggerKey triggerKey) {
+        return triggers.containsKey(triggerKey);
+    }
+
+    @Override
+    public void clearAllSchedulingData() {
+        for (JobKey key : new ArrayList<>(jobs.keySet())) {
+            removeJob(key);
+        }
+        for (TriggerWrapper tw : new ArrayList<>(triggers.values())) {
+            removeTrigger(tw, false);
+        }
+        calendars.clear();
+    }
+
+    // ---------------------------------------------------------------- calendars
+
+    @Override
+    public void storeCalendar(String name, Calendar calendar, boolean replaceExisting, boolean updateTriggers)
+            throws JobPersistenceException {
+        Calendar copy = (Calendar) calendar.clone();
+        Calendar previous = calendars.putIfAbsent(name, copy);
+        if (previous == null)
+            return;
+        if (!replaceExisting)
+            throw new ObjectAlreadyExistsException("Calendar with name '" + name + "' already exists.");
+        calendars.put(name, copy);
+        if (!updateTriggers)
+            return;
+        for (TriggerWrapper tw : triggers.values()) {
+            if (!name.equals(tw.trigger.getCalendarName()))
+                continue;
+            synchronized (stripe(tw.jobKey)) {
+                boolean indexed = unindex(tw);
+                tw.trigger.updateWithNewCalendar(copy, misfireThreshold);
+                if (indexed)
+                    index(tw);
+            }
+        }
+    }
+
+    @Override
+    public boolean removeCalendar(String calName) throws JobPersistenceException {
+        for (TriggerWrapper tw : triggers.values()) {
+            if (calName.equals(tw.trigger.getCalendarName()))
+                throw new JobPersistenceException("Calender cannot be removed if it referenced by a Trigger!");
+        }
+        return calendars.remove(calName) != null;
+    }
+
+    @Override
+    public Calendar retrieveCalendar(String calName) {
+        Calendar calendar = calendars.get(calName);
+        return calendar == null ? null : (Calendar) calendar.clone();
+    }
+
+    // ---------------------------------------------------------------- lookups
+
+    @Override
+    public int getNumberOfJobs() {
+        return jobs.size();
+    }
+
+    @Override
+    public int getNumberOfTriggers() {
+        return triggers.size();
+    }
+
+    @Override
+    public int getNumberOfCalendars() {
+        return calendars.size();
+    }
+
+    @Override
+    public Set<JobKey> getJobKeys(GroupMatcher<JobKey> matcher) {
+        Set<JobKey> keys = new HashSet<>();
+        for (JobKey key : jobs.keySet()) {
+            if (matcher.isMatch(key))
+                keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<TriggerKey> getTriggerKeys(GroupMatcher<TriggerKey> matcher) {
+        Set<TriggerKey> keys = new HashSet<>();
+        for (TriggerKey key : triggers.keySet()) {
+            if (matcher.isMatch(key))
+                keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public List<String> getJobGroupNames() {
+        Set<String> groups = new HashSet<>();
+        for (JobKey key : jobs.keySet()) {
+            groups.add(key.getGroup());
+        }
+        return new ArrayList<>(groups);
+    }
+
+    @Override
+    public List<String> getTriggerGroupNames() {
+        Set<String> groups = new HashSet<>();
+        for (TriggerKey key : triggers.keySet()) {
+            groups.add(key.getGroup());
+        }
+        return new ArrayList<>(groups);
+    }
+
+    @Override
+    public List<String> getCalendarNames() {
+        return new ArrayList<>(calendars.keySet());
+    }
+
+    @Override
+    public List<OperableTrigger> getTriggersForJob(JobKey jobKey) {
+        synchronized (stripe(jobKey)) {
+            JobWrapper jw = jobs.get(jobKey);
+            if (jw == null)
+                return new ArrayList<>();
+            List<OperableTrigger> result = new ArrayList<>(jw.triggers.size());
+            for (TriggerWrapper tw : jw.triggers) {
+                result.add((OperableTrigger) tw.trigger.clone());
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public TriggerState getTriggerState(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        if (tw == null)
+            return TriggerState.NONE;
+        switch (tw.state) {
+        case COMPLETE:
+            return TriggerState.COMPLETE;
+        case PAUSED:
+        case PAUSED_BLOCKED:
+            return TriggerState.PAUSED;
+        case BLOCKED:
+            return TriggerState.BLOCKED;
+        case ERROR:
+            return TriggerState.ERROR;
+        default:
+            return TriggerState.NORMAL;
+        }
+    }
+
+    @Override
+    public void resetTriggerFromErrorState(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        if (tw == null)
+            return;
+        synchronized (stripe(tw.jobKey)) {
+            if (tw.state != State.ERROR)
+                return;
+            if (pausedTriggerGroups.contains(triggerKey.getGroup())) {
+                tw.state = State.PAUSED;
+            } else {
+                tw.state = State.WAITING;
+                index(tw);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- pause and resume
+
+    @Override
+    public void pauseTrigger(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        if (tw == null)
+            return;
+        synchronized (stripe(tw.jobKey)) {
+            if (tw.state == State.COMPLETE)
+                return;
+            tw.state = tw.state == State.BLOCKED ? State.PAUSED_BLOCKED : State.PAUSED;
+            unindex(tw);
+        }
+    }
+
+    @Override
+    public Collection<String> pauseTriggers(GroupMatcher<TriggerKey> matcher) {
+        List<String> pausedGroups = new ArrayList<>();
+        StringOperatorName operator = matcher.getCompareWithOperator();
+        if (operator == StringOperatorName.EQUALS) {
+            if (pausedTriggerGroups.add(matcher.getCompareToValue()))
+                pausedGroups.add(matcher.getCompareToValue());
+        } else {
+            for (String group : getTriggerGroupNames()) {
+                if (operator.evaluate(group, matcher.getCompareToValue()) && pausedTriggerGroups.add(group))
+                    pausedGroups.add(group);
+            }
+        }
+        for (String group : pausedGroups) {
+            for (TriggerKey key : getTriggerKeys(GroupMatcher.triggerGroupEquals(group))) {
+                pauseTrigger(key);
+            }
+        }
+        return pausedGroups;
+    }
+
+    @Override
+    public void pauseJob(JobKey jobKey) {
+        for (OperableTrigger trigger : getTriggersForJob(jobKey)) {
+            pauseTrigger(trigger.getKey());
+        }
+    }
+
+    @Override
+    public Collection<String> pauseJobs(GroupMatcher<JobKey> matcher) {
+        List<String> pausedGroups = new ArrayList<>();
+        StringOperatorName operator = matcher.getCompareWithOperator();
+        if (operator == StringOperatorName.EQUALS) {
+            if (pausedJobGroups.add(matcher.getCompareToValue()))
+                pausedGroups.add(matcher.getCompareToValue());
+        } else {
+            for (String group : getJobGroupNames()) {
+                if (operator.evaluate(group, matcher.getCompareToValue()) && pausedJobGroups.add(group))
+                    pausedGroups.add(group);
+            }
+        }
+        for (String group : pausedGroups) {
+            for (JobKey key : getJobKeys(GroupMatcher.jobGroupEquals(group))) {
+                pauseJob(key);
+            }
+        }
+        return pausedGroups;
+    }
+
+    @Override
+    public void resumeTrigger(TriggerKey triggerKey) {
+        TriggerWrapper tw = triggers.get(triggerKey);
+        if (tw == null)
+            return;
+        synchronized (stripe(tw.jobKey)) {
+            if (tw.state != State.PAUSED && tw.state != State.PAUSED_BLOCKED)
+                return;
+            JobWrapper jw = jobs.get(tw.jobKey);
+            tw.state = jw != null && jw.blocked ? State.BLOCKED : State.WAITING;
+            applyMisfire(tw);
+            if (tw.state == State.WAITING)
+                index(tw);
+        }
+    }
+
+    @Override
+    public Collection<String> resumeTriggers(GroupMatcher<TriggerKey> matcher) {
+        StringOperatorName operator = matcher.getCompareWithOperator();
+        // un-pause the groups first, so that a trigger stored meanwhile is not left paused
+        pausedTriggerGroups.removeIf(group -> operator.evaluate(group, matcher.getCompareToValue()));
+        Set<String> groups = new HashSet<>();
+        for (TriggerKey key : getTriggerKeys(matcher)) {
+            groups.add(key.getGroup());
+            TriggerWrapper tw = triggers.get(key);
+            if (tw != null && pausedJobGroups.contains(tw.jobKey.getGroup()))
+                continue;
+            resumeTrigger(key);
+        }
+        return new ArrayList<>(groups);
+    }
+
+    @Override
+    public Set<String> getPausedTriggerGroups() {
+        return new HashSet<>(pausedTriggerGroups);
+    }
+
+    @Override
+    public void resumeJob(JobKey jobKey) {
+        for (OperableTrigger trigger : getTriggersForJob(jobKey)) {
+            resumeTrigger(trigger.getKey());
+        }
+    }
+
+    @Override
+    public Collection<String> resumeJobs(GroupMatcher<JobKey> matcher) {
+        Set<String> resumedGroups = new HashSet<>();
+        for (String group : pausedJobGroups) {
+            if (matcher.getCompareWithOperator().evaluate(group, matcher.getCompareToValue()))
+                resumedGroups.add(group);
+        }
+        pausedJobGroups.removeAll(resumedGroups);
+        for (JobKey key : getJobKeys(matcher)) {
+            resumeJob(key);
+            resumedGroups.add(key.getGroup());
+        }
+        return resumedGroups;
+    }
+
+    @Override
+    public void pauseAll() {
+        for (String group : getTriggerGroupNames()) {
+            pauseTriggers(GroupMatcher.triggerGroupEquals(group));
+        }
+    }
+
+    @Override
+    public void resumeAll() {
+        pausedJobGroups.clear();
+        resumeTriggers(GroupMatcher.anyTriggerGroup());
+    }
+
+    // ---------------------------------------------------------------- firing
+
+    /**
+     * <p>Walks the time index in order, claiming each due trigger under its job's stripe only, so triggers
+     * stored meanwhile for other jobs are not held up.</p>
+     *
+     * <p>With lanes, the lanes are walked side by side, always taking the earliest due trigger of a lane that
+     * still has capacity.</p>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<OperableTrigger> acquireNextTriggers(long noLaterThan, int maxCount, long timeWindow) {
+        Iterator<IndexEntry>[] entries = new Iterator[lanes.length];
+        IndexEntry[] heads = new IndexEntry[lanes.length];
+        boolean empty = true;
+        for (int i = 0; i < lanes.length; i++) {
+            entries[i] = lanes[i].index.iterator();
+            heads[i] = entries[i].hasNext() ? entries[i].next() : null;
+            empty &= heads[i] == null;
+        }
+        if (empty)
+            return Collections.emptyList();
+        List<OperableTrigger> result = new ArrayList<>(Math.min(maxCount, 16));
+        Set<JobKey> acquiredJobKeysForNoConcurrentExec = new HashSet<>();
+        long batchEnd = noLaterThan;
+
+        while (result.size() < maxCount) {
+            int lane = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] == null || heads[i].fireTime > batchEnd)
+                    continue;
+                if (!admits(i)) {
+                    // the lane waits for a release, the rest of its triggers are not looked at this round
+                    heads[i] = null;
+                    holding.set(true);
+                    continue;
+                }
+                if (lane < 0 || heads[i].compareTo(heads[lane]) < 0)
+                    lane = i;
+            }
+            if (lane < 0)
+                break;
+            IndexEntry entry = heads[lane];
+            heads[lane] = entries[lane].hasNext() ? entries[lane].next() : null;
+            TriggerWrapper tw = entry.wrapper;
+            synchronized (stripe(tw.jobKey)) {
+                // unindexed, re-indexed or paused since the iterator saw it
+                if (tw.indexed != entry || tw.state != State.WAITING)
+                    continue;
+                if (applyMisfire(tw)) {
+                    index(tw);
+                    continue;
+                }
+                JobWrapper jw = jobs.get(tw.jobKey);
+                if (jw.jobDetail.isConcurrentExectionDisallowed() && !acquiredJobKeysForNoConcurrentExec.add(tw.jobKey))
+                    continue;
+                unindex(tw);
+                tw.state = State.ACQUIRED;
+                tw.trigger.setFireInstanceId(instanceId + firedTriggerCounter.incrementAndGet());
+                if (lanes.length > 1) {
+                    entry.lane.inFlight.incrementAndGet();
+                    inFlight.put(tw.trigger.getFireInstanceId(), entry.lane);
+                }
+                if (result.isEmpty())
+                    batchEnd = Math.max(entry.fireTime, System.currentTimeMillis()) + timeWindow;
+                result.add((OperableTrigger) tw.trigger.clone());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>Called on the scheduler thread only, which is the only one taking capacity.</p>
+     *
+     * @param lane index in {@link #lanes}
+     * @return true if a trigger of the lane can be acquired without using threads reserved for a more urgent lane
+     */
+    private boolean admits(int lane) {
+        if (lanes.length == 1)
+            return true;
+        int free = capacity;
+        for (int i = 0; i < lanes.length; i++) {
+            int used = lanes[i].inFlight.get();
+            free -= i < lane ? Math.max(used, lanes[i].reserved) : used;
+        }
+        return free > 0;
+    }
+
+    /**
+     * <p>Gives the capacity of an acquired trigger back to its lane and wakes the scheduler thread if a trigger
+     * was waiting for it.</p>
+     */
+    private void release(OperableTrigger trigger) {
+        if (lanes.length == 1 || trigger.getFireInstanceId() == null)
+            return;
+        Lane lane = inFlight.remove(trigger.getFireInstanceId());
+        if (lane == null)
+            return;
+        lane.inFlight.decrementAndGet();
+        if (holding.compareAndSet(true, false))
+            signaler.signalSchedulingChange(0L);
+    }
+
+    /**
+     * <p>Applies the misfire instruction if the trigger is late, called with the job's stripe held. The caller
+     * re-indexes the trigger when its fire time changed.</p>
+     *
+     * @return true if the fire time of the trigger changed
+     */
+    private boolean applyMisfire(TriggerWrapper tw) {
+        long misfireTime = System.currentTimeMillis();
+        if (misfireThreshold > 0)
+            misfireTime -= misfireThreshold;
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        if (nextFireTime == null || nextFireTime.getTime() > misfireTime
+                || tw.trigger.getMisfireInstruction() == Trigger.MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY)
+            return false;
+
+        Calendar calendar = tw.trigger.getCalendarName() == null ? null : calendars.get(tw.trigger.getCalendarName());
+        signaler.notifyTriggerListenersMisfired((OperableTrigger) tw.trigger.clone());
+        tw.trigger.updateAfterMisfire(calendar);
+
+        if (tw.trigger.getNextFireTime() == null) {
+            tw.state = State.COMPLETE;
+            signaler.notifySchedulerListenersFinalized(tw.trigger);
+            return true;
+        }
+        return !nextFireTime.equals(tw.trigger.getNextFireTime());
+    }
+
+    @Override
+    public void releaseAcquiredTrigger(OperableTrigger trigger) {
+        release(trigger);
+        TriggerWrapper tw = triggers.get(trigger.getKey());
+        if (tw == null)
+            return;
+        synchronized (stripe(tw.jobKey)) {
+            if (tw.state == State.ACQUIRED) {
+                tw.state = State.WAITING;
+                index(tw);
+            }
+        }
+    }
+
+    @Override
+    public List<TriggerFiredResult> triggersFired(List<OperableTrigger> firedTriggers) {
+        List<TriggerFiredResult> results = new ArrayList<>(firedTriggers.size());
+        for (OperableTrigger trigger : firedTriggers) {
+            TriggerFiredResult result = fire(trigger);
+            if (result == null)
+                release(trigger);
+            else
+                results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * @return null if the trigger can not fire any more
+     */
+    private TriggerFiredResult fire(OperableTrigger trigger) {
+        TriggerWrapper tw = triggers.get(trigger.getKey());
+        if (tw == null)
+            return null;
+        synchronized (stripe(tw.jobKey)) {
+            // was the trigger deleted or re-stored since being acquired?
+            if (tw.state != State.ACQUIRED || triggers.get(tw.key) != tw)
+                return null;
+            Calendar calendar = null;
+            if (tw.trigger.getCalendarName() != null) {
+                calendar = calendars.get(tw.trigger.getCalendarName());
+                if (calendar == null)
+                    return null;
+            }
+            Date prevFireTime = trigger.getPreviousFireTime();
+            unindex(tw);
+            tw.trigger.triggered(calendar);
+            trigger.triggered(calendar);
+            tw.state = State.WAITING;
+
+            JobWrapper jw = jobs.get(tw.jobKey);
+            TriggerFiredBundle bundle = new TriggerFiredBundle((JobDetail) jw.jobDetail.clone(), trigger, calendar,
+                    false, new Date(), trigger.getPreviousFireTime(), prevFireTime, trigger.getNextFireTime());
+
+            if (jw.jobDetail.isConcurrentExectionDisallowed()) {
+                for (TriggerWrapper ttw : jw.triggers) {
+                    if (ttw.state == State.WAITING)
+                        ttw.state = State.BLOCKED;
+                    if (ttw.state == State.PAUSED)
+                        ttw.state = State.PAUSED_BLOCKED;
+                    unindex(ttw);
+                }
+                jw.blocked = true;
+            } else if (tw.trigger.getNextFireTime() != null) {
+                index(tw);
+            }
+            return new TriggerFiredResult(bundle);
+        }
+    }
+
+    @Override
+    public void triggeredJobComplete(OperableTrigger trigger, JobDetail jobDetail,
+            CompletedExecutionInstruction triggerInstCode) {
+        release(trigger);
+        JobKey jobKey = jobDetail.getKey();
+        synchronized (stripe(jobKey)) {
+            JobWrapper jw = jobs.get(jobKey);
+            if (jw != null) {
+                JobDetail jd = jw.jobDetail;
+                if (jd.isPersistJobDataAfterExecution()) {
+                    JobDataMap newData = jobDetail.getJobDataMap();
+                    if (newData != null) {
+                        newData = (JobDataMap) newData.clone();
+                        newData.clearDirtyFlag();
+                    }
+                    jd = jd.getJobBuilder().setJobData(newData).build();
+                    jw.jobDetail = jd;
+                }
+                if (jw.blocked) {
+                    jw.blocked = false;
+                    for (TriggerWrapper ttw : jw.triggers) {
+                        if (ttw.state == State.BLOCKED) {
+                            ttw.state = State.WAITING;
+                            index(ttw);
+                        }
+                        if (ttw.state == State.PAUSED_BLOCKED)
+                            ttw.state = State.PAUSED;
+                    }
+                    signaler.signalSchedulingChange(0L);
+                }
+            }
+        }
+
+        TriggerWrapper tw = triggers.get(trigger.getKey());
+        if (tw == null)
+            return;
+        switch (triggerInstCode) {
+        case DELETE_TRIGGER:
+            if (trigger.getNextFireTime() == null) {
+                // the job may have rescheduled its trigger, then there is nothing to delete
+                if (tw.trigger.getNextFireTime() == null)
+                    removeTrigger(tw, true);
+            } else {
+                removeTrigger(tw, true);
+                signaler.signalSchedulingChange(0L);
+            }
+            break;
+        case SET_TRIGGER_COMPLETE:
+            setState(tw, State.COMPLETE);
+            signaler.signalSchedulingChange(0L);
+            break;
+        case SET_TRIGGER_ERROR:
+            logger.info("Trigger {} set to ERROR state.", trigger.getKey());
+            setState(tw, State.ERROR);
+            signaler.signalSchedulingChange(0L);
+            break;
+        case SET_ALL_JOB_TRIGGERS_ERROR:
+            logger.info("All triggers of Job {} set to ERROR state.", trigger.getJobKey());
+            setAllTriggersOfJobToState(trigger.getJobKey(), State.ERROR);
+            signaler.signalSchedulingChange(0L);
+            break;
+        case SET_ALL_JOB_TRIGGERS_COMPLETE:
+            setAllTriggersOfJobToState(trigger.getJobKey(), State.COMPLETE);
+            signaler.signalSchedulingChange(0L);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void setState(TriggerWrapper tw, State state) {
+        synchronized (stripe(tw.jobKey)) {
+            tw.state = state;
+            unindex(tw);
+        }
+    }
+
+    private void setAllTriggersOfJobToState(JobKey jobKey, State state) {
+        synchronized (stripe(jobKey)) {
+            JobWrapper jw = jobs.get(jobKey);
+            if (jw == null)
+                return;
+            for (TriggerWrapper tw : jw.triggers) {
+                tw.state = state;
+                unindex(tw);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- time index
+
+    /**
+     * <p>Puts the trigger in the time index under its current fire time, called with the job's stripe held.</p>
+     */
+    private void index(TriggerWrapper tw) {
+        unindex(tw);
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        if (nextFireTime == null)
+            return;
+        int priority = tw.trigger.getPriority();
+        IndexEntry entry = new IndexEntry(nextFireTime.getTime(), priority, laneOf(priority), tw);
+        tw.indexed = entry;
+        entry.lane.index.add(entry);
+    }
+
+    private Lane laneOf(int priority) {
+        for (Lane lane : lanes) {
+            if (priority >= lane.minPriority)
+                return lane;
+        }
+        return lanes[lanes.length - 1];
+    }
+
+    /**
+     * @return true if the trigger was in the time index
+     */
+    private boolean unindex(TriggerWrapper tw) {
+        IndexEntry entry = tw.indexed;
+        if (entry == null)
+            return false;
+        tw.indexed = null;
+        return entry.lane.index.remove(entry);
+    }
+
+    private enum State {
+        WAITING, ACQUIRED, COMPLETE, PAUSED, BLOCKED, PAUSED_BLOCKED, ERROR
+    }
+
+    private static final class JobWrapper {
+        volatile JobDetail jobDetail;
+        /** guarded by the job's stripe */
+        final List<TriggerWrapper> triggers = new ArrayList<>(2);
+        /** a trigger of this @DisallowConcurrentExecution job is executing, guarded by the job's stripe */
+        boolean blocked;
+
+        JobWrapper(JobDetail jobDetail) {
+            this.jobDetail = jobDetail;
+        }
+    }
+
+    private static final class TriggerWrapper {
+        final TriggerKey key;
+        final JobKey jobKey;
+        /** mutated under the job's stripe only */
+        final OperableTrigger trigger;
+        volatile State state = State.WAITING;
+        /** entry in the time index, null when not waiting to fire */
+        volatile IndexEntry indexed;
+
+        TriggerWrapper(OperableTrigger trigger) {
+            this.key = trigger.getKey();
+            this.jobKey = trigger.getJobKey();
+            this.trigger = trigger;
+        }
+    }
+
+    /**
+     * triggers of <code>minPriority</code> and above not taken by a more urgent lane, with the threads kept for them
+     */
+    private static final class Lane {
+        final int minPriority;
+        final int reserved;
+        /** waiting triggers, ordered by fire time, priority and key */
+        final ConcurrentSkipListSet<IndexEntry> index = new ConcurrentSkipListSet<>();
+        /** acquired triggers whose job did not complete yet */
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Lane(int minPriority, int reserved) {
+            this.minPriority = minPriority;
+            this.reserved = reserved;
+        }
+    }
+
+    /**
+     * immutable snapshot of the ordering fields of a waiting trigger, replaced whenever its fire time changes
+     */
+    private static final class IndexEntry implements Comparable<IndexEntry> {
+        final long fireTime;
+        final int priority;
+        final Lane lane;
+        final TriggerWrapper wrapper;
+
+        IndexEntry(long fireTime, int priority, Lane lane, TriggerWrapper wrapper) {
+            this.fireTime = fireTime;
+            this.priority = priority;
+            this.lane = lane;
+            this.wrapper = wrapper;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other) {
+            if (fireTime != other.fireTime)
+                return fireTime < other.fireTime ? -1 : 1;
+            if (priority != other.priority)
+                return priority > other.priority ? -1 : 1;
+            // only the trigger stored under a key is ever indexed, so the key is unique
+            return wrapper.key.compareTo(other.wrapper.key);
+        }
+    }
+}
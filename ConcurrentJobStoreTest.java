@@ -0,0 +1,208 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.Trigger;
+import org.quartz.Trigger.TriggerState;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
+
+public class ConcurrentJobStoreTest {
+
+    private static volatile CountDownLatch fired;
+    private static final AtomicInteger firings = new AtomicInteger();
+
+    public static class CountingJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) {
+            firings.incrementAndGet();
+            fired.countDown();
+        }
+    }
+
+    private static volatile CountDownLatch released;
+    private static final AtomicInteger urgentStarted = new AtomicInteger();
+    private static final AtomicInteger farStarted = new AtomicInteger();
+
+    public static class BlockingJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) {
+            if (context.getTrigger().getPriority() >= 9)
+                urgentStarted.incrementAndGet();
+            else
+                farStarted.incrementAndGet();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Scheduler scheduler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("org.quartz.scheduler.instanceName", "ConcurrentJobStoreTest");
+        properties.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+        properties.setProperty("org.quartz.threadPool.threadCount", "8");
+        properties.setProperty("org.quartz.scheduler.batchTriggerAcquisitionMaxCount", "50");
+        properties.setProperty("org.quartz.jobStore.class", "Utilities.ConcurrentJobStore");
+        properties.setProperty("org.quartz.jobStore.stripes", "16");
+        scheduler = new StdSchedulerFactory(properties).getScheduler();
+        firings.set(0);
+        scheduler.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        scheduler.shutdown(true);
+    }
+
+    private static JobDetail job(String name) {
+        return JobBuilder.newJob(CountingJob.class).withIdentity(name, "test").build();
+    }
+
+    private static Trigger trigger(String name, JobKey jobKey, Date startAt) {
+        return TriggerBuilder.newTrigger().withIdentity(name, "test").forJob(jobKey).startAt(startAt).build();
+    }
+
+    @Test
+    public void testConcurrentSchedulingWhileFiring() throws Exception {
+        int threads = 4;
+        int perThread = 250;
+        fired = new CountDownLatch(threads * perThread);
+        ExecutorService producers = Executors.newFixedThreadPool(threads);
+        Future<?>[] done = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            done[t] = producers.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    JobDetail job = job(thread + "-" + i);
+                    scheduler.scheduleJob(job, trigger(thread + "-" + i, job.getKey(), new Date()));
+                }
+                return null;
+            });
+        }
+        for (Future<?> future : done) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        producers.shutdown();
+
+        assertTrue(fired.await(20, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(threads * perThread, firings.get());
+        // one-shot triggers are gone and took their non-durable jobs along
+        assertEquals(0, scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()).size());
+        assertEquals(0, scheduler.getJobKeys(GroupMatcher.anyJobGroup()).size());
+    }
+
+    @Test
+    public void testPauseResumeAndReplace() throws Exception {
+        fired = new CountDownLatch(1);
+        JobDetail job = job("paused");
+        Date later = new Date(System.currentTimeMillis() + 300);
+        scheduler.scheduleJob(job, trigger("paused", job.getKey(), later));
+        TriggerKey key = TriggerKey.triggerKey("paused", "test");
+
+        scheduler.pauseTriggers(GroupMatcher.triggerGroupEquals("test"));
+        assertEquals(TriggerState.PAUSED, scheduler.getTriggerState(key));
+        // a trigger stored in a paused group starts paused
+        scheduler.rescheduleJob(key, trigger("paused", job.getKey(), later));
+        assertEquals(TriggerState.PAUSED, scheduler.getTriggerState(key));
+        Thread.sleep(500);
+        assertEquals(0, firings.get());
+
+        scheduler.resumeTriggers(GroupMatcher.triggerGroupEquals("test"));
+        assertTrue(scheduler.getPausedTriggerGroups().isEmpty());
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertFalse(scheduler.checkExists(key));
+        assertFalse(scheduler.checkExists(job.getKey()));
+    }
+
+    @Test
+    public void testUnschedulingKeepsDurableJob() throws Exception {
+        JobDetail job = JobBuilder.newJob(CountingJob.class).withIdentity("durable", "test").storeDurably().build();
+        scheduler.addJob(job, false);
+        Date later = new Date(System.currentTimeMillis() + 60_000);
+        scheduler.scheduleJob(trigger("first", job.getKey(), later));
+        scheduler.scheduleJob(trigger("second", job.getKey(), later));
+        assertEquals(2, scheduler.getTriggersOfJob(job.getKey()).size());
+
+        assertTrue(scheduler.unscheduleJob(TriggerKey.triggerKey("first", "test")));
+        assertTrue(scheduler.unscheduleJob(TriggerKey.triggerKey("second", "test")));
+        assertFalse(scheduler.unscheduleJob(TriggerKey.triggerKey("second", "test")));
+        assertTrue(scheduler.checkExists(job.getKey()));
+        assertTrue(scheduler.deleteJob(job.getKey()));
+    }
+
+    @Test
+    public void testLaneKeepsThreadsForUrgentTriggers() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("org.quartz.scheduler.instanceName", "ConcurrentJobStoreLaneTest");
+        properties.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+        properties.setProperty("org.quartz.threadPool.threadCount", "4");
+        properties.setProperty("org.quartz.jobStore.class", "Utilities.ConcurrentJobStore");
+        properties.setProperty("org.quartz.jobStore.lanes", "9:2");
+        Scheduler laned = new StdSchedulerFactory(properties).getScheduler();
+        released = new CountDownLatch(1);
+        urgentStarted.set(0);
+        farStarted.set(0);
+        laned.start();
+        try {
+            for (int i = 0; i < 6; i++) {
+                JobDetail job = JobBuilder.newJob(BlockingJob.class).withIdentity("far-" + i, "test").build();
+                laned.scheduleJob(job, TriggerBuilder.newTrigger().withIdentity("far-" + i, "test")
+                        .withPriority(Trigger.DEFAULT_PRIORITY).startNow().build());
+            }
+            // two of the four threads are kept for priority 9, however many far triggers are due
+            waitFor(farStarted, 2);
+            Thread.sleep(300);
+            assertEquals(2, farStarted.get());
+
+            for (int i = 0; i < 2; i++) {
+                JobDetail job = JobBuilder.newJob(BlockingJob.class).withIdentity("urgent-" + i, "test").build();
+                laned.scheduleJob(job, TriggerBuilder.newTrigger().withIdentity("urgent-" + i, "test")
+                        .withPriority(9).startNow().build());
+            }
+            waitFor(urgentStarted, 2);
+            assertEquals(2, farStarted.get());
+
+            released.countDown();
+            waitFor(farStarted, 6);
+        } finally {
+            released.countDown();
+            laned.shutdown(true);
+        }
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, counter.get());
+    }
+}
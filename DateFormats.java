@@ -0,0 +1,84 @@
+package Utilities;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of the zone IDs and date formatters used to render reminders.
+ *
+ * <p>
+ * {@link DateTimeFormatter#ofPattern(String, Locale)} parses the pattern on every call and {@link ZoneId#of(String)}
+ * the zone ID; both results are immutable, so they are built once per (zone, pattern, locale) and shared by all
+ * threads.
+ * </p>
+ */
+final class DateFormats {
+
+    private static final Map<String, ZoneId> zones = new ConcurrentHashMap<>();
+    private static final Map<Key, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+
+    private DateFormats() {
+    }
+
+    /**
+     * @param zoneID region or offset ID, e.g. <code>Asia/Ho_Chi_Minh</code>
+     * @return the zone
+     * @throws java.time.DateTimeException if the ID is invalid
+     */
+    static ZoneId zone(String zoneID) {
+        ZoneId zone = zones.get(zoneID);
+        if (zone == null) {
+            zone = ZoneId.of(zoneID);
+            zones.putIfAbsent(zoneID, zone);
+        }
+        return zone;
+    }
+
+    /**
+     * @param zone
+     * @param pattern see {@link DateTimeFormatter} for the pattern letters
+     * @param locale
+     * @return formatter of the pattern, converting to {@code zone} whatever it formats
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static DateTimeFormatter formatter(ZoneId zone, String pattern, Locale locale) {
+        Key key = new Key(zone, pattern, locale);
+        DateTimeFormatter formatter = formatters.get(key);
+        if (formatter == null) {
+            formatter = DateTimeFormatter.ofPattern(pattern, locale).withZone(zone);
+            formatters.putIfAbsent(key, formatter);
+        }
+        return formatter;
+    }
+
+    private static final class Key {
+        private final ZoneId zone;
+        private final String pattern;
+        private final Locale locale;
+        private final int hash;
+
+        Key(ZoneId zone, String pattern, Locale locale) {
+            this.zone = zone;
+            this.pattern = pattern;
+            this.locale = locale;
+            this.hash = Objects.hash(zone, pattern, locale);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return zone.equals(other.zone) && pattern.equals(other.pattern) && locale.equals(other.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
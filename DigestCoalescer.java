@@ -0,0 +1,241 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * Optional stage in front of the {@link MailDispatcher} merging the reminders one recipient gets within a short
+ * window into a single digest mail.
+ *
+ * <p>
+ * The first reminder for a recipient opens a window of <code>windowMillis</code>, every further reminder for the
+ * same address within the window is added to it, and when the window closes one mail listing all the upcoming
+ * events goes out (or the plain reminder when there was only one). Five 9:00 meetings with a 5 minute reminder
+ * each thus cost one mail instead of five. With a window of 0 every reminder is queued right away.
+ * </p>
+ * <p>
+ * A digest the full mail queue does not take is not lost: it goes to the dispatcher's {@link MailRetryQueue}, or
+ * without one is gathered again with whatever arrived for the address in the meantime.
+ * </p>
+ *
+ * <pre>
+ *      reminder.digest.windowMillis = 60000
+ * </pre>
+ *
+ * @see EventReminderJob
+ */
+public class DigestCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(DigestCoalescer.class);
+
+    private final MailDispatcher dispatcher;
+    private final ReminderMessages messages;
+    private final long windowMillis;
+    private final Map<String, Digest> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong reminders = new AtomicLong();
+    private final AtomicLong mails = new AtomicLong();
+
+    /**
+     * <p>Constructor</p>
+     * @param dispatcher where the mails are queued
+     * @param windowMillis how long reminders for the same recipient are gathered, 0 disables coalescing
+     */
+    public DigestCoalescer(MailDispatcher dispatcher, long windowMillis) {
+        this(dispatcher, ReminderMessages.fromProperties(new Properties()), windowMillis);
+    }
+
+    /**
+     * <p>Constructor</p>
+     * @param dispatcher where the mails are queued
+     * @param messages how the reminders and digests are rendered
+     * @param windowMillis how long reminders for the same recipient are gathered, 0 disables coalescing
+     */
+    public DigestCoalescer(MailDispatcher dispatcher, ReminderMessages messages, long windowMillis) {
+        this.dispatcher = dispatcher;
+        this.messages = messages;
+        this.windowMillis = windowMillis;
+        this.flusher = windowMillis > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "digest-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * <p>Queues the reminder of the event for the user, or adds it to the digest gathered for the user's address.</p>
+     *
+     * @param user
+     * @param event
+     * @return false if the mail could not be queued
+     * @throws InterruptedException
+     */
+    public boolean offer(User user, Event event) throws InterruptedException {
+        return offer(user, event, null);
+    }
+
+    /**
+     * <p>Same as {@link #offer(User, Event)}, the key is carried by the mail, see {@link MailMessage#getKeys()}.</p>
+     *
+     * @param user
+     * @param event
+     * @param key reported back when the mail is sent, null for none
+     * @return false if the mail could not be queued
+     * @throws InterruptedException
+     */
+    public boolean offer(User user, Event event, String key) throws InterruptedException {
+        reminders.incrementAndGet();
+        if (windowMillis <= 0) {
+            mails.incrementAndGet();
+            MailMessage message = messages.reminder(user, event);
+            return dispatcher.submit(key == null ? message : message.withKeys(key));
+        }
+        boolean[] opened = new boolean[1];
+        pending.compute(user.email, (email, digest) -> {
+            if (digest == null) {
+                digest = new Digest(user);
+                opened[0] = true;
+            }
+            digest.add(event, key);
+            return digest;
+        });
+        if (opened[0])
+            flusher.schedule(() -> flush(user.email), windowMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void flush(String email) {
+        Digest digest = pending.remove(email);
+        if (digest == null)
+            return;
+        MailMessage message = digest.events.size() == 1
+                ? messages.reminder(digest.user, digest.events.get(0))
+                : digestMessage(digest);
+        if (!digest.keys.isEmpty())
+            message = message.withKeys(digest.keys.toArray(new String[0]));
+        try {
+            if (dispatcher.submit(message)) {
+                mails.incrementAndGet();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        requeue(email, digest, message);
+    }
+
+    /**
+     * <p>Keeps a digest the dispatcher did not take: it waits in the {@link MailRetryQueue} when there is one,
+     * otherwise it is gathered again and tried once more when the next window closes.</p>
+     */
+    private void requeue(String email, Digest digest, MailMessage message) {
+        MailRetryQueue retries = dispatcher.getRetryQueue();
+        if (retries != null) {
+            logger.warn("mail queue full, digest of {} reminders to {} retried later", digest.events.size(), email);
+            mails.incrementAndGet();
+            retries.failed(message);
+            return;
+        }
+        if (flusher.isShutdown()) {
+            logger.error("mail queue full on shutdown, digest of {} reminders to {} dropped", digest.events.size(),
+                    email);
+            return;
+        }
+        logger.warn("mail queue full, digest of {} reminders to {} retried with the next window",
+                digest.events.size(), email);
+        boolean[] opened = new boolean[1];
+        pending.compute(email, (key, gathered) -> {
+            if (gathered == null) {
+                opened[0] = true;
+                return digest;
+            }
+            gathered.addAll(digest);
+            return gathered;
+        });
+        if (opened[0])
+            flusher.schedule(() -> flush(email), windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private MailMessage digestMessage(Digest digest) {
+        digest.events.sort(Comparator.comparing(event -> event.date));
+        return messages.digest(digest.user, digest.events);
+    }
+
+    /**
+     * @return where the mails are queued
+     */
+    public MailDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return reminders offered so far
+     */
+    public long getReminderCount() {
+        return reminders.get();
+    }
+
+    /**
+     * @return mails queued so far, a digest handed to the retry queue included, the difference to {@link #getReminderCount()} is what coalescing saved
+     */
+    public long getMailCount() {
+        return mails.get();
+    }
+
+    /**
+     * <p>Sends every digest still gathering right away and stops the flusher.</p>
+     */
+    public void shutdown() {
+        if (flusher != null)
+            flusher.shutdownNow();
+        for (String email : new ArrayList<>(pending.keySet())) {
+            flush(email);
+        }
+    }
+
+    /**
+     * reminders gathered for one address
+     */
+    private static final class Digest {
+        final User user;
+        final List<Event> events = new ArrayList<>(4);
+        final List<String> keys = new ArrayList<>(0);
+
+        Digest(User user) {
+            this.user = user;
+        }
+
+        void add(Event event, String key) {
+            // the key of a reminder merged into an event already listed is sent with the same mail
+            if (key != null)
+                keys.add(key);
+            for (Event gathered : events) {
+                if (gathered.eventID == event.eventID)
+                    return;
+            }
+            events.add(event);
+        }
+
+        void addAll(Digest other) {
+            keys.addAll(other.keys);
+            for (Event event : other.events) {
+                add(event, null);
+            }
+        }
+    }
+}
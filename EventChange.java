@@ -0,0 +1,52 @@
+package repositories;
+
+/**
+ * One entry of an {@link EventChangeFeed}: the event was added, updated or deleted at <code>version</code>.
+ *
+ * <p>
+ * Changes are ordered by version, then by event ID, which also makes a change usable as the cursor of the next
+ * {@link EventChangeFeed#poll(EventChange, int)}.
+ * </p>
+ */
+public final class EventChange implements Comparable<EventChange> {
+
+    private final int eventID;
+    private final long version;
+    private final boolean deleted;
+
+    /**
+     * <p>Constructor</p>
+     * @param eventID
+     * @param version monotonic change stamp, e.g. <code>updated_at</code> in epoch micros
+     * @param deleted whether the event is gone
+     */
+    public EventChange(int eventID, long version, boolean deleted) {
+        this.eventID = eventID;
+        this.version = version;
+        this.deleted = deleted;
+    }
+
+    public int getEventID() {
+        return eventID;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public int compareTo(EventChange other) {
+        if (version != other.version)
+            return version < other.version ? -1 : 1;
+        return Integer.compare(eventID, other.eventID);
+    }
+
+    @Override
+    public String toString() {
+        return "EventChange[" + eventID + "@" + version + (deleted ? ", deleted]" : "]");
+    }
+}
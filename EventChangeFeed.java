@@ -0,0 +1,26 @@
+package repositories;
+
+import java.util.List;
+
+/**
+ * Feed of the events changed in the {@link DataRepository}, read incrementally from a cursor.
+ *
+ * <p>
+ * Each event appears at most once per poll, with its latest change; an event changed again after being read
+ * shows up again later with a newer version. The caller keeps the last change it processed and passes it back,
+ * so a restarted consumer continues where it stopped.
+ * </p>
+ *
+ * @see JdbcEventChangeFeed
+ * @see InMemoryEventChangeFeed
+ */
+public interface EventChangeFeed {
+
+    /**
+     * @param after last change already processed, null to read from the beginning
+     * @param maxChanges maximum number of changes returned
+     * @return the next changes in {@link EventChange} order, empty when caught up
+     * @throws Exception
+     */
+    List<EventChange> poll(EventChange after, int maxChanges) throws Exception;
+}
@@ -0,0 +1,256 @@
+package Utilities;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import entities.Event;
+import repositories.BatchDataRepository;
+import repositories.CachingDataRepository;
+import repositories.DataRepository;
+import repositories.EventChange;
+import repositories.EventChangeFeed;
+
+/**
+ * Keeps the reminders of a {@link QuartzReminder} in line with the events, touching only the events that changed.
+ *
+ * <p>
+ * Every {@link #reconcile()} reads the {@link EventChangeFeed} from the last processed change on, loads the
+ * changed events with one {@link BatchDataRepository#findEventsByIDs} call and compares each with what is
+ * scheduled for it:
+ * </p>
+ * <ul>
+ * <li>nothing scheduled yet: the reminders of all <code>offsets</code> are added,</li>
+ * <li>scheduled for another start: the reminders are moved, see {@link QuartzReminder#rescheduleEvents},</li>
+ * <li>deleted, gone or without date: the reminders are cancelled,</li>
+ * <li>same start: nothing to do, name and participants are read when the reminder fires.</li>
+ * </ul>
+ * <p>
+ * A {@link CachingDataRepository} drops every changed event before the batch is loaded, so the reminders see
+ * the change right away instead of after the cache's time to live.
+ * </p>
+ * <p>
+ * Each kind is applied with one bulk call per batch, so the cost of a pass follows the number of changes, not
+ * the number of events.
+ * </p>
+ *
+ * <pre>
+ *      EventReconciler reconciler = new EventReconciler(reminder, repo, feed, offsets, 500);
+ *      reconciler.start(5000);
+ * </pre>
+ */
+public class EventReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventReconciler.class);
+
+    private final QuartzReminder reminder;
+    private final DataRepository repository;
+    private final EventChangeFeed feed;
+    private final List<Duration> offsets;
+    private final int batchSize;
+
+    private volatile EventChange cursor;
+    private ScheduledExecutorService poller;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+
+    /**
+     * <p>Constructor reading the feed from the beginning.</p>
+     * @param reminder where the reminders are scheduled
+     * @param repository where the changed events are loaded from
+     * @param feed
+     * @param offsets reminders of a new event, how long before {@code Event.date} each fires
+     * @param batchSize changes handled per round
+     */
+    public EventReconciler(QuartzReminder reminder, DataRepository repository, EventChangeFeed feed,
+            Collection<Duration> offsets, int batchSize) {
+        this(reminder, repository, feed, offsets, batchSize, null);
+    }
+
+    /**
+     * <p>Constructor continuing after a cursor saved by a previous run, see {@link #getCursor()}.</p>
+     * @param reminder
+     * @param repository
+     * @param feed
+     * @param offsets
+     * @param batchSize
+     * @param cursor last change already reconciled, null to start from the beginning
+     */
+    public EventReconciler(QuartzReminder reminder, DataRepository repository, EventChangeFeed feed,
+            Collection<Duration> offsets, int batchSize, EventChange cursor) {
+        this.reminder = reminder;
+        this.repository = repository;
+        this.feed = feed;
+        this.offsets = new ArrayList<>(offsets);
+        this.batchSize = batchSize;
+        this.cursor = cursor;
+    }
+
+    /**
+     * <p>Reconciles every change recorded so far.</p>
+     *
+     * @return number of changes handled
+     * @throws Exception if the feed, the repository or the scheduler failed, the cursor then stays on the last
+     *                   fully handled batch
+     */
+    public synchronized int reconcile() throws Exception {
+        int handled = 0;
+        while (true) {
+            List<EventChange> changes = feed.poll(cursor, batchSize);
+            if (changes.isEmpty())
+                break;
+            apply(changes);
+            cursor = changes.get(changes.size() - 1);
+            handled += changes.size();
+            if (changes.size() < batchSize)
+                break;
+        }
+        if (handled > 0)
+            logger.info("{} event changes reconciled", handled);
+        return handled;
+    }
+
+    private void apply(List<EventChange> changes) throws Exception {
+        List<Integer> ids = new ArrayList<>(changes.size());
+        List<Integer> toCancel = new ArrayList<>();
+        for (EventChange change : changes) {
+            if (change.isDeleted())
+                toCancel.add(change.getEventID());
+            else
+                ids.add(change.getEventID());
+        }
+        // a cached copy would still show the event as it was before the change
+        if (repository instanceof CachingDataRepository) {
+            for (EventChange change : changes) {
+                ((CachingDataRepository) repository).invalidateEvent(change.getEventID());
+            }
+        }
+        Map<Integer, Event> events = BatchDataRepository.findEventsByIDs(repository, ids);
+
+        List<Event> toAdd = new ArrayList<>();
+        List<Event> toMove = new ArrayList<>();
+        for (int eventID : ids) {
+            Event event = events.get(eventID);
+            if (event == null || event.date == null) {
+                toCancel.add(eventID);
+                continue;
+            }
+            List<TriggerKey> keys = reminder.getTriggerKeys(eventID);
+            if (keys.isEmpty()) {
+                toAdd.add(event);
+            } else if (scheduledStart(keys) == Instant.from(event.date).toEpochMilli()) {
+                unchanged.incrementAndGet();
+            } else {
+                toMove.add(event);
+            }
+        }
+
+        if (!toCancel.isEmpty()) {
+            reminder.cancelEvents(toCancel);
+            cancelled.addAndGet(toCancel.size());
+        }
+        if (!toMove.isEmpty()) {
+            Map<Integer, List<Instant>> fireTimes = reminder.rescheduleEvents(toMove);
+            // offsets skipped before because they were past may fit now that the event moved later
+            Instant now = Instant.now();
+            for (Event event : toMove) {
+                if (fireTimes.get(event.eventID).size() < futureOffsets(event, now))
+                    toAdd.add(event);
+            }
+            moved.addAndGet(toMove.size());
+        }
+        if (!toAdd.isEmpty()) {
+            reminder.sendNotifications(toAdd, offsets);
+            added.addAndGet(toAdd.size());
+        }
+    }
+
+    /**
+     * @return the event start the offset reminders were scheduled for, -1 if none of the keys has one
+     */
+    private long scheduledStart(List<TriggerKey> keys) throws Exception {
+        for (TriggerKey key : keys) {
+            if (!QuartzReminder.REMINDER_GROUP.equals(key.getGroup()))
+                continue;
+            Trigger trigger = reminder.getScheduler().getTrigger(key);
+            if (trigger != null && trigger.getJobDataMap().containsKey(EventReminderJob.EVENT_START))
+                return trigger.getJobDataMap().getLong(EventReminderJob.EVENT_START);
+        }
+        return -1;
+    }
+
+    private int futureOffsets(Event event, Instant now) {
+        int count = 0;
+        for (Duration offset : offsets) {
+            if (!Instant.from(event.date).minus(offset).isBefore(now))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * <p>Reconciles every <code>intervalMillis</code> on a background thread until {@link #shutdown()}.</p>
+     *
+     * @param intervalMillis
+     */
+    public synchronized void start(long intervalMillis) {
+        if (poller != null)
+            return;
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (Exception e) {
+                logger.error("reconcile failed, retrying from {}", cursor, e);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (poller != null)
+            poller.shutdownNow();
+        poller = null;
+    }
+
+    /**
+     * @return last change reconciled, to be saved and handed to the constructor on restart
+     */
+    public EventChange getCursor() {
+        return cursor;
+    }
+
+    public long getAddedCount() {
+        return added.get();
+    }
+
+    public long getMovedCount() {
+        return moved.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Utilities.EventReconciler;
+import Utilities.QuartzReminder;
+import entities.Event;
+import repositories.CachingDataRepository;
+import repositories.InMemoryDataRepository;
+import repositories.InMemoryEventChangeFeed;
+
+public class EventReconcilerTest {
+
+    private InMemoryDataRepository repository;
+    private InMemoryEventChangeFeed feed;
+    private QuartzReminder reminder;
+    private EventReconciler reconciler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = new InMemoryDataRepository();
+        feed = new InMemoryEventChangeFeed();
+        reminder = new QuartzReminder(repository);
+        List<Duration> offsets = Arrays.asList(Duration.ofHours(1), Duration.ofMinutes(15));
+        reconciler = new EventReconciler(reminder, repository, feed, offsets, 3);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        reminder.shutdown();
+    }
+
+    private void put(int eventID, Instant date) {
+        repository.putEvent(new Event(eventID, "event " + eventID, "organizer", date, 1, Arrays.asList("name1")));
+        feed.eventChanged(eventID);
+    }
+
+    @Test
+    public void testOnlyChangedEventsAreTouched() throws Exception {
+        Instant tomorrow = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.DAYS);
+        for (int i = 0; i < 10; i++) {
+            put(i, tomorrow);
+        }
+        // more changes than the batch size, all handled in one pass
+        assertEquals(10, reconciler.reconcile());
+        assertEquals(10, reconciler.getAddedCount());
+        assertEquals(2, reminder.getTriggerKeys(7).size());
+        assertEquals(0, reconciler.reconcile());
+
+        put(1, tomorrow.plus(2, ChronoUnit.HOURS));
+        put(2, tomorrow);
+        repository.removeEvent(3);
+        feed.eventDeleted(3);
+        assertEquals(3, reconciler.reconcile());
+
+        assertEquals(1, reconciler.getMovedCount());
+        assertEquals(1, reconciler.getUnchangedCount());
+        assertEquals(1, reconciler.getCancelledCount());
+        assertEquals(tomorrow.plus(1, ChronoUnit.HOURS),
+                reminder.getScheduler().getTrigger(reminder.buildTriggerKey(1, Duration.ofHours(1))).getStartTime().toInstant());
+        assertEquals(0, reminder.getTriggerKeys(3).size());
+        assertEquals(2, reminder.getTriggerKeys(4).size());
+    }
+
+    @Test
+    public void testCachedEventIsReloaded() throws Exception {
+        reminder.shutdown();
+        var cached = new CachingDataRepository(repository, 100, Duration.ofMinutes(5), true);
+        reminder = new QuartzReminder(cached);
+        reconciler = new EventReconciler(reminder, cached, feed, Arrays.asList(Duration.ofHours(1)), 3);
+        Instant tomorrow = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.DAYS);
+        put(1, tomorrow);
+        reconciler.reconcile();
+        assertEquals(tomorrow, Instant.from(cached.findEventByID(1).date));
+
+        put(1, tomorrow.plus(2, ChronoUnit.HOURS));
+        reconciler.reconcile();
+        assertEquals(1, reconciler.getMovedCount());
+        assertEquals(tomorrow.plus(1, ChronoUnit.HOURS),
+                reminder.getScheduler().getTrigger(reminder.buildTriggerKey(1, Duration.ofHours(1))).getStartTime().toInstant());
+    }
+}
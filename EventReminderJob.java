@@ -1,17 +1,26 @@
 package Utilities;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
 
 import org.quartz.Job;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.JobKey;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import entities.Event;
 import entities.User;
+import repositories.BatchDataRepository;
 import repositories.DataRepository;
 
 
@@ -21,40 +30,268 @@ public class EventReminderJob implements Job {
 
     public static final String EVENTNAME = "EVENTNAME";
     public static final String COUNT = "COUNT";
-    public static final String REPO_USED = "REPO";
     public static final String EVENT_ID = "eventID";
+    /** epoch millis of {@code Event.date}, kept on the offset triggers */
+    public static final String EVENT_START = "eventStart";
+    /** epoch millis the reminder was due, kept on the triggers without {@link #EVENT_START} */
+    public static final String DUE_AT = "dueAt";
 
     private String flag = "new object";
 
     private DataRepository repository;
+    private MailStage mail;
+    private MailOutbox outbox;
+    private ReminderBatcher batcher;
+
+    /**
+     * <p>Called by {@link ReminderJobFactory} for every new job, the repository is never stored in the
+     * <code>JobDataMap</code> so that the job stays serializable.</p>
+     * 
+     * @param repository
+     */
+    public void setRepository(DataRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * <p>Called by {@link ReminderJobFactory} with the mail stage of the reminder engine that fired the job.</p>
+     * 
+     * @param mail
+     */
+    public void setMailStage(MailStage mail) {
+        this.mail = mail;
+    }
+
+    /**
+     * <p>Called by {@link ReminderJobFactory}, with an outbox the job only records the reminders in it.</p>
+     * 
+     * @param outbox null to hand the reminders to the mail stage directly
+     */
+    public void setOutbox(MailOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * <p>Called by {@link ReminderJobFactory}, with a batcher the job only adds the reminder to the current batch.</p>
+     * 
+     * @param batcher null to execute the reminder right away
+     */
+    public void setBatcher(ReminderBatcher batcher) {
+        this.batcher = batcher;
+    }
 
     public void execute(JobExecutionContext context) throws JobExecutionException {
 
+        if(repository == null)
+            throw new JobExecutionException("no repository, the scheduler must use the ReminderJobFactory");
 
+        ReminderFlightEvents.Fired fired = new ReminderFlightEvents.Fired();
+        fired.begin();
         JobDataMap dataMap = context.getJobDetail().getJobDataMap();
         Object eventIdObject = dataMap.get(EVENT_ID); //3
-        repository = (DataRepository) dataMap.get(REPO_USED);
-        //fetch parameters from JobDataMap
-		String eventName = dataMap.getString(EVENTNAME);
-        
-		int count = dataMap.getInt(COUNT);
-        JobKey jobKey = context.getJobDetail().getKey();
-		System.out.println(jobKey+": "+ eventName+"-"+count+": flag="+flag);
-        count++;
-        //add next counter to JobDataMap
-		dataMap.put(COUNT, count);
-        flag= "object changed";
-
-        LOGGER.info("send mail to each participant in the event: ");
-
         int eid = ((Number) eventIdObject).intValue();
-            Event e = repository.findEventByID(eid);
-            if(e == null) throw new InputMismatchException("the eid does not exist");
-            for(String name : e.participantsList) {
-                System.err.println("name is"+name);
-                User user = repository.findUserByName(name);
-                MailHelper.sendMail("reminder", "Upcoming event! "+ user.username + e.eventName + "excited?", new String[] {user.email});
+        int offsetSeconds = offsetSeconds(context.getTrigger().getKey());
+        int participants = 0;
+        try {
+            if (batcher != null) {
+                batcher.add(eid, offsetSeconds, recordedStart(context));
+                return;
+            }
+            //add next counter to JobDataMap
+            dataMap.put(COUNT, dataMap.getInt(COUNT) + 1);
+            flag= "object changed";
+
+            LOGGER.debug("send mail to each participant of event {}", eid);
+
+            if (outbox == null) {
+                if (mail == null)
+                    throw new JobExecutionException("no mail stage, the scheduler must use the ReminderJobFactory");
+                participants = remindParticipants(repository, mail, eid);
+                return;
             }
+            try {
+                participants = recordParticipants(repository, outbox, eid, offsetSeconds, recordedStart(context));
+            } catch (IOException e) {
+                throw new JobExecutionException("could not record the reminders of event " + eid, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JobExecutionException("interrupted while recording the reminders of event " + eid, e);
+            }
+        } finally {
+            fired.end();
+            if (fired.shouldCommit()) {
+                fired.eventID = eid;
+                fired.offset = offsetSeconds;
+                fired.participants = participants;
+                fired.fireLag = context.getFireTime().getTime() - dueAt(context);
+                fired.priority = context.getTrigger().getPriority();
+                fired.mode = batcher != null ? "batch" : outbox != null ? "outbox" : "direct";
+                fired.commit();
+            }
+        }
+    }
+
+    /**
+     * <p>Sends the reminder of the event to each of its participants.</p>
+     * 
+     * <p>All participants are resolved with one {@link BatchDataRepository#findUsersByNames} call,
+     * participants without a user are skipped. The mails are only handed to the {@link DigestCoalescer} in
+     * front of the {@link MailDispatcher}, so returning from here means "enqueued", not "delivered".</p>
+     * 
+     * <p>The participants of a very large event are delivered in parallel chunks by the
+     * {@link ParticipantFanOut}, each chunk with its own lookup.</p>
+     * 
+     * <p>Shared by every reminder engine, so that a reminder fired by the timing wheel
+     * reads exactly like one fired by Quartz.</p>
+     * 
+     * @param repository where the event and its participants are looked up
+     * @param mail where the reminders are handed over
+     * @param eid event identification
+     * @return number of participants of the event
+     * @throws InputMismatchException if the event does not exist
+     * @throws IllegalStateException if some chunks of a large event failed for good
+     */
+    public static int remindParticipants(DataRepository repository, MailStage mail, int eid) {
+        Event e = findEvent(repository, eid);
+        if(e == null) throw new InputMismatchException("the eid does not exist");
+        ParticipantFanOut fanOut = mail.getFanOut();
+        if(!fanOut.isPartitioned(e.participantsList.size())) {
+            remindChunk(repository, mail.getDigest(), e, e.participantsList, () -> { });
+            return e.participantsList.size();
+        }
+        ParticipantFanOut.Progress progress;
+        try {
+            progress = fanOut.run(eid, e.participantsList,
+                    (chunk, handedOver) -> remindChunk(repository, mail.getDigest(), e, chunk, handedOver));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while reminding the participants of event " + eid, ex);
+        }
+        if(progress.getFailedCount() > 0)
+            throw new IllegalStateException(progress.getFailedParticipants().size() + " participants of event " + eid + " not reminded");
+        return e.participantsList.size();
+    }
+
+    private static Event findEvent(DataRepository repository, int eid) {
+        ReminderFlightEvents.Lookup lookup = new ReminderFlightEvents.Lookup();
+        lookup.begin();
+        Event e = repository.findEventByID(eid);
+        lookup.end();
+        if (lookup.shouldCommit()) {
+            lookup.eventID = eid;
+            lookup.events = 1;
+            lookup.found = e == null ? 0 : 1;
+            lookup.commit();
+        }
+        return e;
+    }
+
+    /**
+     * <p>Resolves one chunk of participants with one lookup and hands their reminders to the coalescer, also used
+     * by the {@link ReminderBatcher} for large events.</p>
+     * 
+     * @param handedOver called after each participant handed over or skipped, see {@link ParticipantFanOut.ChunkHandler}
+     */
+    static void remindChunk(DataRepository repository, DigestCoalescer digest, Event e, List<String> names,
+            Runnable handedOver) {
+        ReminderFlightEvents.Lookup lookup = new ReminderFlightEvents.Lookup();
+        lookup.begin();
+        Map<String, User> users = BatchDataRepository.findUsersByNames(repository, names);
+        lookup.end();
+        if (lookup.shouldCommit()) {
+            lookup.eventID = e.eventID;
+            lookup.participants = names.size();
+            lookup.found = users.size();
+            lookup.commit();
+        }
+        for(String name : names) {
+            User user = users.get(name);
+            if(user == null) {
+                LOGGER.warn("participant {} of event {} does not exist", name, e.eventID);
+                handedOver.run();
+                continue;
+            }
+            try {
+                if(!digest.offer(user, e))
+                    LOGGER.error("mail queue full, reminder of event {} to {} dropped", e.eventID, name);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while queueing the reminders of event " + e.eventID, ex);
+            }
+            handedOver.run();
+        }
+    }
+
+    /**
+     * <p>Records the reminder of the event for each participant in the outbox and waits until the entries are on
+     * disk. Participants already recorded for the same offset and start, e.g. by an earlier fire that failed
+     * halfway, are skipped, the outbox delivers the mails.</p>
+     * 
+     * @param repository where the event is looked up
+     * @param outbox
+     * @param eid event identification
+     * @param offsetSeconds how long before the event the reminder fires
+     * @param startMillis the {@link #EVENT_START} the reminder was scheduled for or the time a fixed-time reminder
+     *            was due, see {@link #recordedStart}, negative for the current start of the event
+     * @return number of participants newly recorded
+     * @throws IOException if the outbox could not be written
+     * @throws InterruptedException
+     * @throws InputMismatchException if the event does not exist
+     */
+    static int recordParticipants(DataRepository repository, MailOutbox outbox, int eid, int offsetSeconds,
+            long startMillis) throws IOException, InterruptedException {
+        Event e = findEvent(repository, eid);
+        if(e == null) throw new InputMismatchException("the eid does not exist");
+        if (startMillis < 0)
+            startMillis = Instant.from(e.date).toEpochMilli();
+        int recorded = 0;
+        for(String name : e.participantsList) {
+            if(outbox.append(eid, offsetSeconds, startMillis, name))
+                recorded++;
+        }
+        outbox.sync();
+        return recorded;
+    }
+
+    /**
+     * @param context
+     * @return the {@link #EVENT_START} of an offset reminder, the time any other reminder was due, so that the
+     *         reminders of one event at different fixed times are recorded apart
+     */
+    static long recordedStart(JobExecutionContext context) {
+        JobDataMap data = context.getTrigger().getJobDataMap();
+        return data.containsKey(EVENT_START) ? data.getLong(EVENT_START) : dueAt(context);
+    }
+
+    /**
+     * @param key trigger that fired the job, a catch-up trigger counts as the reminder it replaces
+     * @return the offset of the reminder, 0 for reminders fired at a fixed time
+     */
+    static int offsetSeconds(TriggerKey key) {
+        Duration offset = QuartzReminder.offsetOf(CatchUpPolicy.replacedKey(key));
+        return offset == null ? 0 : (int) offset.getSeconds();
+    }
 
+    /**
+     * <p>When the fired reminder was due. Misfire handling fires a late trigger "now" and resets the scheduled fire
+     * time of the context to that moment, but leaves the {@link #EVENT_START} and the start time of the trigger
+     * alone.</p>
+     * 
+     * @param context
+     * @return epoch millis of {@link #EVENT_START} minus the offset for an offset reminder or its catch-up, the
+     *         {@link #DUE_AT} of a fixed-time reminder or a catch-up, the start time of any other one-shot trigger,
+     *         the scheduled fire time otherwise
+     */
+    static long dueAt(JobExecutionContext context) {
+        Trigger trigger = context.getTrigger();
+        JobDataMap data = trigger.getJobDataMap();
+        if (data.containsKey(EVENT_START))
+            return data.getLong(EVENT_START) - offsetSeconds(trigger.getKey()) * 1000L;
+        if (data.containsKey(DUE_AT))
+            return data.getLong(DUE_AT);
+        if (trigger instanceof SimpleTrigger && ((SimpleTrigger) trigger).getRepeatCount() == 0)
+            return trigger.getStartTime().getTime();
+        Date scheduled = context.getScheduledFireTime();
+        return (scheduled != null ? scheduled : context.getFireTime()).getTime();
     }
 }
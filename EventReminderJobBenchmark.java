@@ -0,0 +1,90 @@
+package Utilities;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.impl.JobExecutionContextImpl;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.TriggerFiredBundle;
+
+import entities.Event;
+import entities.User;
+import repositories.InMemoryDataRepository;
+
+/**
+ * Firing path of {@link EventReminderJob#execute(JobExecutionContext)}, against an {@link InMemoryDataRepository}
+ * and a {@link MailDispatcher} whose sink drops every message.
+ *
+ * <pre>
+ *      gradle jmh
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventReminderJobBenchmark {
+
+    @Param({"10", "1000"})
+    public int participants;
+
+    private MailStage mail;
+    private EventReminderJob job;
+    private JobExecutionContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        InMemoryDataRepository repository = new InMemoryDataRepository();
+        List<String> names = new ArrayList<>(participants);
+        for (int i = 0; i < participants; i++) {
+            String name = "user" + i;
+            names.add(name);
+            repository.putUser(new User(name, name + "@benchmark.test"));
+        }
+        Event event = new Event(1, "benchmark event", "benchmark organizer", Instant.now().plus(1, ChronoUnit.DAYS), 1, names);
+        repository.putEvent(event);
+
+        MailDispatcher dispatcher = new MailDispatcher(message -> { }, 1 << 16, 2, 256, 0);
+        ReminderMessages messages = ReminderMessages.fromProperties(new Properties());
+        mail = new MailStage(dispatcher, messages, new DigestCoalescer(dispatcher, messages, 0),
+                new ParticipantFanOut(1000, 500, 8, 3, 200));
+
+        QuartzReminder reminder = new QuartzReminder(repository);
+        JobDetail jobDetail = reminder.buildJobDetail(1);
+        OperableTrigger trigger = (OperableTrigger) reminder.buildJobTrigger(jobDetail.getKey(), Instant.now());
+        reminder.shutdown();
+
+        job = new EventReminderJob();
+        job.setRepository(repository);
+        job.setMailStage(mail);
+        Date now = new Date();
+        context = new JobExecutionContextImpl(null,
+                new TriggerFiredBundle(jobDetail, trigger, null, false, now, now, null, null), job);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mail.shutdown();
+    }
+
+    @Benchmark
+    public void execute() throws Exception {
+        job.execute(context);
+    }
+}
@@ -0,0 +1,152 @@
+package Utilities;
+
+import java.util.Arrays;
+
+import org.quartz.JobKey;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.listeners.SchedulerListenerSupport;
+
+/**
+ * In-process index from event ID to the keys of its reminder triggers.
+ *
+ * <p>
+ * Registered as a scheduler listener, so every trigger stored for a job of {@link QuartzReminder#EVENT_GROUP} is
+ * added, and every trigger unscheduled, replaced or finalized is removed, whichever code path did it (including the
+ * catch-up triggers of {@link CatchUpPolicy}). The index is split into segments of {@link IntObjectMap}s, each
+ * guarded by its own lock, and holds a small copy-on-write array of keys per event.
+ * </p>
+ *
+ * @see QuartzReminder#cancelEvent(int)
+ * @see QuartzReminder#rescheduleEvent(entities.Event)
+ */
+final class EventTriggerIndex extends SchedulerListenerSupport {
+
+    private static final TriggerKey[] NONE = new TriggerKey[0];
+    private static final int SEGMENTS = 16;
+
+    @SuppressWarnings("unchecked")
+    private final IntObjectMap<TriggerKey[]>[] segments = new IntObjectMap[SEGMENTS];
+
+    EventTriggerIndex() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new IntObjectMap<>(256);
+        }
+    }
+
+    private IntObjectMap<TriggerKey[]> segment(int eventID) {
+        return segments[(eventID * 0x9E3779B9) >>> 28];
+    }
+
+    /**
+     * @param eventID
+     * @return the trigger keys of the event, empty if it has none
+     */
+    TriggerKey[] get(int eventID) {
+        IntObjectMap<TriggerKey[]> segment = segment(eventID);
+        synchronized (segment) {
+            TriggerKey[] keys = segment.get(eventID);
+            return keys == null ? NONE : keys;
+        }
+    }
+
+    void add(int eventID, TriggerKey key) {
+        IntObjectMap<TriggerKey[]> segment = segment(eventID);
+        synchronized (segment) {
+            TriggerKey[] keys = segment.get(eventID);
+            if (keys == null) {
+                segment.put(eventID, new TriggerKey[] {key});
+                return;
+            }
+            for (TriggerKey existing : keys) {
+                if (existing.equals(key))
+                    return;
+            }
+            TriggerKey[] grown = Arrays.copyOf(keys, keys.length + 1);
+            grown[keys.length] = key;
+            segment.put(eventID, grown);
+        }
+    }
+
+    void remove(int eventID, TriggerKey key) {
+        IntObjectMap<TriggerKey[]> segment = segment(eventID);
+        synchronized (segment) {
+            TriggerKey[] keys = segment.get(eventID);
+            if (keys == null)
+                return;
+            for (int i = 0; i < keys.length; i++) {
+                if (!keys[i].equals(key))
+                    continue;
+                if (keys.length == 1) {
+                    segment.remove(eventID);
+                } else {
+                    TriggerKey[] shrunk = new TriggerKey[keys.length - 1];
+                    System.arraycopy(keys, 0, shrunk, 0, i);
+                    System.arraycopy(keys, i + 1, shrunk, i, keys.length - i - 1);
+                    segment.put(eventID, shrunk);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of events with at least one trigger
+     */
+    int size() {
+        int size = 0;
+        for (IntObjectMap<TriggerKey[]> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * <p>Every reminder trigger name starts with the event ID, see the key builders of {@link QuartzReminder}.</p>
+     *
+     * @param key
+     * @return the event ID of the trigger, -1 if the key is not one of a reminder
+     */
+    static int eventIdOf(TriggerKey key) {
+        String name = key.getName();
+        int eventID = 0;
+        int i = 0;
+        for (; i < name.length() && i < 10; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                break;
+            eventID = eventID * 10 + (c - '0');
+        }
+        return i == 0 || eventID < 0 ? -1 : eventID;
+    }
+
+    @Override
+    public void jobScheduled(Trigger trigger) {
+        JobKey jobKey = trigger.getJobKey();
+        if (QuartzReminder.EVENT_GROUP.equals(jobKey.getGroup()))
+            add(Integer.parseInt(jobKey.getName()), trigger.getKey());
+    }
+
+    @Override
+    public void jobUnscheduled(TriggerKey triggerKey) {
+        int eventID = eventIdOf(triggerKey);
+        if (eventID >= 0)
+            remove(eventID, triggerKey);
+    }
+
+    @Override
+    public void triggerFinalized(Trigger trigger) {
+        jobUnscheduled(trigger.getKey());
+    }
+
+    @Override
+    public void schedulingDataCleared() {
+        for (IntObjectMap<TriggerKey[]> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package Utilities;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SMTP server on the loopback interface that accepts every mail and only counts it, for load tests and tests of
+ * the {@link SmtpMailSink} that must not reach a real mail provider.
+ *
+ * <p>
+ * It speaks just enough SMTP for JavaMail without authentication or TLS: <code>EHLO</code>/<code>HELO</code>,
+ * <code>MAIL</code>, <code>RCPT</code>, <code>DATA</code>, <code>RSET</code>, <code>NOOP</code> and
+ * <code>QUIT</code>. Every connection is served by its own virtual thread and the mails are not kept, so millions
+ * of them cost nothing but the counters. An address can be {@link #refuse refused} and a login
+ * {@link #setAuthenticationRequired required}, to see how the sink tells permanent failures from the others.
+ * </p>
+ *
+ * <pre>
+ *      spring.mail.host = 127.0.0.1
+ *      spring.mail.port = &lt;getPort()&gt;
+ *      spring.mail.properties.mail.smtp.auth = false
+ * </pre>
+ *
+ * @see ReminderLoadGenerator
+ */
+public class FakeSmtpServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeSmtpServer.class);
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Set<String> refused = ConcurrentHashMap.newKeySet();
+    private volatile boolean authenticationRequired;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong recipients = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private volatile long lastMessageAt;
+
+    /**
+     * <p>Constructor, listening right away.</p>
+     * @param port 0 for any free port
+     * @throws IOException
+     */
+    public FakeSmtpServer(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        acceptor = new Thread(this::accept, "fake-smtp");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("fake SMTP server listening on port {}", getPort());
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                accepted.incrementAndGet();
+                connections.add(socket);
+                Thread.ofVirtual().name("fake-smtp-" + socket.getPort()).start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed())
+                    logger.warn("accept failed", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                OutputStream out = socket.getOutputStream()) {
+            reply(out, "220 localhost fake SMTP");
+            int rcpt = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() < 4 ? line.toUpperCase(Locale.ROOT) : line.substring(0, 4).toUpperCase(Locale.ROOT);
+                switch (command) {
+                case "EHLO":
+                    reply(out, "250-localhost\r\n250-8BITMIME\r\n250 SIZE 10485760");
+                    break;
+                case "HELO":
+                    reply(out, "250 localhost");
+                    break;
+                case "MAIL":
+                    rcpt = 0;
+                    reply(out, authenticationRequired ? "530 5.7.0 authentication required" : "250 OK");
+                    break;
+                case "RCPT":
+                    if (refused.contains(address(line))) {
+                        reply(out, "550 5.1.1 no such user");
+                        break;
+                    }
+                    rcpt++;
+                    reply(out, "250 OK");
+                    break;
+                case "DATA":
+                    reply(out, "354 end with <CRLF>.<CRLF>");
+                    long size = 0;
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        size += line.length() + 2;
+                    }
+                    bytes.addAndGet(size);
+                    recipients.addAndGet(rcpt);
+                    messages.incrementAndGet();
+                    lastMessageAt = System.currentTimeMillis();
+                    reply(out, "250 OK queued");
+                    break;
+                case "RSET":
+                    rcpt = 0;
+                    reply(out, "250 OK");
+                    break;
+                case "NOOP":
+                    reply(out, "250 OK");
+                    break;
+                case "QUIT":
+                    reply(out, "221 bye");
+                    return;
+                default:
+                    reply(out, "502 command not implemented");
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // closed by the client or by close()
+        } catch (IOException e) {
+            logger.warn("connection failed", e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * @return the address between the angle brackets of a <code>MAIL</code> or <code>RCPT</code> command
+     */
+    private static String address(String line) {
+        int start = line.indexOf('<');
+        int end = line.indexOf('>', start + 1);
+        return start < 0 || end < 0 ? "" : line.substring(start + 1, end);
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * <p>Answers <code>RCPT</code> for the address with <code>550</code>, as a host does for an unknown user.</p>
+     *
+     * @param address
+     */
+    public void refuse(String address) {
+        refused.add(address);
+    }
+
+    /**
+     * <p>Answers every <code>MAIL</code> with <code>530</code>, as a host does for a client that did not log in.</p>
+     *
+     * @param required
+     */
+    public void setAuthenticationRequired(boolean required) {
+        authenticationRequired = required;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return mails received
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @return recipients of all the mails received
+     */
+    public long getRecipientCount() {
+        return recipients.get();
+    }
+
+    /**
+     * @return size of all the mails received, headers included
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * @return connections accepted so far
+     */
+    public long getConnectionCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return epoch millis of the last mail received, 0 before the first
+     */
+    public long getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    /**
+     * <p>Stops listening and drops the open connections.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
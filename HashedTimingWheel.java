@@ -0,0 +1,338 @@
+package Utilities;
+
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical hashed timing wheel holding the pending reminders of {@link TimingWheelReminder}.
+ *
+ * <p>
+ * Level 0 has <code>wheelSize</code> slots of one tick each, every higher level has the same number of slots,
+ * each spanning a whole rotation of the level below. A timeout is hashed into the lowest level able to hold it
+ * and moves down one level each time the slot it sits in comes around (cascading), until it expires in level 0.
+ * Inserting and cancelling are O(1): both only append to a lock-free queue that the ticker drains, and every
+ * bucket is a doubly linked list so a cancelled timeout is unlinked without searching.
+ * </p>
+ *
+ * <p>
+ * A single ticker thread owns the wheel. It never runs a task itself, expired timeouts are handed over to the
+ * worker <code>Executor</code> so a slow delivery can not delay the next tick.
+ * </p>
+ *
+ * @see TimingWheelReminder
+ */
+public class HashedTimingWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    /**
+     * Upper bound of new timeouts moved into the wheel per tick, so a burst of inserts can not stall expiry.
+     */
+    private static final int MAX_INSERTS_PER_TICK = 100_000;
+
+    private final long tickMillis;
+    private final int shift;
+    private final int mask;
+    private final int levels;
+    private final Bucket[][] wheels;
+
+    private final Queue<Timeout> inserts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final Executor workers;
+    private final Thread ticker;
+    private final long startMillis;
+
+    private volatile boolean running = true;
+
+    /**
+     * only touched by the ticker thread
+     */
+    private long currentTick;
+
+    /**
+     * <p>Constructor, starts the ticker thread right away.</p>
+     *
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize number of slots per level, rounded up to a power of two
+     * @param levels number of levels, the wheel covers <code>tickMillis * wheelSize^levels</code>
+     * @param workers executor running the expired tasks
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, int levels, Executor workers) {
+        if (tickMillis <= 0 || wheelSize <= 1 || levels <= 0)
+            throw new IllegalArgumentException("tickMillis, wheelSize and levels must be positive");
+        if ((long) (32 - Integer.numberOfLeadingZeros(wheelSize - 1)) * levels >= 63)
+            throw new IllegalArgumentException("wheelSize^levels does not fit in a long");
+        this.tickMillis = tickMillis;
+        this.shift = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1 << shift) - 1;
+        this.levels = levels;
+        this.workers = workers;
+        this.wheels = new Bucket[levels][1 << shift];
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+        this.startMillis = System.currentTimeMillis();
+        this.ticker = new Thread(this::run, "timing-wheel-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * <p>Schedules the task to run at <code>fireAt</code>, or on the next tick when that is already past.</p>
+     *
+     * @param task
+     * @param fireAt
+     * @return the handle cancelling the task
+     * @throws IllegalStateException if the wheel has been shut down
+     */
+    public Timeout schedule(Runnable task, Instant fireAt) {
+        if (!running)
+            throw new IllegalStateException("timing wheel is shut down");
+        long millis = fireAt.toEpochMilli();
+        long elapsed = millis - startMillis;
+        long deadlineTick = elapsed <= 0 ? 0 : (elapsed + tickMillis - 1) / tickMillis;
+        Timeout timeout = new Timeout(this, task, millis, deadlineTick);
+        pending.incrementAndGet();
+        inserts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled yet
+     */
+    public long size() {
+        return pending.get();
+    }
+
+    /**
+     * <p>Stops the ticker. Timeouts still pending are dropped.</p>
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        ticker.interrupt();
+        ticker.join();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startMillis + (currentTick + 1) * tickMillis;
+            long sleep;
+            while ((sleep = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running)
+                        return;
+                }
+            }
+            currentTick++;
+            processCancellations();
+            cascade();
+            transferInserts();
+            expire();
+        }
+    }
+
+    private void processCancellations() {
+        Timeout timeout;
+        while ((timeout = cancellations.poll()) != null) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void transferInserts() {
+        for (int i = 0; i < MAX_INSERTS_PER_TICK; i++) {
+            Timeout timeout = inserts.poll();
+            if (timeout == null)
+                return;
+            if (timeout.state == Timeout.PENDING)
+                place(timeout);
+        }
+    }
+
+    /**
+     * <p>Moves every timeout of the higher level slots coming around on this tick one level down.</p>
+     */
+    private void cascade() {
+        for (int level = 1; level < levels; level++) {
+            if ((currentTick & ((1L << (shift * level)) - 1)) != 0)
+                return;
+            int slot = (int) ((currentTick >>> (shift * level)) & mask);
+            Timeout timeout = wheels[level][slot].clear();
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                timeout.prev = null;
+                if (timeout.state == Timeout.PENDING)
+                    place(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void expire() {
+        Timeout timeout = wheels[0][(int) (currentTick & mask)].clear();
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            if (timeout.deadlineTick > currentTick) {
+                place(timeout);
+            } else if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+                pending.decrementAndGet();
+                dispatch(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void dispatch(Timeout timeout) {
+        try {
+            workers.execute(() -> {
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    logger.error("reminder task failed", e);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("reminder task rejected", e);
+        }
+    }
+
+    /**
+     * <p>Hashes the timeout into the lowest level that can hold it. Timeouts beyond the span of the
+     * whole wheel are parked in the farthest slot of the top level and placed again when it cascades.</p>
+     */
+    private void place(Timeout timeout) {
+        long ticks = Math.max(timeout.deadlineTick, currentTick);
+        long delta = ticks - currentTick;
+        int level = 0;
+        long span = 1L << shift;
+        while (delta >= span && level < levels - 1) {
+            level++;
+            span <<= shift;
+        }
+        if (delta >= span)
+            ticks = currentTick + span - 1;
+        int slot = (int) ((ticks >>> (shift * level)) & mask);
+        wheels[level][slot].add(timeout);
+    }
+
+    /**
+     * Handle of a task scheduled on the wheel.
+     */
+    public static final class Timeout {
+
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineMillis;
+        private final long deadlineTick;
+        private volatile int state = PENDING;
+
+        // owned by the ticker thread
+        Timeout prev;
+        Timeout next;
+        Bucket bucket;
+
+        Timeout(HashedTimingWheel wheel, Runnable task, long deadlineMillis, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * <p>Cancels the task unless it already expired.</p>
+         *
+         * @return true if this call cancelled the task
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+                return false;
+            wheel.pending.decrementAndGet();
+            wheel.cancellations.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public Instant getDeadline() {
+            return Instant.ofEpochMilli(deadlineMillis);
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed into one slot.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (tail == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null)
+                timeout.prev.next = timeout.next;
+            else
+                head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.prev = timeout.prev;
+            else
+                tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * @return the former head, the chain stays linked through <code>next</code>
+         */
+        Timeout clear() {
+            Timeout first = head;
+            for (Timeout t = first; t != null; t = t.next) {
+                t.bucket = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package repositories;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * {@link DataRepository} kept in two concurrent maps, for benchmarks, load tests and tests running without a database.
+ *
+ * @see BatchDataRepository
+ */
+public class InMemoryDataRepository implements BatchDataRepository {
+
+    private final Map<Integer, Event> events = new ConcurrentHashMap<>();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    @Override
+    public Event findEventByID(int eventID) {
+        return events.get(eventID);
+    }
+
+    @Override
+    public User findUserByName(String name) {
+        return users.get(name);
+    }
+
+    /**
+     * <p>Adds or replaces the event.</p>
+     *
+     * @param event
+     */
+    public void putEvent(Event event) {
+        events.put(event.eventID, event);
+    }
+
+    /**
+     * <p>Adds or replaces the user, keyed by username.</p>
+     *
+     * @param user
+     */
+    public void putUser(User user) {
+        users.put(user.username, user);
+    }
+
+    /**
+     * @param eventID
+     * @return the removed event, null if there was none
+     */
+    public Event removeEvent(int eventID) {
+        return events.remove(eventID);
+    }
+
+    /**
+     * @return live view of every stored event
+     */
+    public Collection<Event> getEvents() {
+        return events.values();
+    }
+
+    /**
+     * @return number of stored events
+     */
+    public int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * @return number of stored users
+     */
+    public int getUserCount() {
+        return users.size();
+    }
+}
@@ -0,0 +1,74 @@
+package repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link EventChangeFeed} kept in memory, the stand-in for {@link JdbcEventChangeFeed} in tests and load tests.
+ *
+ * <p>
+ * Like the <code>updated_at</code> column, only the latest change of every event is kept, so the feed never holds
+ * more entries than there are events.
+ * </p>
+ *
+ * <pre>
+ *      repository.putEvent(event);
+ *      feed.eventChanged(event.eventID);
+ * </pre>
+ */
+public class InMemoryEventChangeFeed implements EventChangeFeed {
+
+    private final AtomicLong versions = new AtomicLong();
+    private final ConcurrentSkipListSet<EventChange> changes = new ConcurrentSkipListSet<>();
+    private final Map<Integer, EventChange> latest = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Records that the event was added or updated.</p>
+     *
+     * @param eventID
+     */
+    public void eventChanged(int eventID) {
+        record(eventID, false);
+    }
+
+    /**
+     * <p>Records that the event was deleted.</p>
+     *
+     * @param eventID
+     */
+    public void eventDeleted(int eventID) {
+        record(eventID, true);
+    }
+
+    private void record(int eventID, boolean deleted) {
+        latest.compute(eventID, (id, previous) -> {
+            if (previous != null)
+                changes.remove(previous);
+            EventChange change = new EventChange(eventID, versions.incrementAndGet(), deleted);
+            changes.add(change);
+            return change;
+        });
+    }
+
+    @Override
+    public List<EventChange> poll(EventChange after, int maxChanges) {
+        List<EventChange> result = new ArrayList<>(Math.min(maxChanges, 256));
+        for (EventChange change : after == null ? changes : changes.tailSet(after, false)) {
+            if (result.size() == maxChanges)
+                break;
+            result.add(change);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of events with a recorded change
+     */
+    public int size() {
+        return latest.size();
+    }
+}
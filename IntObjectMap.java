@@ -0,0 +1,178 @@
+package Utilities;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive <code>int</code> keys to objects.
+ *
+ * <p>
+ * Keys are stored unboxed in one array and probed linearly, so a lookup costs no <code>Integer</code> allocation
+ * and no node indirection, unlike <code>HashMap&lt;Integer, V&gt;</code>. Removal shifts the following entries back
+ * instead of leaving tombstones. Values may not be null. Not thread-safe, callers synchronize.
+ * </p>
+ *
+ * @param <V> value type
+ */
+public class IntObjectMap<V> {
+
+    /**
+     * receives the entries of {@link IntObjectMap#forEach(Visitor)}
+     */
+    public interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeAt;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * <p>Constructor</p>
+     * @param expectedSize number of entries held without resizing
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * @param key
+     * @return the value of the key, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return (V) values[i];
+        }
+        return null;
+    }
+
+    /**
+     * @param key
+     * @param value not null
+     * @return the previous value of the key, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("null values are not supported");
+        int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt)
+            resize();
+        return null;
+    }
+
+    /**
+     * @param key
+     * @return the removed value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>Closes the gap at {@code gap} by moving back every following entry of the probe run that may not stay
+     * behind the gap.</p>
+     */
+    private void shiftBack(int gap) {
+        int mask = keys.length - 1;
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null)
+                break;
+            int home = slot(keys[i]);
+            // the entry can fill the gap unless its home slot lies cyclically in (gap, i]
+            if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length << 1);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null)
+                continue;
+            int i = slot(oldKeys[j]);
+            while (values[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    /**
+     * <p>Hands every entry to the visitor, in no particular order. The map must not be modified meanwhile.</p>
+     *
+     * @param visitor
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null)
+                visitor.visit(keys[i], (V) values[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,108 @@
+package repositories;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * JDBC {@link BatchDataRepository} for Postgres, resolving many usernames with a single
+ * <code>username = ANY(?)</code> query and many events, participants included, with a single
+ * <code>eventid = ANY(?)</code> query.
+ *
+ * <p>
+ * Single lookups are delegated to the wrapped repository (usually the {@literal PostgresAdapter}),
+ * so this class only adds the set-based query on top of it.
+ * </p>
+ *
+ * <pre>
+ *      DataRepository repo = new JdbcBatchRepository(postgresAdapter, dataSource);
+ *      Map&lt;String, User&gt; users = repo.findUsersByNames(event.participantsList);
+ * </pre>
+ *
+ * @see BatchDataRepository
+ */
+public class JdbcBatchRepository implements BatchDataRepository {
+
+    static final String FIND_USERS_BY_NAMES =
+            "SELECT userid, username, email FROM users WHERE username = ANY(?)";
+
+    /**
+     * events with their participants aggregated from the <code>participants</code> join table, soft-deleted
+     * events are left out like the {@link EventChangeFeed} reports them
+     */
+    static final String FIND_EVENTS_BY_IDS =
+            "SELECT e.eventid, e.eventname, e.organizer, e.date, e.duration,"
+            + " array_remove(array_agg(p.username), NULL) AS participants"
+            + " FROM events e LEFT JOIN participants p ON p.eventid = e.eventid"
+            + " WHERE e.eventid = ANY(?) AND NOT e.deleted GROUP BY e.eventid";
+
+    private final DataRepository delegate;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * <p>Constructor</p>
+     * @param delegate repository serving the single lookups
+     * @param dataSource database of the <code>users</code>, <code>events</code> and <code>participants</code> tables
+     */
+    public JdbcBatchRepository(DataRepository delegate, DataSource dataSource) {
+        this.delegate = delegate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public Event findEventByID(int eventID) {
+        return delegate.findEventByID(eventID);
+    }
+
+    @Override
+    public User findUserByName(String name) {
+        return delegate.findUserByName(name);
+    }
+
+    @Override
+    public Map<String, User> findUsersByNames(Collection<String> names) {
+        Map<String, User> users = new HashMap<>(names.size() * 4 / 3 + 1);
+        if (names.isEmpty())
+            return users;
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(FIND_USERS_BY_NAMES);
+            Array array = con.createArrayOf("varchar", names.toArray());
+            ps.setArray(1, array);
+            return ps;
+        }, rs -> {
+            User user = new User(rs.getString("username"), rs.getString("email"));
+            user.userID = rs.getInt("userid");
+            users.put(user.username, user);
+        });
+        return users;
+    }
+
+    @Override
+    public Map<Integer, Event> findEventsByIDs(Collection<Integer> eventIDs) {
+        Map<Integer, Event> events = new HashMap<>(eventIDs.size() * 4 / 3 + 1);
+        if (eventIDs.isEmpty())
+            return events;
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(FIND_EVENTS_BY_IDS);
+            Array array = con.createArrayOf("integer", eventIDs.toArray());
+            ps.setArray(1, array);
+            return ps;
+        }, rs -> {
+            String[] participants = (String[]) rs.getArray("participants").getArray();
+            Event event = new Event(rs.getInt("eventid"), rs.getString("eventname"), rs.getString("organizer"),
+                    rs.getTimestamp("date").toInstant(), rs.getInt("duration"), Arrays.asList(participants));
+            events.put(event.eventID, event);
+        });
+        return events;
+    }
+}
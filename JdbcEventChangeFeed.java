@@ -0,0 +1,73 @@
+package repositories;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * {@link EventChangeFeed} polling the <code>updated_at</code> watermark of the Postgres <code>events</code> table.
+ *
+ * <p>
+ * Expects <code>events.updated_at</code> to be set on every insert and update (and indexed together with
+ * <code>eventid</code>), and deletes to be soft, through <code>events.deleted</code>. The cursor is the pair
+ * (<code>updated_at</code>, <code>eventid</code>) of the last row read, so rows sharing a timestamp are never
+ * skipped at a batch boundary.
+ * </p>
+ *
+ * <p>
+ * A transaction may commit after a later one that already moved the watermark past its <code>updated_at</code>.
+ * Rows younger than <code>settleMillis</code> are therefore left for the next poll, which bounds that window.
+ * </p>
+ *
+ * <pre>
+ *      EventChangeFeed feed = new JdbcEventChangeFeed(dataSource, 2000);
+ * </pre>
+ */
+public class JdbcEventChangeFeed implements EventChangeFeed {
+
+    static final String POLL_CHANGES =
+            "SELECT eventid, updated_at, deleted FROM events"
+            + " WHERE (updated_at, eventid) > (?, ?) AND updated_at <= now() - make_interval(secs => ?)"
+            + " ORDER BY updated_at, eventid LIMIT ?";
+
+    private static final Timestamp BEGINNING = new Timestamp(0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long settleMillis;
+
+    /**
+     * <p>Constructor</p>
+     * @param dataSource database of the <code>events</code> table
+     * @param settleMillis minimum age of a row before it is read
+     */
+    public JdbcEventChangeFeed(DataSource dataSource, long settleMillis) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.settleMillis = settleMillis;
+    }
+
+    @Override
+    public List<EventChange> poll(EventChange after, int maxChanges) {
+        Timestamp since = after == null ? BEGINNING : toTimestamp(after.getVersion());
+        int sinceEventID = after == null ? Integer.MIN_VALUE : after.getEventID();
+        return jdbcTemplate.query(POLL_CHANGES,
+                (rs, row) -> new EventChange(rs.getInt("eventid"), toVersion(rs.getTimestamp("updated_at")),
+                        rs.getBoolean("deleted")),
+                since, sinceEventID, settleMillis / 1000.0, maxChanges);
+    }
+
+    /**
+     * @return the timestamp in epoch micros, the resolution of a Postgres timestamp
+     */
+    static long toVersion(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000 + timestamp.getNanos() / 1000;
+    }
+
+    static Timestamp toTimestamp(long version) {
+        Timestamp timestamp = new Timestamp(Math.floorDiv(version, 1_000_000) * 1000);
+        timestamp.setNanos((int) Math.floorMod(version, 1_000_000) * 1000);
+        return timestamp;
+    }
+}
@@ -0,0 +1,110 @@
+package Utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, typically latencies in milliseconds.
+ *
+ * <p>
+ * Values below 16 get a bucket each, every further power of two is split into 16 linear buckets, so a reported
+ * percentile is never more than 1/16 (6.25%) above the recorded value. Recording is one array increment, cheap
+ * enough for the firing path of every reminder.
+ * </p>
+ *
+ * @see ReminderMetrics
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * <p>Records one value, negative values count as 0.</p>
+     *
+     * @param value
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * <p>Records the same value several times.</p>
+     *
+     * @param value
+     * @param times
+     */
+    public void record(long value, int times) {
+        long v = Math.max(0, value);
+        counts.addAndGet(index(v), times);
+        count.addAndGet(times);
+        sum.addAndGet(v * times);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : (double) sum.get() / total;
+    }
+
+    /**
+     * <p>Forgets every recorded value.</p>
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int magnitude = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long width = 1L << (magnitude - SUB_BITS);
+        return (1L << magnitude) + sub * width + width - 1;
+    }
+}
@@ -0,0 +1,332 @@
+package Utilities;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous mail stage between the reminder jobs and SMTP.
+ *
+ * <p>
+ * A job only puts its messages on a bounded queue and returns, so a scheduler thread is never blocked on an SMTP
+ * round trip. Worker threads take up to <code>batchSize</code> messages at a time off the queue and hand them to
+ * the {@link MailSink}, which sends the whole batch over one pooled connection. When the queue is full,
+ * {@link #submit(MailMessage)} waits up to <code>offerTimeoutMillis</code> before giving up, which slows the jobs
+ * down instead of letting the queue grow without bound.
+ * </p>
+ * <p>
+ * With a {@link MailRetryQueue} the messages the sink could not deliver are retried after a backoff instead of
+ * being only counted as failed. The messages the sink reports refused for good are counted as failed and
+ * never retried.
+ * </p>
+ *
+ * <pre>
+ *      reminder.mail.queueCapacity = 10000
+ *      reminder.mail.workers = 4
+ *      reminder.mail.batchSize = 50
+ *      reminder.mail.offerTimeoutMillis = 5000
+ *      reminder.mail.connections = 4
+ *      reminder.mail.messagesPerConnection = 100
+ *      reminder.mail.ratePerSecond = 20
+ *      reminder.mail.retryDirectory = data/mail-retries
+ * </pre>
+ *
+ * @see MailStage
+ * @see MailSink
+ * @see SmtpMailSink
+ * @see SmtpRateLimiter
+ */
+public class MailDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailDispatcher.class);
+
+    /**
+     * told about every message the sink delivered
+     */
+    public interface DeliveryListener {
+        void delivered(MailMessage message);
+    }
+
+    private final MailSink sink;
+    private final BlockingQueue<MailMessage> queue;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+    private final Thread[] workers;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final LatencyHistogram mailLatency = new LatencyHistogram();
+
+    private volatile MailRetryQueue retries;
+    private final List<DeliveryListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * <p>Constructor, starts the worker threads right away.</p>
+     * @param sink where the messages are delivered
+     * @param queueCapacity maximum number of queued messages
+     * @param workerCount number of worker threads
+     * @param batchSize maximum number of messages handed to the sink at once
+     * @param offerTimeoutMillis how long {@link #submit(MailMessage)} waits for room in a full queue
+     */
+    public MailDispatcher(MailSink sink, int queueCapacity, int workerCount, int batchSize, long offerTimeoutMillis) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        ReminderFlightEvents.register();
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::run, "mail-dispatcher-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * <p>Builds a dispatcher sending through SMTP with the <code>spring.mail.*</code> and
+     * <code>reminder.mail.*</code> settings, paced by the {@link SmtpRateLimiter} of the host when
+     * <code>reminder.mail.ratePerSecond</code> is set and retrying through a {@link MailRetryQueue} when
+     * <code>reminder.mail.retryDirectory</code> is set.</p>
+     *
+     * @param properties
+     * @return the dispatcher
+     * @throws IOException if the retry directory cannot be read
+     * @throws IllegalArgumentException if <code>spring.mail.host</code> is not set
+     */
+    public static MailDispatcher fromProperties(Properties properties) throws IOException {
+        Properties mailProperties = new Properties();
+        String prefix = "spring.mail.properties.";
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix))
+                mailProperties.setProperty(name.substring(prefix.length()), properties.getProperty(name).trim());
+        }
+        String host = properties.getProperty("spring.mail.host", "").trim();
+        if (host.isEmpty())
+            throw new IllegalArgumentException("spring.mail.host is not set");
+        double ratePerSecond = Double.parseDouble(properties.getProperty("reminder.mail.ratePerSecond", "0").trim());
+        SmtpRateLimiter limiter = ratePerSecond <= 0 ? null : SmtpRateLimiter.forHost(host, ratePerSecond,
+                Double.parseDouble(properties.getProperty("reminder.mail.minRatePerSecond", "1").trim()),
+                intProperty(properties, "reminder.mail.rateRecoverySeconds", 30));
+        MailSink sink = new SmtpMailSink(mailProperties, host,
+                intProperty(properties, "spring.mail.port", 25),
+                properties.getProperty("spring.mail.username", "").trim(),
+                properties.getProperty("spring.mail.password", "").trim(),
+                intProperty(properties, "reminder.mail.connections", 4),
+                intProperty(properties, "reminder.mail.messagesPerConnection", 100),
+                limiter);
+        MailDispatcher dispatcher = new MailDispatcher(sink,
+                intProperty(properties, "reminder.mail.queueCapacity", 10_000),
+                intProperty(properties, "reminder.mail.workers", 4),
+                intProperty(properties, "reminder.mail.batchSize", 50),
+                intProperty(properties, "reminder.mail.offerTimeoutMillis", 5_000));
+        String retryDirectory = properties.getProperty("reminder.mail.retryDirectory");
+        if (retryDirectory != null) {
+            dispatcher.setRetryQueue(new MailRetryQueue(Paths.get(retryDirectory.trim()),
+                    intProperty(properties, "reminder.mail.retryBaseMillis", 1_000),
+                    intProperty(properties, "reminder.mail.retryMaxMillis", 600_000),
+                    intProperty(properties, "reminder.mail.retryMaxAttempts", 8)));
+        }
+        return dispatcher;
+    }
+
+    static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * <p>Queues the message for delivery.</p>
+     *
+     * @param message
+     * @return false if the dispatcher is shut down or the queue stayed full for <code>offerTimeoutMillis</code>
+     * @throws InterruptedException
+     */
+    public boolean submit(MailMessage message) throws InterruptedException {
+        if (running && queue.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS))
+            return true;
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * <p>Retries the messages the sink could not deliver through the queue, and starts the retries.</p>
+     *
+     * @param retries
+     */
+    public void setRetryQueue(MailRetryQueue retries) {
+        this.retries = retries;
+        retries.start(this);
+    }
+
+    /**
+     * <p>Reports every message delivered from now on to the listener, on the worker thread that delivered it.</p>
+     *
+     * @param listener
+     */
+    public void addDeliveryListener(DeliveryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeDeliveryListener(DeliveryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the retry queue, null if failed messages are not retried
+     */
+    public MailRetryQueue getRetryQueue() {
+        return retries;
+    }
+
+    /**
+     * @return number of messages waiting for a worker
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return messages the sink reports refused for good, also counted in {@link #getFailedCount()}
+     */
+    public long getRefusedCount() {
+        return refused.get();
+    }
+
+    /**
+     * @return milliseconds from {@link #submit(MailMessage)} to delivery, recorded once per recipient
+     */
+    public LatencyHistogram getMailLatency() {
+        return mailLatency;
+    }
+
+    private void run() {
+        List<MailMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                MailMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                if (!running)
+                    break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void deliver(List<MailMessage> batch) {
+        long startedAt = System.currentTimeMillis();
+        ReminderFlightEvents.MailSent mailSent = new ReminderFlightEvents.MailSent();
+        mailSent.begin();
+        try {
+            MailSink.Result result = sink.sendAll(batch);
+            mailSent.end();
+            if (mailSent.shouldCommit())
+                commit(mailSent, batch, result.getFailedCount(), startedAt);
+            sent.addAndGet(batch.size() - result.getFailedCount());
+            failed.addAndGet(result.getFailedCount());
+            refused.addAndGet(result.getRefused().size());
+            long now = System.currentTimeMillis();
+            MailRetryQueue retries = this.retries;
+            for (MailMessage message : batch) {
+                if (result.getRetryable().contains(message)) {
+                    if (retries != null)
+                        retries.failed(message);
+                    continue;
+                }
+                if (result.getRefused().contains(message)) {
+                    if (retries != null)
+                        retries.refused(message);
+                    continue;
+                }
+                mailLatency.record(now - message.getCreatedAt(), message.getRecipients().length);
+                if (retries != null)
+                    retries.delivered(message);
+                for (DeliveryListener listener : listeners) {
+                    try {
+                        listener.delivered(message);
+                    } catch (RuntimeException e) {
+                        // the message is sent, a failing listener must not have the batch retried
+                        logger.error("delivery listener failed on {}", message, e);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("mail sink failed on a batch of {}", batch.size(), e);
+            mailSent.end();
+            if (mailSent.shouldCommit())
+                commit(mailSent, batch, batch.size(), startedAt);
+            failed.addAndGet(batch.size());
+            MailRetryQueue retries = this.retries;
+            if (retries != null) {
+                for (MailMessage message : batch) {
+                    retries.failed(message);
+                }
+            }
+        }
+    }
+
+    private static void commit(ReminderFlightEvents.MailSent mailSent, List<MailMessage> batch, int failed,
+            long startedAt) {
+        long oldest = Long.MAX_VALUE;
+        int recipients = 0;
+        for (MailMessage message : batch) {
+            oldest = Math.min(oldest, message.getCreatedAt());
+            recipients += message.getRecipients().length;
+        }
+        mailSent.messages = batch.size();
+        mailSent.participants = recipients;
+        mailSent.failed = failed;
+        mailSent.queued = startedAt - oldest;
+        mailSent.commit();
+    }
+
+    /**
+     * <p>Stops accepting messages, waits for the queued ones to be delivered and closes the sink. Messages
+     * waiting for a retry stay in the retry directory.</p>
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        if (retries != null)
+            retries.close();
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        sink.close();
+    }
+}
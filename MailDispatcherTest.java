@@ -0,0 +1,238 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import Utilities.DigestCoalescer;
+import Utilities.MailDispatcher;
+import Utilities.MailMessage;
+import Utilities.MailRetryQueue;
+import Utilities.MailSink;
+import Utilities.SmtpRateLimiter;
+import entities.Event;
+import entities.User;
+
+public class MailDispatcherTest {
+
+    @Test
+    public void testDeliversEverythingQueuedBeforeShutdown() throws Exception {
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailSink sink = delivered::add;
+        MailDispatcher dispatcher = new MailDispatcher(sink, 100, 2, 10, 1000);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(dispatcher.submit(new MailMessage("reminder", "body " + i, new String[] {"user" + i + "@test"})));
+        }
+        dispatcher.shutdown();
+
+        assertEquals(50, delivered.size());
+        assertEquals(50, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        Object gate = new Object();
+        MailSink blocked = message -> {
+            synchronized (gate) {
+                gate.wait();
+            }
+        };
+        MailDispatcher dispatcher = new MailDispatcher(blocked, 1, 1, 1, 10);
+
+        // one message held by the worker, one in the queue, the third finds no room
+        dispatcher.submit(new MailMessage("reminder", "1", new String[] {"a@test"}));
+        Thread.sleep(200);
+        assertTrue(dispatcher.submit(new MailMessage("reminder", "2", new String[] {"b@test"})));
+        assertFalse(dispatcher.submit(new MailMessage("reminder", "3", new String[] {"c@test"})));
+        assertEquals(1, dispatcher.getRejectedCount());
+    }
+
+    @Test
+    public void testDigestMergesRemindersOfOneRecipient() throws Exception {
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher dispatcher = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        DigestCoalescer digest = new DigestCoalescer(dispatcher, 200);
+        User heavy = new User("heavy", "heavy@test");
+        User light = new User("light", "light@test");
+        Instant nine = Instant.now().plusSeconds(3600);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(digest.offer(heavy, new Event(i, "meeting " + i, "organizer", nine, 1, List.of("heavy"))));
+        }
+        // the same event again within the window is listed once
+        digest.offer(heavy, new Event(0, "meeting 0", "organizer", nine, 1, List.of("heavy")));
+        digest.offer(light, new Event(0, "meeting 0", "organizer", nine, 1, List.of("light")));
+        Thread.sleep(600);
+        dispatcher.shutdown();
+
+        assertEquals(2, delivered.size());
+        assertEquals(7, digest.getReminderCount());
+        assertEquals(2, digest.getMailCount());
+        for (MailMessage message : delivered) {
+            if (message.getRecipients()[0].equals("heavy@test"))
+                assertEquals(5, message.getBody().split("\n").length - 1);
+            else
+                assertEquals("reminder", message.getSubject());
+        }
+    }
+
+    @Test
+    public void testDigestFindingTheQueueFullIsGatheredAgain() throws Exception {
+        assertDigestSurvivesFullQueue(null);
+    }
+
+    @Test
+    public void testDigestFindingTheQueueFullIsRetried(@TempDir Path dir) throws Exception {
+        assertDigestSurvivesFullQueue(new MailRetryQueue(dir, 20, 100, 20));
+    }
+
+    private static void assertDigestSurvivesFullQueue(MailRetryQueue retries) throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailSink blocked = message -> {
+            gate.await();
+            delivered.add(message);
+        };
+        MailDispatcher dispatcher = new MailDispatcher(blocked, 1, 1, 1, 10);
+        if (retries != null)
+            dispatcher.setRetryQueue(retries);
+        DigestCoalescer digest = new DigestCoalescer(dispatcher, 100);
+        User user = new User("name1", "name1@test");
+        Instant nine = Instant.now().plusSeconds(3600);
+
+        // one message held by the worker and one in the queue, the digest finds no room
+        dispatcher.submit(new MailMessage("reminder", "1", new String[] {"a@test"}));
+        Thread.sleep(100);
+        dispatcher.submit(new MailMessage("reminder", "2", new String[] {"b@test"}));
+        assertTrue(digest.offer(user, new Event(1, "meeting 1", "organizer", nine, 1, List.of("name1"))));
+        Thread.sleep(300);
+        assertTrue(dispatcher.getRejectedCount() > 0);
+        gate.countDown();
+        for (int i = 0; i < 100 && delivered.size() < 3; i++) {
+            Thread.sleep(50);
+        }
+        digest.shutdown();
+        dispatcher.shutdown();
+
+        assertEquals(3, delivered.size());
+        assertEquals("name1@test", delivered.get(2).getRecipients()[0]);
+        assertEquals(1, digest.getMailCount());
+    }
+
+    @Test
+    public void testFailedMailsAreRetriedAfterBackoff(@TempDir Path dir) throws Exception {
+        Set<String> refusedOnce = ConcurrentHashMap.newKeySet();
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        // every message is refused on its first attempt
+        MailSink flaky = message -> {
+            if (refusedOnce.add(message.getBody()))
+                throw new IllegalStateException("421 try again later");
+            delivered.add(message);
+        };
+        MailDispatcher dispatcher = new MailDispatcher(flaky, 100, 2, 10, 1000);
+        MailRetryQueue retries = new MailRetryQueue(dir, 20, 100, 3);
+        dispatcher.setRetryQueue(retries);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(dispatcher.submit(new MailMessage("reminder", "body " + i, new String[] {"user" + i + "@test"})));
+        }
+        for (int i = 0; i < 100 && delivered.size() < 10; i++) {
+            Thread.sleep(50);
+        }
+        dispatcher.shutdown();
+
+        assertEquals(10, delivered.size());
+        assertEquals(10, retries.getRetriedCount());
+        assertEquals(0, retries.size());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testRefusedMailsCountAsFailedAndAreNotRetried(@TempDir Path dir) throws Exception {
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        // odd messages are refused for good, as an SMTP server does with a 5xx reply
+        MailSink strict = new MailSink() {
+            @Override
+            public void send(MailMessage message) {
+                delivered.add(message);
+            }
+
+            @Override
+            public Result sendAll(List<MailMessage> messages) {
+                List<MailMessage> refused = new ArrayList<>();
+                for (MailMessage message : messages) {
+                    if (message.getBody().endsWith("1") || message.getBody().endsWith("3"))
+                        refused.add(message);
+                    else
+                        send(message);
+                }
+                return new Result(Collections.emptyList(), refused);
+            }
+        };
+        MailDispatcher dispatcher = new MailDispatcher(strict, 100, 1, 10, 1000);
+        MailRetryQueue retries = new MailRetryQueue(dir, 20, 100, 3);
+        dispatcher.setRetryQueue(retries);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.submit(new MailMessage("reminder", "body " + i, new String[] {"user" + i + "@test"}));
+        }
+        dispatcher.shutdown();
+
+        assertEquals(2, delivered.size());
+        assertEquals(2, dispatcher.getSentCount());
+        assertEquals(2, dispatcher.getFailedCount());
+        assertEquals(2, dispatcher.getRefusedCount());
+        assertEquals(0, retries.getRetriedCount());
+        assertEquals(0, retries.size());
+    }
+
+    @Test
+    public void testRetriesSurviveRestart(@TempDir Path dir) throws Exception {
+        MailSink down = message -> {
+            throw new IllegalStateException("connection refused");
+        };
+        MailDispatcher dispatcher = new MailDispatcher(down, 100, 1, 10, 1000);
+        dispatcher.setRetryQueue(new MailRetryQueue(dir, 60_000, 60_000, 3));
+        for (int i = 0; i < 3; i++) {
+            dispatcher.submit(new MailMessage("reminder", "body " + i, new String[] {"user" + i + "@test"}));
+        }
+        for (int i = 0; i < 100 && dispatcher.getFailedCount() < 3; i++) {
+            Thread.sleep(20);
+        }
+        dispatcher.shutdown();
+
+        MailRetryQueue reloaded = new MailRetryQueue(dir, 60_000, 60_000, 3);
+        assertEquals(3, reloaded.size());
+    }
+
+    @Test
+    public void testRateHalvesOnThrottlingAndRecovers() {
+        SmtpRateLimiter limiter = new SmtpRateLimiter("smtp.test", 20, 1, 1);
+        limiter.throttled();
+        assertEquals(10, limiter.getRate(), 0.001);
+        // a burst of refusals within a second is one signal
+        limiter.throttled();
+        assertEquals(10, limiter.getRate(), 0.001);
+        assertEquals(2, limiter.getThrottledCount());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.succeeded();
+        }
+        assertEquals(20, limiter.getRate(), 0.001);
+    }
+}
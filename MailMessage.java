@@ -0,0 +1,88 @@
+package Utilities;
+
+import java.util.Arrays;
+
+/**
+ * One outgoing mail, as handed from the reminder jobs to the {@link MailDispatcher}.
+ *
+ * @see MailDispatcher
+ * @see MailSink
+ */
+public final class MailMessage {
+
+    private static final String[] NO_KEYS = new String[0];
+
+    private final String subject;
+    private final String body;
+    private final String[] recipients;
+    private final long createdAt;
+    private final String[] keys;
+
+    /**
+     * <p>Constructor</p>
+     * @param subject
+     * @param body
+     * @param recipients mail addresses
+     */
+    public MailMessage(String subject, String body, String[] recipients) {
+        this(subject, body, recipients, System.currentTimeMillis());
+    }
+
+    /**
+     * <p>Constructor for a message read back from disk, keeping the time it was first handed over.</p>
+     * @param subject
+     * @param body
+     * @param recipients
+     * @param createdAt epoch millis
+     */
+    MailMessage(String subject, String body, String[] recipients, long createdAt) {
+        this(subject, body, recipients, createdAt, NO_KEYS);
+    }
+
+    private MailMessage(String subject, String body, String[] recipients, long createdAt, String[] keys) {
+        this.subject = subject;
+        this.body = body;
+        this.recipients = recipients;
+        this.createdAt = createdAt;
+        this.keys = keys;
+    }
+
+    /**
+     * @param keys
+     * @return the same message carrying the keys
+     */
+    public MailMessage withKeys(String... keys) {
+        return new MailMessage(subject, body, recipients, createdAt, keys);
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String[] getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * @return keys of the {@link MailOutbox} entries the message delivers, empty if it is not from the outbox
+     */
+    public String[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return epoch millis at which the message was created, i.e. handed to the mail stage
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "MailMessage[" + subject + " to " + Arrays.toString(recipients) + "]";
+    }
+}
@@ -0,0 +1,515 @@
+package Utilities;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import entities.Event;
+import entities.User;
+import repositories.BatchDataRepository;
+import repositories.DataRepository;
+
+/**
+ * Write-ahead log of the reminder mails owed to each participant, so that every recipient gets every reminder
+ * exactly once however often the job fires.
+ *
+ * <p>
+ * A firing {@link EventReminderJob} only appends one (event, offset, start, recipient) entry per participant and
+ * waits for the next fsync; it does not look up users or render mails. An entry whose key
+ * <code>eventID:offsetSeconds:startMillis:recipient</code> is already known is skipped, so a job fired again after
+ * failing halfway through the participants only adds the ones it did not reach. The start is the one the reminder
+ * was scheduled for, so an event moved to another time is reminded again, or the time a reminder without an offset
+ * was due, so the reminders of one event at different fixed times are all delivered. Once on disk the entries are drained by a
+ * delivery worker into the {@link DigestCoalescer}, and an entry is marked delivered when the
+ * {@link MailDispatcher} reports its mail as sent. Entries still pending on restart are delivered again.
+ * </p>
+ * <p>
+ * The file starts with <code>magic | format</code> followed by a sequence of records
+ * <code>type | eventID | offsetSeconds | startMillis | atMillis | name length | name | crc32</code>,
+ * a torn or corrupt tail is cut off on open. A file of the first format, without header and start, is read and
+ * rewritten in the current one. Appends are written and forced by one flusher thread every
+ * <code>syncMillis</code>, so concurrent jobs share an fsync. Delivered entries are kept for
+ * <code>retentionMillis</code> to recognize a late re-fire, the file is rewritten without the older ones when it
+ * holds more than twice the live entries.
+ * </p>
+ * <p>
+ * A crash between the mail being sent and its delivered record reaching the disk sends that mail again on restart.
+ * </p>
+ *
+ * <pre>
+ *      reminder.outbox.file = data/mail.outbox
+ *      reminder.outbox.syncMillis = 10
+ *      reminder.outbox.retentionHours = 168
+ * </pre>
+ *
+ * @see EventReminderJob
+ */
+public class MailOutbox implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailOutbox.class);
+
+    private static final int MAGIC = 0x524D4F42;
+    /** 2 added the file header and the startMillis of the records */
+    private static final int FORMAT = 2;
+    private static final int FILE_HEADER = 4 + 4;
+    private static final byte PENDING = 1;
+    private static final byte DELIVERED = 2;
+    /** type, eventID, offsetSeconds, startMillis, atMillis, name length */
+    private static final int RECORD_HEADER = 1 + 4 + 4 + 8 + 8 + 2;
+    private static final int BATCH_SIZE = 256;
+
+    private final Path path;
+    private final DataRepository repository;
+    private final DigestCoalescer coalescer;
+    private final MailDispatcher.DeliveryListener listener = this::delivered;
+    private final long syncMillis;
+    private final long retentionMillis;
+
+    private FileChannel channel;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int records;
+
+    /** encoded records not yet written, guarded by this */
+    private ByteBuffer unwritten = ByteBuffer.allocate(64 * 1024);
+    private List<Entry> undurable = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    private final BlockingQueue<Entry> ready = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private final Thread worker;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * <p>Constructor, replaying the file and starting the flusher and the delivery worker.</p>
+     * @param path outbox file, created if missing
+     * @param repository where the events and users of the entries are looked up
+     * @param coalescer where the mails are handed over
+     * @param syncMillis how long appends gather before an fsync
+     * @param retentionMillis how long a delivered entry still suppresses a duplicate
+     * @throws IOException
+     */
+    public MailOutbox(Path path, DataRepository repository, DigestCoalescer coalescer, long syncMillis,
+            long retentionMillis) throws IOException {
+        this.path = path;
+        this.repository = repository;
+        this.coalescer = coalescer;
+        this.syncMillis = Math.max(1, syncMillis);
+        this.retentionMillis = retentionMillis;
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        replay();
+        compact();
+        for (Entry entry : entries.values()) {
+            if (!entry.delivered)
+                ready.add(entry);
+        }
+        if (!ready.isEmpty())
+            logger.info("{} undelivered reminders found in {}", ready.size(), path);
+        coalescer.getDispatcher().addDeliveryListener(listener);
+        flusher = new Thread(this::flushLoop, "mail-outbox-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        worker = new Thread(this::deliverLoop, "mail-outbox");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @param eventID
+     * @param offsetSeconds
+     * @param startMillis start of the event the reminder was scheduled for
+     * @param recipient participant name
+     * @return the dedupe key of the entry
+     */
+    static String key(int eventID, int offsetSeconds, long startMillis, String recipient) {
+        return eventID + ":" + offsetSeconds + ":" + startMillis + ":" + recipient;
+    }
+
+    /**
+     * <p>Records that the reminder fired {@code offsetSeconds} before the event is owed to the participant. The
+     * entry is delivered once it is on disk, see {@link #sync()}.</p>
+     *
+     * @param eventID
+     * @param offsetSeconds
+     * @param startMillis start of the event the reminder was scheduled for
+     * @param recipient participant name
+     * @return false if the entry was already recorded, pending or delivered
+     */
+    public synchronized boolean append(int eventID, int offsetSeconds, long startMillis, String recipient) {
+        if (closed)
+            throw new IllegalStateException(path + " is closed");
+        String key = key(eventID, offsetSeconds, startMillis, recipient);
+        if (entries.containsKey(key)) {
+            skipped.incrementAndGet();
+            return false;
+        }
+        Entry entry = new Entry(key, eventID, offsetSeconds, startMillis, recipient, System.currentTimeMillis());
+        entries.put(key, entry);
+        encode(PENDING, entry);
+        undurable.add(entry);
+        return true;
+    }
+
+    /**
+     * <p>Waits until everything appended so far is on disk.</p>
+     *
+     * @throws IOException if writing the outbox failed
+     * @throws InterruptedException
+     */
+    public synchronized void sync() throws IOException, InterruptedException {
+        long target = appended;
+        while (durable < target) {
+            if (failure != null)
+                throw failure;
+            wait();
+        }
+    }
+
+    private void encode(byte type, Entry entry) {
+        byte[] name = entry.recipient.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER + name.length + 4;
+        if (unwritten.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(unwritten.capacity() * 2, unwritten.position() + size));
+            unwritten.flip();
+            unwritten = grown.put(unwritten);
+        }
+        int start = unwritten.position();
+        unwritten.put(type).putInt(entry.eventID).putInt(entry.offsetSeconds).putLong(entry.startMillis).putLong(entry.at)
+                .putShort((short) name.length).put(name);
+        CRC32 crc = new CRC32();
+        crc.update(unwritten.array(), start, size - 4);
+        unwritten.putInt((int) crc.getValue());
+        appended += size;
+        records++;
+    }
+
+    private void flushLoop() {
+        ByteBuffer spare = ByteBuffer.allocate(unwritten.capacity());
+        while (true) {
+            ByteBuffer batch;
+            List<Entry> written;
+            long target;
+            synchronized (this) {
+                try {
+                    if (!closed && unwritten.position() == 0)
+                        wait(syncMillis);
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (unwritten.position() == 0) {
+                    if (closed)
+                        return;
+                    continue;
+                }
+                batch = unwritten;
+                unwritten = spare.capacity() >= batch.capacity() ? spare : ByteBuffer.allocate(batch.capacity());
+                written = undurable;
+                undurable = new ArrayList<>();
+                target = appended;
+            }
+            try {
+                batch.flip();
+                while (batch.hasRemaining())
+                    channel.write(batch);
+                channel.force(false);
+            } catch (IOException e) {
+                logger.error("could not write {}", path, e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            batch.clear();
+            spare = batch;
+            synchronized (this) {
+                durable = target;
+                notifyAll();
+                if (records > 2 * entries.size() + 10_000) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        logger.error("could not compact {}", path, e);
+                    }
+                }
+            }
+            ready.addAll(written);
+        }
+    }
+
+    private void deliverLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(ready.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ready.drainTo(batch, BATCH_SIZE - 1);
+            try {
+                deliver(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.error("could not deliver {} reminders, retrying", batch.size(), e);
+                ready.addAll(batch);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void deliver(List<Entry> batch) throws InterruptedException {
+        Set<Integer> eventIDs = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (Entry entry : batch) {
+            eventIDs.add(entry.eventID);
+            names.add(entry.recipient);
+        }
+        Map<Integer, Event> events = BatchDataRepository.findEventsByIDs(repository, eventIDs);
+        Map<String, User> users = BatchDataRepository.findUsersByNames(repository, new ArrayList<>(names));
+        for (Entry entry : batch) {
+            Event event = events.get(entry.eventID);
+            User user = users.get(entry.recipient);
+            if (event == null || user == null) {
+                logger.warn("reminder {} dropped, the event or the participant does not exist", entry.key);
+                markDelivered(entry.key);
+                continue;
+            }
+            if (!coalescer.offer(user, event, entry.key)) {
+                logger.warn("mail queue full, reminder {} retried later", entry.key);
+                ready.add(entry);
+            }
+        }
+    }
+
+    /**
+     * <p>Marks the entries of a mail the dispatcher sent delivered.</p>
+     *
+     * @param message
+     */
+    private void delivered(MailMessage message) {
+        for (String key : message.getKeys()) {
+            markDelivered(key);
+        }
+    }
+
+    private synchronized void markDelivered(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.delivered || closed)
+            return;
+        entry.delivered = true;
+        delivered.incrementAndGet();
+        encode(DELIVERED, entry);
+    }
+
+    private void replay() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer in = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        while (in.hasRemaining() && channel.read(in) >= 0) {
+        }
+        in.flip();
+        int format = 1;
+        if (in.remaining() >= FILE_HEADER && in.getInt(0) == MAGIC) {
+            format = in.getInt(4);
+            if (format != FORMAT)
+                throw new IOException(path + " has the unknown format " + format);
+            in.position(FILE_HEADER);
+        } else if (in.hasRemaining()) {
+            logger.info("{} has no header, reading it in the first format", path);
+        }
+        // the first format has no start, its entries are kept under start -1
+        int recordHeader = format == 1 ? RECORD_HEADER - 8 : RECORD_HEADER;
+        long valid = in.position();
+        try {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                if (in.remaining() < recordHeader)
+                    throw new EOFException();
+                byte type = in.get();
+                int eventID = in.getInt();
+                int offsetSeconds = in.getInt();
+                long startMillis = format == 1 ? -1 : in.getLong();
+                long at = in.getLong();
+                int length = in.getShort() & 0xFFFF;
+                if (in.remaining() < length + 4)
+                    throw new EOFException();
+                byte[] name = new byte[length];
+                in.get(name);
+                CRC32 crc = new CRC32();
+                crc.update(in.array(), start, recordHeader + length);
+                if (in.getInt() != (int) crc.getValue() || (type != PENDING && type != DELIVERED))
+                    throw new EOFException();
+                String recipient = new String(name, StandardCharsets.UTF_8);
+                String key = key(eventID, offsetSeconds, startMillis, recipient);
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry(key, eventID, offsetSeconds, startMillis, recipient, at);
+                    entries.put(key, entry);
+                }
+                entry.delivered = type == DELIVERED;
+                valid = in.position();
+                records++;
+            }
+        } catch (EOFException e) {
+            logger.warn("torn tail of {} cut off after {} bytes", path, valid);
+        }
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    /**
+     * <p>Rewrites the file in the current format with the pending entries and the delivered ones younger than the
+     * retention.</p>
+     */
+    private synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.delivered && now - entry.at > retentionMillis);
+        ByteBuffer previous = unwritten;
+        int before = records;
+        unwritten = ByteBuffer.allocate(Math.max(previous.capacity(), 64));
+        records = 0;
+        long appendedBefore = appended;
+        for (Entry entry : entries.values()) {
+            encode(PENDING, entry);
+            if (entry.delivered)
+                encode(DELIVERED, entry);
+        }
+        // the rewrite includes everything appended so far, nothing stays to be written
+        appended = appendedBefore;
+        Path snapshot = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC).putInt(FORMAT);
+            header.flip();
+            while (header.hasRemaining())
+                out.write(header);
+            unwritten.flip();
+            while (unwritten.hasRemaining())
+                out.write(unwritten);
+            out.force(false);
+        }
+        channel.close();
+        Files.move(snapshot, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        unwritten = previous;
+        unwritten.clear();
+        durable = appended;
+        ready.addAll(undurable);
+        undurable = new ArrayList<>();
+        notifyAll();
+        if (before != records)
+            logger.debug("outbox compacted from {} to {} records", before, records);
+    }
+
+    /**
+     * @return number of entries not delivered yet
+     */
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Entry entry : entries.values()) {
+            if (!entry.delivered)
+                pending++;
+        }
+        return pending;
+    }
+
+    /**
+     * @return number of appends skipped because the entry was already recorded
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of entries marked delivered
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * <p>Stops handing entries to the coalescer. The mails already handed over are still marked delivered when
+     * they are sent, so a shutdown calls this before draining the mail stage and closing the outbox.</p>
+     */
+    public void stopDelivery() {
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <p>Writes what was appended, stops the worker and closes the file. Undelivered entries are delivered on the
+     * next start.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        coalescer.getDispatcher().removeDeliveryListener(listener);
+        stopDelivery();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * one mail owed to one participant
+     */
+    private static final class Entry {
+        final String key;
+        final int eventID;
+        final int offsetSeconds;
+        final long startMillis;
+        final String recipient;
+        final long at;
+        boolean delivered;
+
+        Entry(String key, int eventID, int offsetSeconds, long startMillis, String recipient, long at) {
+            this.key = key;
+            this.eventID = eventID;
+            this.offsetSeconds = offsetSeconds;
+            this.startMillis = startMillis;
+            this.recipient = recipient;
+            this.at = at;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import Utilities.DigestCoalescer;
+import Utilities.FakeSmtpServer;
+import Utilities.MailDispatcher;
+import Utilities.MailMessage;
+import Utilities.MailOutbox;
+import Utilities.MailSink;
+import Utilities.QuartzReminder;
+import Utilities.ReminderFactory;
+import entities.Event;
+import entities.User;
+import repositories.InMemoryDataRepository;
+
+public class MailOutboxTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    private InMemoryDataRepository repository;
+    private List<String> names;
+    private Instant start;
+
+    @BeforeEach
+    public void setUp() {
+        repository = new InMemoryDataRepository();
+        names = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            names.add("user" + i);
+            repository.putUser(new User("user" + i, "user" + i + "@test"));
+        }
+        start = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.DAYS);
+        repository.putEvent(new Event(1, "event", "organizer", start, 1, names));
+    }
+
+    private static void awaitDelivered(MailOutbox outbox, long count) throws InterruptedException {
+        for (int i = 0; i < 200 && outbox.getDeliveredCount() < count; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testRefireOnlyAddsTheRemainder() throws Exception {
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher dispatcher = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        DigestCoalescer coalescer = new DigestCoalescer(dispatcher, 0);
+        MailOutbox outbox = new MailOutbox(dir.resolve("mail.outbox"), repository, coalescer, 5, HOUR);
+        try {
+            // first fire fails after three participants
+            for (String name : names.subList(0, 3)) {
+                assertTrue(outbox.append(1, 300, start.toEpochMilli(), name));
+            }
+            outbox.sync();
+            awaitDelivered(outbox, 3);
+
+            int added = 0;
+            for (String name : names) {
+                if (outbox.append(1, 300, start.toEpochMilli(), name))
+                    added++;
+            }
+            outbox.sync();
+            assertEquals(2, added);
+            assertEquals(3, outbox.getSkippedCount());
+            awaitDelivered(outbox, 5);
+        } finally {
+            outbox.close();
+            dispatcher.shutdown();
+        }
+        assertEquals(5, delivered.size());
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    @Test
+    public void testRescheduledEventIsRemindedAgain() throws Exception {
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher dispatcher = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        DigestCoalescer coalescer = new DigestCoalescer(dispatcher, 0);
+        MailOutbox outbox = new MailOutbox(dir.resolve("mail.outbox"), repository, coalescer, 5, HOUR);
+        Instant moved = start.plus(2, ChronoUnit.HOURS);
+        try {
+            for (String name : names) {
+                assertTrue(outbox.append(1, 300, start.toEpochMilli(), name));
+            }
+            outbox.sync();
+            awaitDelivered(outbox, 5);
+
+            // the event moves, its reminder fires again for the new start
+            repository.putEvent(new Event(1, "event", "organizer", moved, 1, names));
+            for (String name : names) {
+                assertTrue(outbox.append(1, 300, moved.toEpochMilli(), name));
+            }
+            // a late re-fire of the reminder scheduled for the old start is still a duplicate
+            assertFalse(outbox.append(1, 300, start.toEpochMilli(), "user0"));
+            outbox.sync();
+            awaitDelivered(outbox, 10);
+        } finally {
+            outbox.close();
+            dispatcher.shutdown();
+        }
+        assertEquals(10, delivered.size());
+        assertEquals(1, outbox.getSkippedCount());
+
+        MailOutbox reopened = new MailOutbox(dir.resolve("mail.outbox"), repository, coalescer, 5, HOUR);
+        try {
+            assertEquals(0, reopened.getPendingCount());
+            assertFalse(reopened.append(1, 300, moved.toEpochMilli(), "user0"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testUndeliveredEntriesSurviveRestart() throws Exception {
+        MailSink down = message -> {
+            throw new IllegalStateException("connection refused");
+        };
+        MailDispatcher failing = new MailDispatcher(down, 100, 1, 10, 1000);
+        DigestCoalescer toFailing = new DigestCoalescer(failing, 0);
+        MailOutbox outbox = new MailOutbox(dir.resolve("mail.outbox"), repository, toFailing, 5, HOUR);
+        for (String name : names) {
+            outbox.append(1, 300, start.toEpochMilli(), name);
+        }
+        outbox.sync();
+        outbox.close();
+        failing.shutdown();
+        assertEquals(5, outbox.getPendingCount());
+
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher dispatcher = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        DigestCoalescer coalescer = new DigestCoalescer(dispatcher, 0);
+        MailOutbox reopened = new MailOutbox(dir.resolve("mail.outbox"), repository, coalescer, 5, HOUR);
+        try {
+            awaitDelivered(reopened, 5);
+            assertFalse(reopened.append(1, 300, start.toEpochMilli(), "user0"));
+        } finally {
+            reopened.close();
+            dispatcher.shutdown();
+        }
+        assertEquals(5, delivered.size());
+
+        // delivered entries are remembered across restarts too
+        MailOutbox again = new MailOutbox(dir.resolve("mail.outbox"), repository, coalescer, 5, HOUR);
+        try {
+            assertEquals(0, again.getPendingCount());
+            assertFalse(again.append(1, 300, start.toEpochMilli(), "user4"));
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void testOnlyTheOwnDispatcherMarksEntriesDelivered() throws Exception {
+        MailSink down = message -> {
+            throw new IllegalStateException("connection refused");
+        };
+        MailDispatcher failing = new MailDispatcher(down, 100, 1, 10, 1000);
+        MailOutbox outbox = new MailOutbox(dir.resolve("mail.outbox"), repository,
+                new DigestCoalescer(failing, 0), 5, HOUR);
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher other = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        try {
+            assertTrue(outbox.append(1, 300, start.toEpochMilli(), "user0"));
+            outbox.sync();
+            // a mail carrying the same key sent by an unrelated dispatcher
+            other.submit(new MailMessage("reminder", "body", new String[] {"user0@test"})
+                    .withKeys("1:300:" + start.toEpochMilli() + ":user0"));
+            for (int i = 0; i < 100 && delivered.isEmpty(); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, delivered.size());
+            assertEquals(1, outbox.getPendingCount());
+        } finally {
+            outbox.close();
+            failing.shutdown();
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testFirstFormatIsReadAndRewritten() throws Exception {
+        // records of the first format: type | eventID | offsetSeconds | atMillis | name length | name | crc32
+        ByteBuffer file = ByteBuffer.allocate(1024);
+        for (String name : names.subList(0, 2)) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int begin = file.position();
+            file.put((byte) 1).putInt(1).putInt(300).putLong(System.currentTimeMillis())
+                    .putShort((short) bytes.length).put(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(file.array(), begin, file.position() - begin);
+            file.putInt((int) crc.getValue());
+        }
+        Path path = dir.resolve("mail.outbox");
+        Files.write(path, Arrays.copyOf(file.array(), file.position()));
+
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailDispatcher dispatcher = new MailDispatcher(delivered::add, 100, 1, 10, 1000);
+        MailOutbox outbox = new MailOutbox(path, repository, new DigestCoalescer(dispatcher, 0), 5, HOUR);
+        try {
+            awaitDelivered(outbox, 2);
+        } finally {
+            outbox.close();
+            dispatcher.shutdown();
+        }
+        assertEquals(2, delivered.size());
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            assertEquals(0x524D4F42, in.readInt());
+            assertEquals(2, in.readInt());
+        }
+
+        MailOutbox reopened = new MailOutbox(path, repository, new DigestCoalescer(dispatcher, 0), 5, HOUR);
+        try {
+            assertEquals(0, reopened.getPendingCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testFixedTimeRemindersOfOneEventAreBothDelivered() throws Exception {
+        assertFixedTimeRemindersDelivered(0);
+    }
+
+    @Test
+    public void testBatchedFixedTimeRemindersOfOneEventAreBothDelivered() throws Exception {
+        assertFixedTimeRemindersDelivered(100);
+    }
+
+    private void assertFixedTimeRemindersDelivered(long batchWindowMillis) throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(0)) {
+            Properties properties = ReminderFactory.loadProperties(QuartzReminder.CONFIG_FILE);
+            properties.setProperty("reminder.outbox.file", dir.resolve("mail.outbox").toString());
+            properties.setProperty("reminder.batch.windowMillis", String.valueOf(batchWindowMillis));
+            properties.setProperty("reminder.mail.retryDirectory", dir.resolve("retries").toString());
+            properties.setProperty("spring.mail.host", "127.0.0.1");
+            properties.setProperty("spring.mail.port", String.valueOf(server.getPort()));
+            properties.setProperty("spring.mail.properties.mail.smtp.auth", "false");
+            properties.setProperty("spring.mail.properties.mail.smtp.starttls.enable", "false");
+            Path config = dir.resolve("quartz.properties");
+            try (OutputStream out = Files.newOutputStream(config)) {
+                properties.store(out, null);
+            }
+
+            QuartzReminder reminder = new QuartzReminder(repository, config.toString());
+            try {
+                // two reminders of the same event at different times, neither has an offset to the event
+                Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+                reminder.sendNotification(1, now.plusSeconds(1));
+                reminder.sendNotification(1, now.plusSeconds(2));
+                for (int i = 0; i < 200 && server.getMessageCount() < 2 * names.size(); i++) {
+                    Thread.sleep(50);
+                }
+            } finally {
+                reminder.shutdown();
+            }
+            assertEquals(2 * names.size(), server.getMessageCount());
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package Utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mails whose delivery failed for now, handed back to the {@link MailDispatcher} after an exponential backoff.
+ *
+ * <p>
+ * The n-th retry waits <code>min(maxDelayMillis, baseDelayMillis * 2^(n-1))</code>, half of it fixed and half
+ * random, so that the mails refused together by a throttling host do not come back together. After
+ * <code>maxAttempts</code> retries a mail is dropped with an error.
+ * </p>
+ * <p>
+ * Every waiting mail is kept in its own file of <code>directory</code>, written to a temporary file, forced and
+ * renamed, and deleted only once the mail is delivered. The mails of a previous run found in the directory are
+ * retried on start.
+ * </p>
+ *
+ * <pre>
+ *      reminder.mail.retryDirectory = data/mail-retries
+ *      reminder.mail.retryBaseMillis = 1000
+ *      reminder.mail.retryMaxMillis = 600000
+ *      reminder.mail.retryMaxAttempts = 8
+ * </pre>
+ *
+ * @see MailDispatcher#setRetryQueue(MailRetryQueue)
+ */
+public class MailRetryQueue implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailRetryQueue.class);
+
+    /** 2 added the outbox keys of the message */
+    private static final int FORMAT = 2;
+    private static final String SUFFIX = ".mail";
+
+    private final Path directory;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+
+    private final DelayQueue<Retry> waiting = new DelayQueue<>();
+    /** retries handed back to the dispatcher, until the dispatcher reports the outcome */
+    private final Map<MailMessage, Retry> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong names = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile MailDispatcher dispatcher;
+    private Thread pump;
+
+    /**
+     * <p>Constructor, loading the mails left in the directory by a previous run.</p>
+     * @param directory where the waiting mails are kept, created if missing
+     * @param baseDelayMillis delay before the first retry
+     * @param maxDelayMillis longest delay between two retries
+     * @param maxAttempts retries before a mail is dropped
+     * @throws IOException
+     */
+    public MailRetryQueue(Path directory, long baseDelayMillis, long maxDelayMillis, int maxAttempts) throws IOException {
+        this.directory = directory;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    waiting.add(read(file));
+                } catch (IOException e) {
+                    logger.error("unreadable retry {} skipped", file, e);
+                }
+            }
+        }
+        if (!waiting.isEmpty())
+            logger.info("{} mails to retry loaded from {}", waiting.size(), directory);
+    }
+
+    /**
+     * <p>Starts handing the due mails to the dispatcher, called by {@link MailDispatcher#setRetryQueue}.</p>
+     *
+     * @param dispatcher
+     */
+    synchronized void start(MailDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        if (pump != null)
+            return;
+        pump = new Thread(this::run, "mail-retry");
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Retry retry;
+            try {
+                retry = waiting.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            inFlight.put(retry.message, retry);
+            retried.incrementAndGet();
+            try {
+                if (!dispatcher.submit(retry.message))
+                    failed(retry.message);
+            } catch (InterruptedException e) {
+                inFlight.remove(retry.message);
+                waiting.add(retry);
+                break;
+            }
+        }
+    }
+
+    /**
+     * <p>Schedules the next attempt of a mail that could not be delivered, or drops it after the last one.</p>
+     *
+     * @param message
+     */
+    public void failed(MailMessage message) {
+        Retry previous = inFlight.remove(message);
+        int attempt = previous == null ? 1 : previous.attempt + 1;
+        if (attempt > maxAttempts) {
+            dropped.incrementAndGet();
+            logger.error("{} dropped after {} retries", message, maxAttempts);
+            if (previous != null)
+                delete(previous.file);
+            return;
+        }
+        Path file = previous == null ? directory.resolve(names.incrementAndGet() + SUFFIX) : previous.file;
+        Retry retry = new Retry(message, attempt, System.currentTimeMillis() + backoff(attempt), file);
+        try {
+            write(retry);
+        } catch (IOException e) {
+            // still retried by this run, only lost on restart
+            logger.error("could not save the retry of {} to {}", message, file, e);
+        }
+        waiting.add(retry);
+    }
+
+    /**
+     * <p>Forgets a retried mail once it is delivered, a no-op for any other mail.</p>
+     *
+     * @param message
+     */
+    public void delivered(MailMessage message) {
+        if (inFlight.isEmpty())
+            return;
+        Retry retry = inFlight.remove(message);
+        if (retry != null)
+            delete(retry.file);
+    }
+
+    /**
+     * <p>Drops a retried mail the server refused for good, a no-op for any other mail.</p>
+     *
+     * @param message
+     */
+    public void refused(MailMessage message) {
+        if (inFlight.isEmpty())
+            return;
+        Retry retry = inFlight.remove(message);
+        if (retry != null) {
+            dropped.incrementAndGet();
+            delete(retry.file);
+        }
+    }
+
+    /**
+     * @param attempt 1 for the first retry
+     * @return millis to wait before the attempt
+     */
+    long backoff(int attempt) {
+        long delay = baseDelayMillis << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelayMillis)
+            delay = maxDelayMillis;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void write(Retry retry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            MailMessage message = retry.message;
+            out.writeInt(FORMAT);
+            out.writeInt(retry.attempt);
+            out.writeLong(retry.dueAt);
+            out.writeLong(message.getCreatedAt());
+            writeString(out, message.getSubject());
+            writeString(out, message.getBody());
+            out.writeInt(message.getRecipients().length);
+            for (String recipient : message.getRecipients()) {
+                writeString(out, recipient);
+            }
+            out.writeInt(message.getKeys().length);
+            for (String key : message.getKeys()) {
+                writeString(out, key);
+            }
+        }
+        Path temporary = retry.file.resolveSibling(retry.file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+            channel.force(false);
+        }
+        Files.move(temporary, retry.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Retry read(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file); DataInputStream in = new DataInputStream(stream)) {
+            int format = in.readInt();
+            if (format != 1 && format != FORMAT)
+                throw new IOException("unknown format " + format);
+            int attempt = in.readInt();
+            long dueAt = in.readLong();
+            long createdAt = in.readLong();
+            String subject = readString(in);
+            String body = readString(in);
+            String[] recipients = new String[in.readInt()];
+            for (int i = 0; i < recipients.length; i++) {
+                recipients[i] = readString(in);
+            }
+            String[] keys = new String[format == 1 ? 0 : in.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = readString(in);
+            }
+            MailMessage message = new MailMessage(subject, body, recipients, createdAt);
+            return new Retry(keys.length == 0 ? message : message.withKeys(keys), attempt, dueAt, file);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("could not delete {}, the mail may be sent twice after a restart", file, e);
+        }
+    }
+
+    /**
+     * @return number of mails waiting for their next attempt or being retried
+     */
+    public int size() {
+        return waiting.size() + inFlight.size();
+    }
+
+    /**
+     * @return number of attempts handed to the dispatcher
+     */
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    /**
+     * @return number of mails given up after the last attempt
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * <p>Stops the retries, the waiting mails stay on disk for the next run.</p>
+     */
+    @Override
+    public synchronized void close() {
+        if (pump == null)
+            return;
+        pump.interrupt();
+        try {
+            pump.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pump = null;
+    }
+
+    /**
+     * one waiting mail, with the number of the attempt it waits for
+     */
+    private static final class Retry implements Delayed {
+        final MailMessage message;
+        final int attempt;
+        final long dueAt;
+        final Path file;
+
+        Retry(MailMessage message, int attempt, long dueAt, Path file) {
+            this.message = message;
+            this.attempt = attempt;
+            this.dueAt = dueAt;
+            this.file = file;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Retry) other).dueAt);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Final stage of the mail pipeline, actually delivering the messages taken off the {@link MailDispatcher} queue.
+ *
+ * @see SmtpMailSink
+ */
+public interface MailSink {
+
+    /**
+     * deliver one message.
+     *
+     * @param message
+     * @throws Exception if the message could not be delivered
+     */
+    void send(MailMessage message) throws Exception;
+
+    /**
+     * deliver several messages, implementations holding a connection deliver them all in one session.
+     *
+     * @param messages
+     * @return the messages that could not be delivered, every one of them worth a retry
+     */
+    default Result sendAll(List<MailMessage> messages) {
+        List<MailMessage> failed = new ArrayList<>(0);
+        for (MailMessage message : messages) {
+            try {
+                send(message);
+            } catch (Exception e) {
+                failed.add(message);
+            }
+        }
+        return new Result(failed, Collections.emptyList());
+    }
+
+    /**
+     * Outcome of {@link MailSink#sendAll(List)}, every message not listed went out.
+     */
+    final class Result {
+
+        private final List<MailMessage> retryable;
+        private final List<MailMessage> refused;
+
+        /**
+         * @param retryable messages that could not be delivered for now, e.g. refused with a 4xx reply
+         * @param refused messages refused for good, e.g. with a 5xx reply, not worth a retry
+         */
+        public Result(List<MailMessage> retryable, List<MailMessage> refused) {
+            this.retryable = retryable;
+            this.refused = refused;
+        }
+
+        public List<MailMessage> getRetryable() {
+            return retryable;
+        }
+
+        public List<MailMessage> getRefused() {
+            return refused;
+        }
+
+        /**
+         * @return number of messages that did not go out
+         */
+        public int getFailedCount() {
+            return retryable.size() + refused.size();
+        }
+    }
+
+    /**
+     * release the resources of the sink.
+     */
+    default void close() {
+    }
+}
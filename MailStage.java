@@ -0,0 +1,87 @@
+package Utilities;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * The mail side of a reminder engine: everything between a fired reminder and SMTP, built from the configuration
+ * of the engine and owned by it.
+ *
+ * <p>
+ * A job splits the participants of a large event with the {@link ParticipantFanOut} and offers every reminder to
+ * the {@link DigestCoalescer}, which renders it with the {@link ReminderMessages} and queues it on the
+ * {@link MailDispatcher}. The engine hands the stage to its jobs through the {@link ReminderJobFactory}, so two
+ * engines built from different files never share one, and stops it in {@link #shutdown()}.
+ * </p>
+ *
+ * @see QuartzReminder
+ * @see TimingWheelReminder
+ */
+public class MailStage {
+
+    private final MailDispatcher dispatcher;
+    private final ReminderMessages messages;
+    private final DigestCoalescer digest;
+    private final ParticipantFanOut fanOut;
+
+    /**
+     * <p>Constructor</p>
+     * @param dispatcher
+     * @param messages
+     * @param digest queueing on the dispatcher
+     * @param fanOut
+     */
+    public MailStage(MailDispatcher dispatcher, ReminderMessages messages, DigestCoalescer digest,
+            ParticipantFanOut fanOut) {
+        this.dispatcher = dispatcher;
+        this.messages = messages;
+        this.digest = digest;
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * @param properties the <code>spring.mail.*</code>, <code>reminder.mail.*</code>,
+     *            <code>reminder.message.*</code>, <code>reminder.digest.*</code> and <code>reminder.fanout.*</code>
+     *            settings
+     * @return the stage, its dispatcher already started
+     * @throws IOException if the retry directory cannot be read
+     * @throws IllegalArgumentException if a template or the zone is invalid or <code>spring.mail.host</code> is not
+     *             set
+     */
+    public static MailStage fromProperties(Properties properties) throws IOException {
+        ReminderMessages messages = ReminderMessages.fromProperties(properties);
+        MailDispatcher dispatcher = MailDispatcher.fromProperties(properties);
+        return new MailStage(dispatcher, messages,
+                new DigestCoalescer(dispatcher, messages,
+                        Long.parseLong(properties.getProperty("reminder.digest.windowMillis", "0").trim())),
+                ParticipantFanOut.fromProperties(properties));
+    }
+
+    public MailDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public ReminderMessages getMessages() {
+        return messages;
+    }
+
+    public DigestCoalescer getDigest() {
+        return digest;
+    }
+
+    public ParticipantFanOut getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * <p>Stops the fan-out, sends the digests still gathering, then delivers what is queued and closes the
+     * dispatcher.</p>
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        fanOut.shutdown();
+        digest.shutdown();
+        dispatcher.shutdown();
+    }
+}
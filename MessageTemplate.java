@@ -0,0 +1,175 @@
+package Utilities;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * Reminder text compiled once from a template with placeholders.
+ *
+ * <p>
+ * Supported placeholders:
+ * </p>
+ * <ul>
+ * <li><code>{username}</code>, <code>{email}</code> of the recipient,</li>
+ * <li><code>{event}</code>, <code>{eventID}</code>, <code>{organizer}</code> of the event,</li>
+ * <li><code>{start}</code> or <code>{start:pattern}</code>, the start of the event in the recipient's zone, see
+ * {@link DateTimeFormatter} for the pattern letters.</li>
+ * </ul>
+ * <p>
+ * The template is parsed into segments when compiled, so rendering only appends: no parsing, no concatenation and,
+ * with the formatters cached per zone, no formatter lookup beyond a map hit. {@link #renderTo} appends to a buffer
+ * owned by the caller, who reuses it across recipients.
+ * </p>
+ *
+ * <pre>
+ *      MessageTemplate template = MessageTemplate.compile("{event} starts at {start:HH:mm z}", Locale.ENGLISH);
+ *      template.renderTo(buffer, user, event, ZoneId.of("Asia/Ho_Chi_Minh"));
+ * </pre>
+ */
+public final class MessageTemplate {
+
+    static final String DEFAULT_START_PATTERN = "dd/MM/yyyy HH:mm z";
+
+    private interface Segment {
+        void appendTo(StringBuilder out, User user, Event event, ZoneId zone);
+    }
+
+    private final String source;
+    private final Segment[] segments;
+    private final int lengthHint;
+
+    private MessageTemplate(String source, Segment[] segments, int lengthHint) {
+        this.source = source;
+        this.segments = segments;
+        this.lengthHint = lengthHint;
+    }
+
+    /**
+     * <p>Parses the template.</p>
+     *
+     * @param template
+     * @param locale used for month and day names
+     * @return the compiled template
+     * @throws IllegalArgumentException if a placeholder is unknown or not closed, or a pattern is invalid
+     */
+    public static MessageTemplate compile(String template, Locale locale) {
+        List<Segment> segments = new ArrayList<>();
+        int literals = 0;
+        int i = 0;
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            if (open < 0)
+                open = template.length();
+            if (open > i) {
+                String literal = template.substring(i, open);
+                segments.add((out, user, event, zone) -> out.append(literal));
+                literals += literal.length();
+            }
+            if (open == template.length())
+                break;
+            int close = template.indexOf('}', open);
+            if (close < 0)
+                throw new IllegalArgumentException("placeholder not closed at " + open + " of " + template);
+            segments.add(placeholder(template.substring(open + 1, close), locale));
+            i = close + 1;
+        }
+        return new MessageTemplate(template, segments.toArray(new Segment[0]), literals + 32 * segments.size());
+    }
+
+    private static Segment placeholder(String name, Locale locale) {
+        switch (name) {
+        case "username":
+            return (out, user, event, zone) -> out.append(user.username);
+        case "email":
+            return (out, user, event, zone) -> out.append(user.email);
+        case "event":
+            return (out, user, event, zone) -> out.append(event.eventName);
+        case "eventID":
+            return (out, user, event, zone) -> out.append(event.eventID);
+        case "organizer":
+            return (out, user, event, zone) -> out.append(event.organizer);
+        case "start":
+            return new StartSegment(DEFAULT_START_PATTERN, locale);
+        default:
+            if (name.startsWith("start:"))
+                return new StartSegment(name.substring("start:".length()), locale);
+            throw new IllegalArgumentException("unknown placeholder {" + name + "}");
+        }
+    }
+
+    /**
+     * <p>Start of the event, with the formatter of every zone seen so far kept in the segment so that a lookup is
+     * one map hit on the zone.</p>
+     */
+    private static final class StartSegment implements Segment {
+        private final String pattern;
+        private final Locale locale;
+        private final Map<ZoneId, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+
+        StartSegment(String pattern, Locale locale) {
+            this.pattern = pattern;
+            this.locale = locale;
+            // fail on an invalid pattern when compiling, not when the first reminder fires
+            DateFormats.formatter(ZoneId.of("UTC"), pattern, locale);
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, User user, Event event, ZoneId zone) {
+            if (event.date == null)
+                return;
+            DateTimeFormatter formatter = formatters.get(zone);
+            if (formatter == null) {
+                formatter = DateFormats.formatter(zone, pattern, locale);
+                formatters.putIfAbsent(zone, formatter);
+            }
+            formatter.formatTo(Instant.from(event.date), out);
+        }
+    }
+
+    /**
+     * <p>Appends the text for the recipient to {@code out}.</p>
+     *
+     * @param out
+     * @param user recipient
+     * @param event
+     * @param zone recipient's time zone
+     * @return {@code out}
+     */
+    public StringBuilder renderTo(StringBuilder out, User user, Event event, ZoneId zone) {
+        for (Segment segment : segments) {
+            segment.appendTo(out, user, event, zone);
+        }
+        return out;
+    }
+
+    /**
+     * @param user recipient
+     * @param event
+     * @param zone recipient's time zone
+     * @return the text for the recipient
+     */
+    public String render(User user, Event event, ZoneId zone) {
+        return renderTo(new StringBuilder(lengthHint), user, event, zone).toString();
+    }
+
+    /**
+     * @return expected length of a rendered text, to size the buffers
+     */
+    public int getLengthHint() {
+        return lengthHint;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import Utilities.MessageTemplate;
+import Utilities.QuartzReminder;
+import entities.Event;
+import entities.User;
+
+public class MessageTemplateTest {
+
+    private final Event event = new Event(7, "standup", "organizer", Instant.parse("2026-03-01T02:30:00Z"), 1,
+            Arrays.asList("name1"));
+    private final User user = new User("name1", "name1@test");
+
+    @Test
+    public void testRenderInRecipientZone() {
+        MessageTemplate template = MessageTemplate.compile("Hi {username}, {event} (#{eventID}) at {start:dd/MM HH:mm}", Locale.ENGLISH);
+        assertEquals("Hi name1, standup (#7) at 01/03 09:30", template.render(user, event, ZoneId.of("Asia/Ho_Chi_Minh")));
+        assertEquals("Hi name1, standup (#7) at 28/02 21:30", template.render(user, event, ZoneId.of("America/New_York")));
+
+        StringBuilder buffer = new StringBuilder();
+        assertSame(buffer, template.renderTo(buffer, user, event, ZoneId.of("UTC")));
+        assertEquals("Hi name1, standup (#7) at 01/03 02:30", buffer.toString());
+    }
+
+    @Test
+    public void testInvalidTemplatesFailWhenCompiled() {
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("{unknown}", Locale.ENGLISH));
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("{event", Locale.ENGLISH));
+        assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile("{start:qqqqqq}", Locale.ENGLISH));
+    }
+
+    @Test
+    public void testFormatInstantUsesTheInstant() {
+        assertEquals("01/03/2026 09:30", QuartzReminder.formatInstant(event.date, "Asia/Ho_Chi_Minh", "dd/MM/yyyy HH:mm"));
+        Instant noon = Instant.parse("2026-03-01T05:00:00Z");
+        assertEquals("12:00 NOON", QuartzReminder.formatInstant(noon, "Asia/Ho_Chi_Minh", "hh:mm a"));
+    }
+}
@@ -0,0 +1,272 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the participants of a very large event into fixed-size chunks delivered in parallel.
+ *
+ * <p>
+ * Above <code>threshold</code> participants, the list is cut into chunks of <code>chunkSize</code> and up to
+ * <code>parallelism</code> virtual threads take chunks until none is left, so the delivery of a 50,000 participant
+ * event takes about <code>participants / (chunkSize * parallelism)</code> chunk times instead of one pass over the
+ * whole list. A failing chunk is retried up to <code>maxAttempts</code> times with a doubling delay, on its own,
+ * without repeating the chunks already done nor the participants of the chunk already handed over. The {@link Progress} of every running fan-out can be watched through
+ * {@link #getActive()}.
+ * </p>
+ *
+ * <pre>
+ *      reminder.fanout.threshold = 1000
+ *      reminder.fanout.chunkSize = 500
+ *      reminder.fanout.parallelism = 8
+ *      reminder.fanout.maxAttempts = 3
+ *      reminder.fanout.retryDelayMillis = 200
+ * </pre>
+ *
+ * @see EventReminderJob#remindParticipants
+ */
+public class ParticipantFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParticipantFanOut.class);
+
+    /**
+     * delivers the reminders of one chunk of participants, in order, calling <code>handedOver</code> after each
+     * participant so that a retry starts after the last one
+     */
+    public interface ChunkHandler {
+        void handle(List<String> chunk, Runnable handedOver) throws Exception;
+    }
+
+    /** initial state of a chunk */
+    private static final int PENDING = 0;
+    private static final int DONE = 1;
+    private static final int FAILED = 2;
+
+    private final int threshold;
+    private final int chunkSize;
+    private final int parallelism;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("participant-fan-out-", 0).factory());
+    private final Map<Integer, Progress> active = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Constructor</p>
+     * @param threshold number of participants above which an event is partitioned
+     * @param chunkSize participants per chunk
+     * @param parallelism chunks of one event delivered at the same time
+     * @param maxAttempts attempts per chunk
+     * @param retryDelayMillis delay before the second attempt of a chunk, doubled for every further one
+     */
+    public ParticipantFanOut(int threshold, int chunkSize, int parallelism, int maxAttempts, long retryDelayMillis) {
+        if (chunkSize <= 0 || parallelism <= 0 || maxAttempts <= 0)
+            throw new IllegalArgumentException("chunkSize, parallelism and maxAttempts must be > 0");
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * @param properties
+     * @return the fan-out configured by the <code>reminder.fanout.*</code> settings
+     */
+    public static ParticipantFanOut fromProperties(Properties properties) {
+        return new ParticipantFanOut(
+                MailDispatcher.intProperty(properties, "reminder.fanout.threshold", 1000),
+                MailDispatcher.intProperty(properties, "reminder.fanout.chunkSize", 500),
+                MailDispatcher.intProperty(properties, "reminder.fanout.parallelism", 8),
+                MailDispatcher.intProperty(properties, "reminder.fanout.maxAttempts", 3),
+                MailDispatcher.intProperty(properties, "reminder.fanout.retryDelayMillis", 200));
+    }
+
+    /**
+     * @param participants
+     * @return true if an event with that many participants is partitioned
+     */
+    public boolean isPartitioned(int participants) {
+        return participants > threshold;
+    }
+
+    /**
+     * <p>Delivers the participants chunk by chunk in parallel and waits until every chunk is done or failed for
+     * good.</p>
+     *
+     * @param eventID
+     * @param participants
+     * @param handler
+     * @return the outcome of every chunk
+     * @throws InterruptedException
+     */
+    public Progress run(int eventID, List<String> participants, ChunkHandler handler) throws InterruptedException {
+        List<List<String>> chunks = new ArrayList<>(participants.size() / chunkSize + 1);
+        for (int from = 0; from < participants.size(); from += chunkSize) {
+            chunks.add(participants.subList(from, Math.min(from + chunkSize, participants.size())));
+        }
+        Progress progress = new Progress(eventID, chunks);
+        active.put(eventID, progress);
+        try {
+            int workers = Math.min(parallelism, chunks.size());
+            CountDownLatch finished = new CountDownLatch(workers);
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> {
+                    try {
+                        int chunk;
+                        while ((chunk = progress.next.getAndIncrement()) < chunks.size()) {
+                            deliver(progress, chunk, handler);
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            finished.await();
+        } finally {
+            active.remove(eventID, progress);
+        }
+        if (progress.getFailedCount() > 0)
+            logger.error("event {}: {} of {} chunks failed", eventID, progress.getFailedCount(), chunks.size());
+        else
+            logger.info("event {}: {} participants delivered in {} chunks", eventID, participants.size(), chunks.size());
+        return progress;
+    }
+
+    private void deliver(Progress progress, int chunk, ChunkHandler handler) {
+        long delay = retryDelayMillis;
+        for (int attempt = 1; ; attempt++) {
+            progress.attempts.incrementAndGet(chunk);
+            try {
+                handler.handle(progress.owed(chunk), () -> progress.handed.incrementAndGet(chunk));
+                progress.states.set(chunk, DONE);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    logger.error("event {}: chunk {} failed after {} attempts", progress.eventID, chunk, attempt, e);
+                    progress.states.set(chunk, FAILED);
+                    return;
+                }
+                logger.warn("event {}: chunk {} failed, attempt {} of {}", progress.eventID, chunk, attempt, maxAttempts, e);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                progress.states.set(chunk, FAILED);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay *= 2;
+        }
+    }
+
+    /**
+     * <p>Waits for the running fan-outs and stops the chunk threads.</p>
+     */
+    public void shutdown() {
+        executor.close();
+    }
+
+    /**
+     * @return progress of the fan-outs running now
+     */
+    public Collection<Progress> getActive() {
+        return Collections.unmodifiableCollection(active.values());
+    }
+
+    /**
+     * progress of the fan-out of one event, updated while the chunks are delivered
+     */
+    public static final class Progress {
+        private final int eventID;
+        private final List<List<String>> chunks;
+        private final AtomicIntegerArray states;
+        private final AtomicIntegerArray attempts;
+        /** participants handed over per chunk, the first ones of the chunk */
+        private final AtomicIntegerArray handed;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Progress(int eventID, List<List<String>> chunks) {
+            this.eventID = eventID;
+            this.chunks = chunks;
+            this.states = new AtomicIntegerArray(chunks.size());
+            this.attempts = new AtomicIntegerArray(chunks.size());
+            this.handed = new AtomicIntegerArray(chunks.size());
+        }
+
+        private List<String> owed(int chunk) {
+            List<String> participants = chunks.get(chunk);
+            return participants.subList(Math.min(handed.get(chunk), participants.size()), participants.size());
+        }
+
+        public int getEventID() {
+            return eventID;
+        }
+
+        public int getChunkCount() {
+            return chunks.size();
+        }
+
+        /**
+         * @return chunks delivered
+         */
+        public int getDoneCount() {
+            return count(DONE);
+        }
+
+        /**
+         * @return chunks given up after the last attempt
+         */
+        public int getFailedCount() {
+            return count(FAILED);
+        }
+
+        /**
+         * @param chunk
+         * @return attempts made for the chunk so far
+         */
+        public int getAttempts(int chunk) {
+            return attempts.get(chunk);
+        }
+
+        /**
+         * @return the participants of the failed chunks not handed over
+         */
+        public List<String> getFailedParticipants() {
+            List<String> failed = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                if (states.get(i) == FAILED)
+                    failed.addAll(owed(i));
+            }
+            return failed;
+        }
+
+        private int count(int state) {
+            int count = 0;
+            for (int i = 0; i < states.length(); i++) {
+                if (states.get(i) == state)
+                    count++;
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress[event " + eventID + ": " + getDoneCount() + " done, " + getFailedCount() + " failed of "
+                    + chunks.size() + " chunks]";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import Utilities.ParticipantFanOut;
+
+public class ParticipantFanOutTest {
+
+    @Test
+    public void testChunksRunInParallelAndFailedChunksAreRetried() throws Exception {
+        List<String> participants = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            participants.add("user" + i);
+        }
+        ParticipantFanOut fanOut = new ParticipantFanOut(1000, 500, 8, 3, 10);
+        assertTrue(fanOut.isPartitioned(participants.size()));
+        assertFalse(fanOut.isPartitioned(1000));
+
+        Set<String> reminded = ConcurrentHashMap.newKeySet();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        ParticipantFanOut.Progress progress = fanOut.run(1, participants, (chunk, handedOver) -> {
+            threads.add(Thread.currentThread());
+            if (chunk.contains("user5000") && failedOnce.compareAndSet(false, true))
+                throw new IllegalStateException("repository timeout");
+            Thread.sleep(20);
+            reminded.addAll(chunk);
+        });
+
+        assertEquals(20, progress.getChunkCount());
+        assertEquals(20, progress.getDoneCount());
+        assertEquals(0, progress.getFailedCount());
+        assertEquals(2, progress.getAttempts(10));
+        assertEquals(1, progress.getAttempts(0));
+        assertEquals(10_000, reminded.size());
+        assertTrue(threads.size() > 1);
+        assertTrue(fanOut.getActive().isEmpty());
+    }
+
+    @Test
+    public void testChunkFailingEveryAttemptIsReported() throws Exception {
+        List<String> participants = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            participants.add("user" + i);
+        }
+        ParticipantFanOut fanOut = new ParticipantFanOut(10, 10, 2, 2, 1);
+        ParticipantFanOut.Progress progress = fanOut.run(2, participants, (chunk, handedOver) -> {
+            if (chunk.contains("user0"))
+                throw new IllegalStateException("down");
+        });
+
+        assertEquals(2, progress.getDoneCount());
+        assertEquals(1, progress.getFailedCount());
+        assertEquals(2, progress.getAttempts(0));
+        assertEquals(participants.subList(0, 10), progress.getFailedParticipants());
+    }
+
+    @Test
+    public void testRetryResumesAfterTheParticipantsHandedOver() throws Exception {
+        List<String> participants = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            participants.add("user" + i);
+        }
+        ParticipantFanOut fanOut = new ParticipantFanOut(10, 10, 2, 2, 1);
+        List<String> reminded = Collections.synchronizedList(new ArrayList<>());
+        // the first chunk breaks at user4 on every attempt, the second one at user14 once
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        ParticipantFanOut.Progress progress = fanOut.run(3, participants, (chunk, handedOver) -> {
+            for (String name : chunk) {
+                if (name.equals("user4") || (name.equals("user14") && failedOnce.compareAndSet(false, true)))
+                    throw new IllegalStateException("mail queue broken");
+                reminded.add(name);
+                handedOver.run();
+            }
+        });
+
+        assertEquals(2, progress.getDoneCount());
+        assertEquals(1, progress.getFailedCount());
+        assertEquals(2, progress.getAttempts(1));
+        assertEquals(participants.subList(4, 10), progress.getFailedParticipants());
+        // nobody is reminded twice
+        assertEquals(4 + 20, reminded.size());
+        assertEquals(reminded.size(), Set.copyOf(reminded).size());
+    }
+}
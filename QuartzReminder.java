@@ -2,20 +2,33 @@ package Utilities;
 
 import org.quartz.Trigger;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cronutils.builder.CronBuilder;
 import com.cronutils.model.Cron;
 import com.cronutils.model.definition.CronDefinition;
 import com.cronutils.model.definition.CronDefinitionBuilder;
 import com.cronutils.model.field.expression.FieldExpressionFactory;
-import com.cronutils.model.field.value.SpecialChar;
 
 import static com.cronutils.model.field.expression.FieldExpressionFactory.*;
 
@@ -23,6 +36,10 @@ import org.quartz.CronScheduleBuilder;
 import org.quartz.JobBuilder;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.ObjectAlreadyExistsException;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SchedulerFactory;
@@ -31,12 +48,17 @@ import org.quartz.SimpleScheduleBuilder;
 import org.quartz.TriggerBuilder;
 import org.quartz.TriggerKey;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.quartz.listeners.SchedulerListenerSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ReminderAPI.Reminder;
+import ReminderAPI.ReminderHandle;
 import entities.Event;
 import entities.User;
+import repositories.CachingDataRepository;
 import repositories.DataRepository;
 
 public class QuartzReminder implements Reminder {
@@ -51,8 +73,33 @@ public class QuartzReminder implements Reminder {
      * @see QuartzReminder
      */
     private static final Logger logger = LoggerFactory.getLogger(QuartzReminder.class);
+
+    /**
+     * Job group holding the one durable reminder job of every event, see {@link #buildJobKey(int)}.
+     */
+    public static final String EVENT_GROUP = "events";
+
+    /**
+     * Trigger group holding the offset-keyed reminder triggers, see {@link #buildTriggerKey(int, Duration)}.
+     */
+    public static final String REMINDER_GROUP = "eventReminders";
+
+    /**
+     * Trigger priority of the reminders fired an hour or less before the event, see {@link #priorityOf(Duration)}.
+     */
+    public static final int PRIORITY_URGENT = 9;
+
+    /**
+     * Trigger priority of the reminders fired a day or less before the event.
+     */
+    public static final int PRIORITY_NEAR = 7;
     
-    SchedulerFactory schedulerFactory = new StdSchedulerFactory("src/main/resources/quartz.properties");  
+    /**
+     * Configuration of the scheduler, also read by {@link ReminderFactory} to pick the reminder engine.
+     */
+    public static final String CONFIG_FILE = "src/main/resources/quartz.properties";
+
+    SchedulerFactory schedulerFactory;
     private Scheduler scheduler;
 
     /**
@@ -61,6 +108,46 @@ public class QuartzReminder implements Reminder {
      * @see DataRepository
      */
     private DataRepository repo; // instantiate this at constructor
+
+    /**
+     * pending handles of {@link #sendMail(int)} by trigger key
+     */
+    private final Map<TriggerKey, QuartzReminderHandle> handles = new ConcurrentHashMap<>();
+
+    /**
+     * fire lag, execution time and misfires of this scheduler, published over JMX
+     */
+    private ReminderMetrics metrics;
+
+    /**
+     * trigger keys by event ID, kept up to date by the scheduler listener callbacks
+     */
+    private final EventTriggerIndex index = new EventTriggerIndex();
+
+    /**
+     * whether other nodes share the job store, then only the store knows all triggers of an event
+     */
+    private boolean clustered;
+
+    /**
+     * pending offset reminders kept across restarts of an in-memory job store, null if not configured
+     */
+    private ReminderJournal journal;
+
+    /**
+     * write-ahead log the jobs record the owed mails in, null if not configured
+     */
+    private MailOutbox outbox;
+
+    /**
+     * gathers the reminders fired close together into one execution, null if not configured
+     */
+    private ReminderBatcher batcher;
+
+    /**
+     * dispatcher, templates, coalescer and fan-out built from the configuration of this scheduler
+     */
+    private MailStage mail;
     
     /**
      * <p>Constructor</p>
@@ -68,20 +155,131 @@ public class QuartzReminder implements Reminder {
      * @throws Exception
      */
     public QuartzReminder(DataRepository repo) throws Exception {
+        this(repo, CONFIG_FILE);
+    }
+
+    /**
+     * <p>Constructor using another Quartz configuration, e.g. the clustered JDBC job store of
+     * {@code quartz-cluster.properties}.</p>
+     * 
+     * <p>The repository is never stored with the jobs, a {@link ReminderJobFactory} hands it and the
+     * {@link MailStage} built from the same file to every job fired on this node. Reminders fired late go through the {@link CatchUpPolicy}
+     * configured in the same file.</p>
+     * 
+     * <p>With an in-memory job store and <code>reminder.journal.file</code> set, the reminders pending
+     * in the {@link ReminderJournal} are scheduled again before the scheduler starts. With
+     * <code>reminder.outbox.file</code> set, the jobs record the mails they owe in a {@link MailOutbox}. With
+     * <code>reminder.batch.windowMillis</code> set, the reminders fired close together are executed as one batch
+     * by a {@link ReminderBatcher}.</p>
+     * 
+     * @param repo
+     * @param configFile Quartz properties file
+     * @throws Exception
+     */
+    public QuartzReminder(DataRepository repo, String configFile) throws Exception {
         if(repo == null)
             throw new Exception("no reop");
         this.repo = repo;
+        ReminderFlightEvents.register();
+        schedulerFactory = new StdSchedulerFactory(configFile);
         scheduler= schedulerFactory.getScheduler();
+        Properties properties = ReminderFactory.loadProperties(configFile);
+        mail = MailStage.fromProperties(properties);
+        String outboxFile = properties.getProperty("reminder.outbox.file");
+        if (outboxFile != null) {
+            outbox = new MailOutbox(Paths.get(outboxFile.trim()), repo, mail.getDigest(),
+                    Long.parseLong(properties.getProperty("reminder.outbox.syncMillis", "10").trim()),
+                    Duration.ofHours(Long.parseLong(properties.getProperty("reminder.outbox.retentionHours", "168").trim())).toMillis());
+        }
+        long batchWindow = Long.parseLong(properties.getProperty("reminder.batch.windowMillis", "0").trim());
+        if (batchWindow > 0)
+            batcher = new ReminderBatcher(repo, outbox, mail, batchWindow,
+                    Integer.parseInt(properties.getProperty("reminder.batch.maxAttempts", "3").trim()));
+        scheduler.setJobFactory(new ReminderJobFactory(repo, mail, outbox, batcher));
+        scheduler.getListenerManager().addJobListener(new HandleCompletionListener());
+        scheduler.getListenerManager().addTriggerListener(CatchUpPolicy.fromProperties(properties));
+        scheduler.getListenerManager().addSchedulerListener(index);
+        metrics = ReminderMetrics.install(scheduler, mail.getDispatcher());
+        SchedulerMetaData metaData = scheduler.getMetaData();
+        clustered = metaData.isJobStoreClustered();
+        if (metaData.isJobStoreSupportsPersistence() && !clustered)
+            loadIndex();
+        String journalFile = properties.getProperty("reminder.journal.file");
+        if (journalFile != null && !metaData.isJobStoreSupportsPersistence()) {
+            journal = new ReminderJournal(Paths.get(journalFile.trim()),
+                    Integer.parseInt(properties.getProperty("reminder.journal.initialBytes", "1048576").trim()));
+            restoreFromJournal();
+            scheduler.getListenerManager().addSchedulerListener(new JournalListener());
+        }
         scheduler.start();
 
     }
 
+    /**
+     * <p>Fills the index with the triggers left in a persistent job store by a previous run.</p>
+     * 
+     * @throws SchedulerException
+     */
+    private void loadIndex() throws SchedulerException {
+        for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.jobGroupEquals(EVENT_GROUP))) {
+            for (Trigger trigger : scheduler.getTriggersOfJob(jobKey)) {
+                index.jobScheduled(trigger);
+            }
+        }
+    }
+
+    /**
+     * <p>Schedules the reminders pending in the journal with one {@link Scheduler#scheduleJobs(Map, boolean)} call
+     * and compacts it. Reminders whose time passed while the node was down fire right away, subject to the
+     * {@link CatchUpPolicy}.</p>
+     * 
+     * @throws Exception
+     */
+    private void restoreFromJournal() throws Exception {
+        Map<Integer, Set<Trigger>> triggers = new HashMap<>();
+        int pending = journal.forEachPending((eventID, offsetSeconds, fireAtMillis) ->
+                triggers.computeIfAbsent(eventID, id -> new HashSet<>()).add(buildJobTrigger(buildJobKey(eventID),
+                        Instant.ofEpochMilli(fireAtMillis), Duration.ofSeconds(offsetSeconds))));
+        Map<JobDetail, Set<? extends Trigger>> batch = new HashMap<>(triggers.size() * 4 / 3 + 1);
+        for (Map.Entry<Integer, Set<Trigger>> e : triggers.entrySet()) {
+            batch.put(buildJobDetail(e.getKey()), e.getValue());
+        }
+        if (!batch.isEmpty())
+            scheduler.scheduleJobs(batch, true);
+        journal.compact();
+        logger.info("{} pending reminders of {} events restored from the journal", pending, batch.size());
+    }
+
     /**
      * <p>Using for shutting down scheduler</p>
+     * 
+     * <p>The running jobs finish first, then the batcher executes what it holds, the outbox stops handing entries
+     * over and the mail stage sends what it was given. The journal and the outbox are closed last, so every mail
+     * sent is also marked delivered.</p>
      * @throws SchedulerException
      */
+    @Override
     public void shutdown() throws SchedulerException {
         scheduler.shutdown(true);
+        metrics.unregister();
+        if (batcher != null)
+            batcher.shutdown();
+        if (outbox != null)
+            outbox.stopDelivery();
+        try {
+            mail.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchedulerException("interrupted while sending the queued reminders", e);
+        }
+        try {
+            if (journal != null)
+                journal.close();
+            if (outbox != null)
+                outbox.close();
+        } catch (IOException e) {
+            throw new SchedulerException("could not close the reminder journal or outbox", e);
+        }
     }
 
     /**
@@ -94,26 +292,315 @@ public class QuartzReminder implements Reminder {
     public void sendNotification(int eid, Instant startAt) throws SchedulerException {
         // collect all user that needs to be sent a reminder
         // only an outline
-        scheduler = getScheduler();
+        JobKey jobKey = storeJobIfAbsent(eid);
+        Trigger trigger = buildJobTrigger(jobKey, startAt);
+        scheduleOrReplace(trigger);
+        logger.debug("job of event {} scheduled at {}", eid, startAt);
+    }
 
-        JobDetail jobDetail = buildJobDetail(eid);
-        Trigger trigger = buildJobTrigger(jobDetail, startAt);
-        scheduler.scheduleJob(jobDetail, trigger);
-        logger.error("job scheduled");
-    
-        // try {
-        //     // run for 292 billion years
-        //     Thread.sleep(Long.MAX_VALUE);
-        //     // executing...
-        // } catch(Exception e) {
-        //     logger.info("Interrupted");
-        //     Thread.currentThread().interrupt();
-        //     e.printStackTrace();
-        // }
-        // logger.info("Sleep finished");
+    /**
+     * <p>Adds the reminder fired {@code offset} before the event to the event's job.</p>
+     * 
+     * <p>Every event owns exactly one durable {@link JobDetail}; each offset only adds a trigger to it.
+     * Adding an offset that is already scheduled moves its trigger to the current {@code Event.date}
+     * instead of failing with an already-exists error.</p>
+     * 
+     * @param event
+     * @param offset how long before {@code Event.date} the reminder fires
+     * @return the fire time of the reminder
+     * @throws SchedulerException
+     */
+    public Instant sendNotification(Event event, Duration offset) throws SchedulerException {
+        ReminderFlightEvents.Scheduled scheduled = new ReminderFlightEvents.Scheduled();
+        scheduled.begin();
+        Instant startAt = Instant.from(event.date).minus(offset);
+        JobKey jobKey = storeJobIfAbsent(event.eventID);
+        scheduleOrReplace(buildJobTrigger(jobKey, startAt, offset));
+        scheduled.end();
+        if (scheduled.shouldCommit()) {
+            scheduled.eventID = event.eventID;
+            scheduled.offset = offset.getSeconds();
+            scheduled.participants = event.participantsList.size();
+            scheduled.commit();
+        }
+        return startAt;
+    }
+
+    /**
+     * <p>Removes the reminder fired {@code offset} before the event, leaving its other offsets untouched.</p>
+     * 
+     * <p>The durable job of the event stays stored so that offsets can be added back later.</p>
+     * 
+     * @param eventID
+     * @param offset
+     * @return true if such a reminder was scheduled
+     * @throws SchedulerException
+     */
+    public boolean removeNotification(int eventID, Duration offset) throws SchedulerException {
+        return scheduler.unscheduleJob(buildTriggerKey(eventID, offset));
+    }
+
+    /**
+     * <p>Stores the durable job of the event unless it is already there.</p>
+     * 
+     * @param eventID
+     * @return the key of the event's job
+     * @throws SchedulerException
+     */
+    private JobKey storeJobIfAbsent(int eventID) throws SchedulerException {
+        JobKey jobKey = buildJobKey(eventID);
+        if (!scheduler.checkExists(jobKey)) {
+            try {
+                scheduler.addJob(buildJobDetail(eventID), false);
+            } catch (ObjectAlreadyExistsException e) {
+                // stored concurrently by another caller, which is just as good
+            }
+        }
+        return jobKey;
+    }
+
+    /**
+     * <p>Schedules the trigger, or replaces the one already stored under its key.</p>
+     * 
+     * @param trigger
+     * @throws SchedulerException
+     */
+    private void scheduleOrReplace(Trigger trigger) throws SchedulerException {
+        if (scheduler.rescheduleJob(trigger.getKey(), trigger) == null) {
+            scheduler.scheduleJob(trigger);
+        }
+    }
+
+    /**
+     * <p>Bulk variant of {@link #sendNotification(int, Instant)}, used when importing a whole calendar.</p>
+     * 
+     * <p>Every {@link JobDetail} and {@link Trigger} of the batch is built up front, one job per event and
+     * one trigger per offset, and the batch is handed to the scheduler with a single
+     * {@link Scheduler#scheduleJobs(Map, boolean)} call instead of one round trip per reminder.
+     * Offsets whose fire time has already passed are skipped. Existing jobs and triggers with the
+     * same identity are replaced, so importing the same calendar twice is harmless.</p>
+     * 
+     * @param events events to remind the participants of
+     * @param offsets how long before {@code Event.date} each reminder fires
+     * @return the fire times scheduled per event ID, empty for events with nothing left to schedule
+     * @throws SchedulerException
+     */
+    public Map<Integer, List<Instant>> sendNotifications(Collection<Event> events, Collection<Duration> offsets) throws SchedulerException {
+        Instant now = Instant.now();
+        Map<JobDetail, Set<? extends Trigger>> batch = new HashMap<>(events.size() * 4 / 3 + 1);
+        Map<Integer, List<Instant>> results = new LinkedHashMap<>(events.size() * 4 / 3 + 1);
+
+        for (Event event : events) {
+            List<Instant> fireTimes = new ArrayList<>(offsets.size());
+            results.put(event.eventID, fireTimes);
+            if (event.date == null)
+                continue;
+
+            JobDetail jobDetail = buildJobDetail(event.eventID);
+            Set<Trigger> triggers = new HashSet<>(offsets.size() * 4 / 3 + 1);
+            for (Duration offset : offsets) {
+                Instant fireAt = Instant.from(event.date).minus(offset);
+                if (fireAt.isBefore(now))
+                    continue;
+                triggers.add(buildJobTrigger(jobDetail.getKey(), fireAt, offset));
+                fireTimes.add(fireAt);
+            }
+            if (!triggers.isEmpty())
+                batch.put(jobDetail, triggers);
+        }
+
+        if (!batch.isEmpty()) {
+            scheduler.scheduleJobs(batch, true);
+        }
+        logger.info("{} events scheduled in one batch", batch.size());
+        return results;
+    }
+
+    /**
+     * <p>Helper function for the keys of every reminder trigger of the event.</p>
+     * 
+     * <p>Answered from the in-process index in O(number of offsets). With a clustered job store, where other
+     * nodes schedule too, the triggers of the event's job are read from the store instead.</p>
+     * 
+     * @param eventID
+     * @return the trigger keys, empty if nothing is scheduled for the event
+     * @throws SchedulerException
+     */
+    public List<TriggerKey> getTriggerKeys(int eventID) throws SchedulerException {
+        if (!clustered)
+            return Arrays.asList(index.get(eventID));
+        List<? extends Trigger> triggers = scheduler.getTriggersOfJob(buildJobKey(eventID));
+        List<TriggerKey> keys = new ArrayList<>(triggers.size());
+        for (Trigger trigger : triggers) {
+            keys.add(trigger.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * <p>Cancels every reminder of the event: all offsets, the {@link #sendMail(int)} reminder and pending
+     * catch-up fires. Handles of {@link #sendMail(int)} become cancelled.</p>
+     * 
+     * <p>The durable job of the event stays stored so that reminders can be added back later.</p>
+     * 
+     * @param eventID
+     * @return number of reminders cancelled
+     * @throws SchedulerException
+     */
+    public int cancelEvent(int eventID) throws SchedulerException {
+        return cancelEvents(Collections.singletonList(eventID));
+    }
+
+    /**
+     * <p>Bulk variant of {@link #cancelEvent(int)}, unscheduling the reminders of all events with one
+     * {@link Scheduler#unscheduleJobs(List)} call.</p>
+     * 
+     * @param eventIDs
+     * @return number of reminders cancelled
+     * @throws SchedulerException
+     */
+    public int cancelEvents(Collection<Integer> eventIDs) throws SchedulerException {
+        List<TriggerKey> keys = new ArrayList<>(eventIDs.size() * 4);
+        for (int eventID : eventIDs) {
+            invalidate(eventID);
+            keys.addAll(getTriggerKeys(eventID));
+        }
+        if (keys.isEmpty())
+            return 0;
+        scheduler.unscheduleJobs(keys);
+        for (TriggerKey key : keys) {
+            QuartzReminderHandle handle = handles.remove(key);
+            if (handle != null)
+                handle.markCancelled();
+        }
+        logger.info("{} reminders of {} events cancelled", keys.size(), eventIDs.size());
+        return keys.size();
+    }
 
-        // scheduler.shutdown(true);
-    }   
+    /**
+     * <p>Drops the event from a {@link CachingDataRepository}, whoever cancels or moves its reminders changed it.</p>
+     * 
+     * @param eventID
+     */
+    private void invalidate(int eventID) {
+        if (repo instanceof CachingDataRepository)
+            ((CachingDataRepository) repo).invalidateEvent(eventID);
+    }
+
+    /**
+     * <p>Moves every reminder of the event to its current {@code Event.date}, keeping the offsets.</p>
+     * 
+     * <p>Offsets whose new fire time has already passed are removed, as are pending catch-up fires, which
+     * belonged to the old date. The {@link #sendMail(int)} reminder moves to the new date. Triggers scheduled
+     * for a fixed instant by {@link #sendNotification(int, Instant)} are not tied to the date and stay.</p>
+     * 
+     * @param event the event with its new date
+     * @return the new fire times
+     * @throws SchedulerException
+     */
+    public List<Instant> rescheduleEvent(Event event) throws SchedulerException {
+        return rescheduleEvents(Collections.singletonList(event)).get(event.eventID);
+    }
+
+    /**
+     * <p>Bulk variant of {@link #rescheduleEvent(Event)}. All moved triggers are stored with one
+     * {@link Scheduler#scheduleJobs(Map, boolean)} call and all dropped ones removed with one
+     * {@link Scheduler#unscheduleJobs(List)} call.</p>
+     * 
+     * @param events the events with their new dates
+     * @return the new fire times per event ID
+     * @throws SchedulerException
+     */
+    public Map<Integer, List<Instant>> rescheduleEvents(Collection<Event> events) throws SchedulerException {
+        Instant now = Instant.now();
+        Map<JobDetail, Set<? extends Trigger>> batch = new HashMap<>(events.size() * 4 / 3 + 1);
+        Map<Integer, List<Instant>> results = new LinkedHashMap<>(events.size() * 4 / 3 + 1);
+        List<TriggerKey> dropped = new ArrayList<>();
+
+        for (Event event : events) {
+            invalidate(event.eventID);
+            List<TriggerKey> keys = getTriggerKeys(event.eventID);
+            List<Instant> fireTimes = new ArrayList<>(keys.size());
+            results.put(event.eventID, fireTimes);
+            if (keys.isEmpty())
+                continue;
+
+            Instant start = Instant.from(event.date);
+            JobKey jobKey = buildJobKey(event.eventID);
+            Set<Trigger> triggers = new HashSet<>(keys.size() * 4 / 3 + 1);
+            for (TriggerKey key : keys) {
+                if (key.equals(buildCronTriggerKey(event.eventID))) {
+                    if (start.isBefore(now)) {
+                        dropped.add(key);
+                        continue;
+                    }
+                    try {
+                        triggers.add(buildJobTrigger(jobKey, CronBuilder(start)));
+                        fireTimes.add(start);
+                    } catch (Exception e) {
+                        throw new SchedulerException("could not move the reminder of event " + event.eventID, e);
+                    }
+                    continue;
+                }
+                Duration offset = offsetOf(key);
+                if (offset == null) {
+                    if (key.getName().endsWith(CatchUpPolicy.CATCH_UP_SUFFIX))
+                        dropped.add(key);
+                    continue;
+                }
+                Instant fireAt = start.minus(offset);
+                if (fireAt.isBefore(now)) {
+                    dropped.add(key);
+                    continue;
+                }
+                triggers.add(buildJobTrigger(jobKey, fireAt, offset));
+                fireTimes.add(fireAt);
+            }
+            if (!triggers.isEmpty())
+                batch.put(buildJobDetail(event.eventID), triggers);
+        }
+
+        if (!dropped.isEmpty())
+            scheduler.unscheduleJobs(dropped);
+        if (!batch.isEmpty())
+            scheduler.scheduleJobs(batch, true);
+        logger.info("{} events rescheduled, {} reminders dropped", batch.size(), dropped.size());
+        return results;
+    }
+
+    /**
+     * @param key
+     * @return the offset of a key built by {@link #buildTriggerKey(int, Duration)}, null for any other key
+     */
+    static Duration offsetOf(TriggerKey key) {
+        if (!REMINDER_GROUP.equals(key.getGroup()))
+            return null;
+        String name = key.getName();
+        int dash = name.indexOf('-');
+        if (dash <= 0 || dash == name.length() - 1)
+            return null;
+        for (int i = dash + 1; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9')
+                return null;
+        }
+        return Duration.ofSeconds(Long.parseLong(name.substring(dash + 1)));
+    }
+
+    /**
+     * <p>The closer to the event a reminder fires, the less it may slip, so its trigger gets a higher priority
+     * and with <code>org.quartz.jobStore.lanes</code> the threads reserved for that priority.</p>
+     *
+     * @param offset how long before the event the reminder fires
+     * @return {@link #PRIORITY_URGENT} up to an hour, {@link #PRIORITY_NEAR} up to a day, the default priority
+     *         beyond
+     */
+    static int priorityOf(Duration offset) {
+        if (offset.compareTo(Duration.ofHours(1)) <= 0)
+            return PRIORITY_URGENT;
+        if (offset.compareTo(Duration.ofDays(1)) <= 0)
+            return PRIORITY_NEAR;
+        return Trigger.DEFAULT_PRIORITY;
+    }
 
     /**
      * <p>helper function for unscheduling the running event.</p>
@@ -121,7 +608,10 @@ public class QuartzReminder implements Reminder {
      * @param scheduler
      * @return void
      * @throws SchedulerException
+     * @deprecated always unschedules the fixed key <code>myTrigger</code>/<code>myTriggerGroup</code>, which no
+     *             reminder uses; use {@link #cancelEvent(int)} or {@link #removeNotification(int, Duration)}
      */
+    @Deprecated
     public boolean UnScheduler(Scheduler scheduler) throws SchedulerException {
         return scheduler.unscheduleJob(buildTriggerKey("myTrigger", "myTriggerGroup"));
     }
@@ -137,6 +627,37 @@ public class QuartzReminder implements Reminder {
         return TriggerKey.triggerKey(myTrigger, myTriggerGroup);
     }
 
+    /**
+     * <p>Helper function for building the key of the durable job shared by all reminders of an event.</p>
+     * 
+     * @param eventID
+     * @return the job key
+     */
+    public JobKey buildJobKey(int eventID) {
+        return JobKey.jobKey(Integer.toString(eventID), EVENT_GROUP);
+    }
+
+    /**
+     * <p>Helper function for building the key of the reminder trigger fired {@code offset} before the event.</p>
+     * 
+     * @param eventID
+     * @param offset
+     * @return the trigger key, unique per event and offset
+     */
+    public TriggerKey buildTriggerKey(int eventID, Duration offset) {
+        return TriggerKey.triggerKey(eventID + "-" + offset.getSeconds(), REMINDER_GROUP);
+    }
+
+    /**
+     * <p>Helper function for building the key of the trigger scheduled by {@link #sendMail(int)}.</p>
+     * 
+     * @param eventID
+     * @return the trigger key
+     */
+    public TriggerKey buildCronTriggerKey(int eventID) {
+        return TriggerKey.triggerKey(Integer.toString(eventID), "group2");
+    }
+
     /**
      * <p>Implemented function on the basis of the job builder and the job data map between the key and assign the value for the job.
      *      {@link JobDataMap}
@@ -157,16 +678,15 @@ public class QuartzReminder implements Reminder {
 	 * @param 
 	 * @return JobDetail <code>{@link JobDetail}</code>.
      */
-    private JobDetail buildJobDetail(int eventID) {
+    JobDetail buildJobDetail(int eventID) {
         JobDataMap jobDataMap = new JobDataMap();
         jobDataMap.put(EventReminderJob.COUNT, 1);
         jobDataMap.put(EventReminderJob.EVENTNAME, "vc123");
-        jobDataMap.put(EventReminderJob.REPO_USED,repo);
         jobDataMap.put(EventReminderJob.EVENT_ID, eventID);
 
         return JobBuilder.newJob(EventReminderJob.class)
-            .withIdentity(((Integer)eventID).toString())
-            .requestRecovery(false)
+            .withIdentity(buildJobKey(eventID))
+            .requestRecovery(true)
             .withDescription("Send Email for Upcoming Event")
             .usingJobData(jobDataMap)
             .storeDurably()
@@ -180,20 +700,48 @@ public class QuartzReminder implements Reminder {
      * creator (if any).
      * </p>
      * 
-     * @see JobDetail <code>{@link JobDetail}</code>.
+     * <p>A reminder at a fixed time has no offset to the event, its priority is derived from the time left until
+     * it fires with {@link #priorityOf(Duration)}: one set up for the next hour is as urgent as a 5 minute
+     * reminder, one set up days ahead gets the default priority. The fire time is kept as
+     * {@link EventReminderJob#DUE_AT}, it tells the reminders of the same event apart in the outbox.</p>
+     * 
+     * @see JobKey <code>{@link JobKey}</code>.
      * @see Instant <code>{@link java.time.instant}</code>.
      * @return Trigger <code>{@link Trigger}</code>.
      */
-    private Trigger buildJobTrigger(JobDetail jobDetail, Instant startAt) {
+    Trigger buildJobTrigger(JobKey jobKey, Instant startAt) {
         return TriggerBuilder.newTrigger()
-                .forJob(jobDetail)
-                .withIdentity(jobDetail.getKey().getName(), "eventID?????")
+                .forJob(jobKey)
+                .withIdentity(jobKey.getName() + "@" + startAt.getEpochSecond(), REMINDER_GROUP)
                 .withDescription("Send Email Trigger")
+                .usingJobData(EventReminderJob.DUE_AT, startAt.toEpochMilli())
+                .withPriority(priorityOf(Duration.between(Instant.now(), startAt)))
                 .startAt(Date.from(Instant.from(startAt)))
                 .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
                 .build();
     }
 
+    /**
+     * <code>Trigger</code> firing {@code offset} before the event, keyed by {@link #buildTriggerKey(int, Duration)}
+     * so that several offsets of the same event never collide.
+     * 
+     * @see JobKey <code>{@link JobKey}</code>.
+     * @see Instant <code>{@link java.time.instant}</code>.
+     * @return Trigger <code>{@link Trigger}</code>.
+     */
+    Trigger buildJobTrigger(JobKey jobKey, Instant startAt, Duration offset) {
+        int eventID = Integer.parseInt(jobKey.getName());
+        return TriggerBuilder.newTrigger()
+                .forJob(jobKey)
+                .withIdentity(buildTriggerKey(eventID, offset))
+                .withDescription("Send Email Trigger")
+                .usingJobData(EventReminderJob.EVENT_START, startAt.plus(offset).toEpochMilli())
+                .withPriority(priorityOf(offset))
+                .startAt(Date.from(startAt))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+                .build();
+    }
+
     /**
      * <code>TriggerBuilder</code> is used to instantiate {@link Trigger}s.
      * <p>
@@ -202,22 +750,41 @@ public class QuartzReminder implements Reminder {
      * </p>
      * 
      * <pre>
-     *      Trigger trigger = buildJobTrigger(jobDetail, cron);
+     *      Trigger trigger = buildJobTrigger(jobKey, cron);
      * </pre>
      * 
-     * @see JobDetail <code>{@link JobDetail}</code>.
+     * @see JobKey <code>{@link JobKey}</code>.
      * @see Cron <code>{@link com.cronutils.model.Cron}</code>.
      * @return Trigger <code>{@link Trigger}</code>.
      */
-    private Trigger buildJobTrigger(JobDetail jobDetail, Cron cron) {
+    Trigger buildJobTrigger(JobKey jobKey, Cron cron) {
         return TriggerBuilder.newTrigger()
-                .forJob(jobDetail)
-                .withIdentity(jobDetail.getKey().getName(),"group2")
+                .forJob(jobKey)
+                .withIdentity(buildCronTriggerKey(Integer.parseInt(jobKey.getName())))
                 .withDescription("triggerDescription")
+                .withPriority(PRIORITY_URGENT)
                 .withSchedule(CronScheduleBuilder.cronSchedule(cron.asString()))
                 .build();
     }
 
+    /**
+     * <p>Helper function for reading the fire lag, execution time and misfire metrics of the scheduler.</p>
+     * 
+     * @return the metrics, also published over JMX
+     */
+    public ReminderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * <p>Helper function for reaching the mail side of the scheduler, e.g. to count the mails it sent.</p>
+     * 
+     * @return the mail stage given to the jobs
+     */
+    public MailStage getMailStage() {
+        return mail;
+    }
+
     /**
      * <p>Helper function for scheduler</p>
      * 
@@ -307,6 +874,8 @@ public class QuartzReminder implements Reminder {
      * <p>Note: a formatting pattern containing 'a' (for the period; AM/PM) is treated differently at noon/midday.
      * Using that pattern with a datetime whose time falls on "12:00 PM" will cause it to be formatted as "12:00 NOON".</p>
      *
+     * <p>Zone and formatter are cached, see {@link MessageTemplate} for whole reminder texts.</p>
+     *
      * @param instant  the instant to be formatted
      * @param timeZone the time zone to compute local datetime
      * @param pattern  formatting pattern, see Oracle docs for DateTimeFormatter for pattern table
@@ -316,13 +885,13 @@ public class QuartzReminder implements Reminder {
         if (instant == null || timeZone == null || pattern == null) {
             return "";
         }
-        ZonedDateTime zonedDateTime = getCurrentTimeByZoneId(timeZone);
+        ZoneId zone = DateFormats.zone(timeZone);
         String processedPattern = pattern;
-        if (zonedDateTime.getHour() == 12 && zonedDateTime.getMinute() == 0) {
+        int offset = zone.getRules().getOffset(instant).getTotalSeconds();
+        if (Math.floorMod(instant.getEpochSecond() + offset, 86400) / 60 == 12 * 60) {
             processedPattern = pattern.replace("a", "'NOON'");
         }
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(processedPattern);
-        return zonedDateTime.format(formatter);
+        return DateFormats.formatter(zone, processedPattern, Locale.getDefault(Locale.Category.FORMAT)).format(instant);
     }
 
     /**
@@ -335,7 +904,7 @@ public class QuartzReminder implements Reminder {
      * @return cron builder sample with the format is UTC is the time zone and also include some basic features that the time of the calendar should have.
      * @throws Exception
      */
-    private Cron CronBuilder(Instant starttime) throws Exception {
+    Cron CronBuilder(Instant starttime) throws Exception {
         
         ZonedDateTime reminder = starttime.atZone(ZoneId.of("UTC"));
         int year = reminder.getYear();
@@ -349,7 +918,7 @@ public class QuartzReminder implements Reminder {
 
         CronDefinition cronDefinition = defineOwnCronDefinition();
         return CronBuilder.cron(cronDefinition).withYear(FieldExpressionFactory.on(year))
-                    .withDoM(between(SpecialChar.L, DoM))
+                    .withDoM(on(DoM))
                     .withMonth(on(month))
                     .withDoW(questionMark())
                     .withHour(on(hour))
@@ -362,8 +931,7 @@ public class QuartzReminder implements Reminder {
     public void sendMailBefore5Min(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minusSeconds(5*60);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofMinutes(5));
 
     }
 
@@ -371,32 +939,28 @@ public class QuartzReminder implements Reminder {
     public void sendMailBefore10Min(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(10, ChronoUnit.MINUTES);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofMinutes(10));
     }
 
     @Override
     public void sendMailBefore15Min(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(15, ChronoUnit.MINUTES);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofMinutes(15));
     }
 
     @Override
     public void sendMailBefore30Min(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(30, ChronoUnit.MINUTES);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofMinutes(30));
     }
 
     @Override
     public void sendMailBefore1Hour(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(1, ChronoUnit.HOURS);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofHours(1));
     }
 
     /**
@@ -404,71 +968,142 @@ public class QuartzReminder implements Reminder {
      * <p> We use this function to help for sending mail with specific time, since this function is quite simple for sending mail to person 
      *     using event ID to pass into function then the function itself will send to people with gmail address </p>
      * 
+     * <p> The reminder is scheduled at {@code Event.date} and the call returns right away, no thread is held while
+     *     waiting for it to fire. Scheduling the same event again replaces its pending reminder. </p>
+     * 
      * @param eid event identification
-     * @return void
-     * @throws none
+     * @return the handle of the reminder, already failed if the event does not exist or could not be scheduled
      */
     @Override
-    public void sendMail(int eid) {
+    public ReminderHandle sendMail(int eid) {
 
+        Event e = repo.findEventByID(eid);
+        if (e == null) {
+            QuartzReminderHandle handle = new QuartzReminderHandle(this, null, eid, null);
+            handle.markFailed(new InputMismatchException("the eid does not exist"));
+            return handle;
+        }
+
+        QuartzReminderHandle handle = new QuartzReminderHandle(this, buildCronTriggerKey(eid), eid, Instant.from(e.date));
         try {
-            Event e = repo.findEventByID(eid);
-            
-            logger.info("----------Initializing-----------");
+            JobKey jobKey = storeJobIfAbsent(eid);
+            Trigger trigger = buildJobTrigger(jobKey, CronBuilder(Instant.from(e.date)));
 
-            scheduler = getScheduler();
+            QuartzReminderHandle previous = handles.put(handle.getTriggerKey(), handle);
+            if (previous != null)
+                previous.markCancelled();
+            scheduleOrReplace(trigger);
+        } catch (Exception ex) {
+            logger.error("Scheduler throw exception", ex);
+            handles.remove(handle.getTriggerKey(), handle);
+            handle.markFailed(ex);
+        }
+        return handle;
+    }
 
-            logger.info("----------Initialization Complete-------------");
+    /**
+     * <p>Moves the reminder of the handle, called through {@link ReminderHandle#reschedule(Instant)}.</p>
+     * 
+     * @param handle
+     * @param fireAt
+     * @return true if the reminder was still pending
+     * @throws Exception
+     */
+    boolean rescheduleMail(QuartzReminderHandle handle, Instant fireAt) throws Exception {
+        Trigger trigger = buildJobTrigger(buildJobKey(handle.getEventID()), CronBuilder(fireAt));
+        return scheduler.rescheduleJob(handle.getTriggerKey(), trigger) != null;
+    }
 
-            logger.info("----------Scheduling jobs------------");
+    /**
+     * <p>Completes the handles of {@link #sendMail(int)} once their trigger has fired for the last time.</p>
+     */
+    private class HandleCompletionListener extends JobListenerSupport {
 
-            JobDetail jobDetail = buildJobDetail(eid);
-            Cron cron = CronBuilder(e.date);
-            Trigger trigger = buildJobTrigger(jobDetail, cron);
+        @Override
+        public String getName() {
+            return "reminderHandleCompletion";
+        }
+
+        @Override
+        public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+            Trigger trigger = context.getTrigger();
+            if (trigger.getNextFireTime() != null)
+                return;
+            QuartzReminderHandle handle = handles.remove(trigger.getKey());
+            if (handle == null)
+                return;
+            if (jobException != null)
+                handle.markFailed(jobException);
+            else
+                handle.markFired();
+        }
+    }
 
-            scheduler.scheduleJob(jobDetail, trigger);
+    /**
+     * <p>Writes every change of an offset reminder to the {@link ReminderJournal}.</p>
+     * 
+     * <p>A reminder the {@link CatchUpPolicy} deferred is still owed while its <code>-catchup</code> trigger is
+     * pending, so that trigger is journaled under the offset of the reminder it releases, with the time the
+     * reminder was originally due. A restart schedules it again at that time and lets the policy decide anew.</p>
+     */
+    private class JournalListener extends SchedulerListenerSupport {
 
-            scheduler.start();
+        @Override
+        public void jobScheduled(Trigger trigger) {
+            Duration offset = offsetOf(CatchUpPolicy.replacedKey(trigger.getKey()));
+            if (offset == null || !EVENT_GROUP.equals(trigger.getJobKey().getGroup()))
+                return;
+            JobDataMap data = trigger.getJobDataMap();
+            long dueAt = data.containsKey(EventReminderJob.EVENT_START)
+                    ? data.getLong(EventReminderJob.EVENT_START) - offset.toMillis()
+                    : trigger.getStartTime().getTime();
+            journal.put(Integer.parseInt(trigger.getJobKey().getName()), (int) offset.getSeconds(), dueAt);
+        }
 
-            logger.info("--------Started scheduler----------");
+        @Override
+        public void jobUnscheduled(TriggerKey triggerKey) {
+            TriggerKey reminderKey = CatchUpPolicy.replacedKey(triggerKey);
+            Duration offset = offsetOf(reminderKey);
+            if (offset == null || (reminderKey == triggerKey && isDeferred(triggerKey)))
+                return;
+            journal.remove(EventTriggerIndex.eventIdOf(triggerKey), (int) offset.getSeconds());
+        }
 
+        /**
+         * @return whether the late fire of the reminder was vetoed and handed over to its catch-up trigger
+         */
+        private boolean isDeferred(TriggerKey triggerKey) {
             try {
-                // run for 292 billion years
-                Thread.sleep(Long.MAX_VALUE);
-                // executing...
-            } catch(InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                ex.printStackTrace();
+                return scheduler.checkExists(CatchUpPolicy.catchUpKey(triggerKey));
+            } catch (SchedulerException e) {
+                logger.warn("could not look up the catch-up trigger of {}", triggerKey, e);
+                return false;
             }
+        }
 
-            logger.info("--------Shutting down--------------");
-
-            scheduler.shutdown(true); 
-
-            logger.info("--------Shutdown complete-----------");
+        @Override
+        public void triggerFinalized(Trigger trigger) {
+            jobUnscheduled(trigger.getKey());
+        }
 
-        } catch (SchedulerException e) {
-            logger.error("Scheduler throw exception", e);
-        } catch (Throwable e) {
-            logger.error("Fails", e);
+        @Override
+        public void schedulingDataCleared() {
+            journal.clear();
         }
-        
     }
 
     @Override
     public void sendMailBefore3Days(User user, Event event) throws Exception {
 
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(3, ChronoUnit.DAYS);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofDays(3));
     }
 
     @Override
     public void sendMailBefore1Week(User user, Event event) throws Exception {
         
         logger.info("preparing to fire alarm for reminding clients");
-        Instant schedTime = Instant.from(event.date).minus(1, ChronoUnit.WEEKS);
-        sendNotification(event.eventID, schedTime);
+        sendNotification(event, Duration.ofDays(7));
     }
 
 }
@@ -0,0 +1,92 @@
+package Utilities;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Trigger;
+
+import com.cronutils.model.Cron;
+
+import entities.Event;
+import repositories.InMemoryDataRepository;
+
+/**
+ * Scheduling hot paths of {@link QuartzReminder}.
+ *
+ * <pre>
+ *      gradle jmh
+ * </pre>
+ *
+ * Reports ops/s, the <code>gc</code> profiler configured in <code>build.gradle</code> adds
+ * <code>gc.alloc.rate.norm</code>, the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QuartzReminderBenchmark {
+
+    /**
+     * the scheduled event IDs wrap around so the job store stops growing after the first round
+     */
+    private static final int EVENT_ID_MASK = 0xFFFF;
+
+    private QuartzReminder reminder;
+    private Event event;
+    private Instant startAt;
+    private JobKey jobKey;
+    private int nextEventID;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        reminder = new QuartzReminder(new InMemoryDataRepository());
+        event = new Event(0, "benchmark event", "benchmark organizer", Instant.now().plus(30, ChronoUnit.DAYS), 1,
+                Arrays.asList("name1"));
+        startAt = event.date.minus(5, ChronoUnit.MINUTES);
+        jobKey = reminder.buildJobKey(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reminder.shutdown();
+    }
+
+    @Benchmark
+    public Instant sendNotification() throws Exception {
+        event.eventID = nextEventID++ & EVENT_ID_MASK;
+        return reminder.sendNotification(event, Duration.ofMinutes(5));
+    }
+
+    @Benchmark
+    public JobDetail buildJobDetail() {
+        return reminder.buildJobDetail(42);
+    }
+
+    @Benchmark
+    public Trigger buildJobTrigger() {
+        return reminder.buildJobTrigger(jobKey, startAt, Duration.ofMinutes(5));
+    }
+
+    @Benchmark
+    public Cron cronBuilder() throws Exception {
+        return reminder.CronBuilder(startAt);
+    }
+
+    @Benchmark
+    public String formatInstant() {
+        return QuartzReminder.formatInstant(startAt, "Asia/Ho_Chi_Minh", "dd/MM/yyyy hh:mm a");
+    }
+}
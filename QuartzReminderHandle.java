@@ -0,0 +1,53 @@
+package Utilities;
+
+import java.time.Instant;
+
+import org.quartz.SchedulerException;
+import org.quartz.TriggerKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ReminderAPI.ReminderHandle} of a reminder scheduled on the Quartz scheduler of a {@link QuartzReminder}.
+ *
+ * <p>
+ * Completion is reported by the job listener of the {@link QuartzReminder} on the node that fires the trigger.
+ * </p>
+ */
+final class QuartzReminderHandle extends AbstractReminderHandle {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuartzReminderHandle.class);
+
+    private final QuartzReminder reminder;
+    private final TriggerKey triggerKey;
+
+    QuartzReminderHandle(QuartzReminder reminder, TriggerKey triggerKey, int eventID, Instant fireTime) {
+        super(eventID, fireTime);
+        this.reminder = reminder;
+        this.triggerKey = triggerKey;
+    }
+
+    TriggerKey getTriggerKey() {
+        return triggerKey;
+    }
+
+    @Override
+    protected boolean doCancel() {
+        try {
+            return reminder.getScheduler().unscheduleJob(triggerKey);
+        } catch (SchedulerException e) {
+            logger.error("could not cancel {}", triggerKey, e);
+            return false;
+        }
+    }
+
+    @Override
+    protected boolean doReschedule(Instant fireAt) {
+        try {
+            return reminder.rescheduleMail(this, fireAt);
+        } catch (Exception e) {
+            logger.error("could not reschedule {}", triggerKey, e);
+            return false;
+        }
+    }
+}
@@ -48,8 +48,13 @@ public interface Reminder {
 
     /**
      * send mail with message at specific time by organizer 
+     * 
+     * <p> Returns as soon as the reminder is scheduled, the handle cancels or moves it and tells when it fired. </p>
+     * 
+     * @param eid event identification
+     * @return the handle of the reminder
      */
-    void sendMail(int eid);
+    ReminderHandle sendMail(int eid);
 
     /**
      * send mail with message before 1 hour by organizer 
@@ -88,5 +93,11 @@ public interface Reminder {
      */
     void sendMailBefore5Min(User user, Event event) throws Exception;
 
-    
+    /**
+     * stop firing reminders and release the threads of the implementation.
+     * 
+     * @throws Exception
+     */
+    void shutdown() throws Exception;
+
 }
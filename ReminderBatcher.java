@@ -0,0 +1,385 @@
+package Utilities;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import entities.Event;
+import entities.User;
+import repositories.BatchDataRepository;
+import repositories.DataRepository;
+
+/**
+ * Fire-time micro-batching: the reminders fired within <code>windowMillis</code> of each other are executed as one
+ * batch.
+ *
+ * <p>
+ * A firing {@link EventReminderJob} only adds its (event, offset, start) here and returns. The first reminder of a
+ * window schedules the flush, which resolves every event of the batch with one
+ * {@link BatchDataRepository#findEventsByIDs} call and every participant of all of them with one
+ * {@link BatchDataRepository#findUsersByNames} call, then hands the reminders to the {@link DigestCoalescer}, or
+ * appends them to the {@link MailOutbox} with a single fsync. At the top of the hour, when hundreds of events come
+ * due in the same second, the repository sees a few set-based queries instead of a lookup per event and per
+ * participant. The participants of a very large event are left out of the shared lookup and delivered in parallel
+ * chunks by the {@link ParticipantFanOut}, exactly like a reminder executed on its own.
+ * </p>
+ * <p>
+ * The reminders of a window only live in memory until it is flushed. What a flush could not hand over, a whole
+ * reminder whose lookup failed or only the participants of a failed chunk or of a full mail queue, is retried with
+ * the next window, up to <code>maxAttempts</code> executions of the reminder.
+ * </p>
+ *
+ * <pre>
+ *      reminder.batch.windowMillis = 200
+ *      reminder.batch.maxAttempts = 3
+ * </pre>
+ *
+ * @see EventReminderJob
+ */
+public class ReminderBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReminderBatcher.class);
+
+    private final DataRepository repository;
+    private final MailOutbox outbox;
+    private final MailStage mail;
+    private final long windowMillis;
+    private final int maxAttempts;
+    private final ScheduledExecutorService flusher;
+
+    /** fired reminders, guarded by this */
+    private List<Fired> pending = new ArrayList<>();
+
+    /** reminders a flush could not hand over completely, guarded by this */
+    private Map<Fired, Retry> retrying = new HashMap<>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong reminders = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * <p>Constructor</p>
+     * @param repository where the events and participants are looked up
+     * @param outbox where the reminders are recorded, null to hand them to the mail stage
+     * @param mail mail stage of the reminders when there is no outbox
+     * @param windowMillis how long the reminders fired after the first one of a batch are gathered
+     * @param maxAttempts executions of a reminder before what is left of it is dropped
+     */
+    public ReminderBatcher(DataRepository repository, MailOutbox outbox, MailStage mail, long windowMillis,
+            int maxAttempts) {
+        if (maxAttempts <= 0)
+            throw new IllegalArgumentException("maxAttempts must be > 0");
+        this.repository = repository;
+        this.outbox = outbox;
+        this.mail = mail;
+        this.windowMillis = windowMillis;
+        this.maxAttempts = maxAttempts;
+        ReminderFlightEvents.register();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reminder-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * <p>Adds a fired reminder for the current start of the event to the current batch.</p>
+     *
+     * @param eventID
+     * @param offsetSeconds how long before the event the reminder fired
+     */
+    public void add(int eventID, int offsetSeconds) {
+        add(eventID, offsetSeconds, -1);
+    }
+
+    /**
+     * <p>Adds a fired reminder to the current batch.</p>
+     *
+     * @param eventID
+     * @param offsetSeconds how long before the event the reminder fired
+     * @param startMillis what the outbox records the reminder under, see {@link EventReminderJob#recordedStart},
+     *            negative for the current start of the event
+     */
+    public void add(int eventID, int offsetSeconds, long startMillis) {
+        boolean opened;
+        synchronized (this) {
+            pending.add(new Fired(eventID, offsetSeconds, startMillis));
+            opened = pending.size() == 1 && retrying.isEmpty();
+        }
+        if (opened)
+            flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Executes the reminders gathered so far and the ones left over by the previous window.</p>
+     *
+     * @return number of reminders handed over completely
+     */
+    public int flush() {
+        List<Fired> fired;
+        Map<Fired, Retry> retried;
+        synchronized (this) {
+            if (pending.isEmpty() && retrying.isEmpty())
+                return 0;
+            fired = pending;
+            retried = retrying;
+            pending = new ArrayList<>(fired.size());
+            retrying = new HashMap<>();
+        }
+        // participants still owed by key, null for all participants of the event
+        Map<Fired, List<String>> remaining = new LinkedHashMap<>(fired.size() * 4 / 3 + retried.size() + 1);
+        for (Fired reminder : fired) {
+            remaining.putIfAbsent(reminder, null);
+        }
+        // a reminder fired again while it is retried only owes what the earlier execution left over
+        for (Map.Entry<Fired, Retry> e : retried.entrySet()) {
+            remaining.put(e.getKey(), e.getValue().participants);
+        }
+        int batch = remaining.size();
+        try {
+            execute(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("batch of {} reminders failed, {} of them retried with the next window", batch,
+                    remaining.size(), e);
+        }
+        int executed = batch - remaining.size();
+        batches.incrementAndGet();
+        reminders.addAndGet(executed);
+        if (!remaining.isEmpty()) {
+            failures.incrementAndGet();
+            retry(remaining, retried);
+        }
+        return executed;
+    }
+
+    /**
+     * <p>Puts what a flush left over back for the next window, dropping the reminders out of attempts.</p>
+     */
+    private void retry(Map<Fired, List<String>> remaining, Map<Fired, Retry> retried) {
+        boolean opened;
+        boolean requeued = false;
+        synchronized (this) {
+            opened = pending.isEmpty() && retrying.isEmpty();
+            for (Map.Entry<Fired, List<String>> e : remaining.entrySet()) {
+                Retry previous = retried.get(e.getKey());
+                int attempts = previous == null ? 1 : previous.attempts + 1;
+                if (attempts >= maxAttempts) {
+                    dropped.incrementAndGet();
+                    logger.error("reminder {} of event {} dropped after {} attempts", e.getKey().offsetSeconds,
+                            e.getKey().eventID, attempts);
+                    continue;
+                }
+                retrying.put(e.getKey(), new Retry(attempts, e.getValue()));
+                requeued = true;
+            }
+        }
+        if (opened && requeued && !flusher.isShutdown())
+            flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Hands the reminders over, removing every one that is done from {@code remaining} and narrowing the others
+     * down to the participants still owed.</p>
+     */
+    private void execute(Map<Fired, List<String>> remaining) throws Exception {
+        Set<Integer> eventIDs = new HashSet<>(remaining.size() * 4 / 3 + 1);
+        for (Fired reminder : remaining.keySet()) {
+            eventIDs.add(reminder.eventID);
+        }
+        ReminderFlightEvents.Lookup lookup = new ReminderFlightEvents.Lookup();
+        lookup.begin();
+        Map<Integer, Event> events = BatchDataRepository.findEventsByIDs(repository, eventIDs);
+        lookup.end();
+        if (lookup.shouldCommit()) {
+            lookup.events = eventIDs.size();
+            lookup.found = events.size();
+            lookup.commit();
+        }
+        remaining.keySet().removeIf(reminder -> {
+            if (events.containsKey(reminder.eventID))
+                return false;
+            logger.warn("event {} does not exist, its reminder is dropped", reminder.eventID);
+            return true;
+        });
+
+        if (outbox != null) {
+            for (Map.Entry<Fired, List<String>> e : remaining.entrySet()) {
+                Event event = events.get(e.getKey().eventID);
+                long startMillis = e.getKey().startMillis >= 0 ? e.getKey().startMillis
+                        : Instant.from(event.date).toEpochMilli();
+                for (String name : participants(event, e.getValue())) {
+                    outbox.append(event.eventID, e.getKey().offsetSeconds, startMillis, name);
+                }
+            }
+            outbox.sync();
+            remaining.clear();
+            return;
+        }
+
+        ParticipantFanOut fanOut = mail.getFanOut();
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<Fired, List<String>> e : remaining.entrySet()) {
+            List<String> participants = participants(events.get(e.getKey().eventID), e.getValue());
+            if (!fanOut.isPartitioned(participants.size()))
+                names.addAll(participants);
+        }
+        Map<String, User> users = Collections.emptyMap();
+        if (!names.isEmpty()) {
+            lookup = new ReminderFlightEvents.Lookup();
+            lookup.begin();
+            users = BatchDataRepository.findUsersByNames(repository, names);
+            lookup.end();
+            if (lookup.shouldCommit()) {
+                lookup.events = events.size();
+                lookup.participants = names.size();
+                lookup.found = users.size();
+                lookup.commit();
+            }
+        }
+        for (Fired reminder : new ArrayList<>(remaining.keySet())) {
+            Event event = events.get(reminder.eventID);
+            List<String> participants = participants(event, remaining.get(reminder));
+            List<String> left;
+            if (fanOut.isPartitioned(participants.size())) {
+                left = fanOut.run(event.eventID, participants,
+                        (chunk, handedOver) -> EventReminderJob.remindChunk(repository, mail.getDigest(), event,
+                                chunk, handedOver))
+                        .getFailedParticipants();
+            } else {
+                left = offer(event, participants, users);
+            }
+            if (left.isEmpty())
+                remaining.remove(reminder);
+            else
+                remaining.put(reminder, left);
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * @return the participants the coalescer did not take, all from the first one on if interrupted
+     */
+    private List<String> offer(Event event, List<String> participants, Map<String, User> users) {
+        List<String> left = new ArrayList<>(0);
+        for (int i = 0; i < participants.size(); i++) {
+            String name = participants.get(i);
+            User user = users.get(name);
+            if (user == null) {
+                logger.warn("participant {} of event {} does not exist", name, event.eventID);
+                continue;
+            }
+            try {
+                if (!mail.getDigest().offer(user, event))
+                    left.add(name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                left.addAll(participants.subList(i, participants.size()));
+                break;
+            }
+        }
+        if (!left.isEmpty())
+            logger.warn("mail queue full, reminder of event {} to {} participants retried with the next window",
+                    event.eventID, left.size());
+        return left;
+    }
+
+    private static List<String> participants(Event event, List<String> owed) {
+        return owed != null ? owed : event.participantsList;
+    }
+
+    /**
+     * @return batches executed
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return reminders handed over completely, duplicates within a batch counted once
+     */
+    public long getReminderCount() {
+        return reminders.get();
+    }
+
+    /**
+     * @return batches that left something to retry
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return reminders given up after <code>maxAttempts</code> executions
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * <p>Stops the timer and executes what is still gathered.</p>
+     */
+    public void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * one fired reminder, the same reminder fired twice within a batch is executed once
+     */
+    private static final class Fired {
+        final int eventID;
+        final int offsetSeconds;
+        final long startMillis;
+
+        Fired(int eventID, int offsetSeconds, long startMillis) {
+            this.eventID = eventID;
+            this.offsetSeconds = offsetSeconds;
+            this.startMillis = startMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fired))
+                return false;
+            Fired other = (Fired) o;
+            return eventID == other.eventID && offsetSeconds == other.offsetSeconds
+                    && startMillis == other.startMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * eventID + offsetSeconds) * 31 + Long.hashCode(startMillis);
+        }
+    }
+
+    /**
+     * what is left of a reminder after a failed execution
+     */
+    private static final class Retry {
+        final int attempts;
+        /** null for all participants of the event */
+        final List<String> participants;
+
+        Retry(int attempts, List<String> participants) {
+            this.attempts = attempts;
+            this.participants = participants;
+        }
+    }
+}
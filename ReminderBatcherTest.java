@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import Utilities.DigestCoalescer;
+import Utilities.MailDispatcher;
+import Utilities.MailMessage;
+import Utilities.MailStage;
+import Utilities.ParticipantFanOut;
+import Utilities.ReminderBatcher;
+import Utilities.ReminderMessages;
+import entities.Event;
+import entities.User;
+import repositories.InMemoryDataRepository;
+
+public class ReminderBatcherTest {
+
+    /**
+     * counts the set-based lookups
+     */
+    private static class CountingRepository extends InMemoryDataRepository {
+        final AtomicInteger eventQueries = new AtomicInteger();
+        final AtomicInteger userQueries = new AtomicInteger();
+
+        @Override
+        public Map<Integer, Event> findEventsByIDs(Collection<Integer> eventIDs) {
+            eventQueries.incrementAndGet();
+            return super.findEventsByIDs(eventIDs);
+        }
+
+        @Override
+        public Map<String, User> findUsersByNames(Collection<String> names) {
+            userQueries.incrementAndGet();
+            return super.findUsersByNames(names);
+        }
+    }
+
+    private static MailStage stage(MailDispatcher dispatcher, ParticipantFanOut fanOut) {
+        ReminderMessages messages = ReminderMessages.fromProperties(new Properties());
+        return new MailStage(dispatcher, messages, new DigestCoalescer(dispatcher, messages, 0), fanOut);
+    }
+
+    @Test
+    public void testRemindersOfOneWindowShareTheLookups() throws Exception {
+        CountingRepository repository = new CountingRepository();
+        Instant start = Instant.now().plus(1, ChronoUnit.HOURS);
+        for (int i = 0; i < 50; i++) {
+            repository.putUser(new User("user" + i, "user" + i + "@test"));
+        }
+        for (int i = 0; i < 100; i++) {
+            repository.putEvent(new Event(i, "event " + i, "organizer", start, 1, List.of("user" + (i % 50))));
+        }
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailStage mail = stage(new MailDispatcher(delivered::add, 1000, 1, 50, 1000),
+                new ParticipantFanOut(1000, 500, 8, 3, 200));
+        ReminderBatcher batcher = new ReminderBatcher(repository, null, mail, 200, 3);
+
+        for (int i = 0; i < 100; i++) {
+            batcher.add(i, 300);
+        }
+        // the same reminder fired twice within the window is executed once
+        batcher.add(0, 300);
+        Thread.sleep(500);
+        batcher.shutdown();
+        mail.shutdown();
+
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(100, batcher.getReminderCount());
+        assertEquals(1, repository.eventQueries.get());
+        assertEquals(1, repository.userQueries.get());
+        assertEquals(100, delivered.size());
+    }
+
+    @Test
+    public void testOnlyTheFailedChunkOfALargeEventIsRetried() throws Exception {
+        AtomicBoolean failOnce = new AtomicBoolean(true);
+        CountingRepository repository = new CountingRepository() {
+            @Override
+            public Map<String, User> findUsersByNames(Collection<String> names) {
+                if (names.contains("user7") && failOnce.getAndSet(false))
+                    throw new IllegalStateException("connection reset");
+                return super.findUsersByNames(names);
+            }
+        };
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            names.add("user" + i);
+            repository.putUser(new User("user" + i, "user" + i + "@test"));
+        }
+        repository.putEvent(new Event(1, "event", "organizer", Instant.now().plus(1, ChronoUnit.HOURS), 1, names));
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        // partitioned above 10 participants, a failed chunk is not retried by the fan-out itself
+        MailStage mail = stage(new MailDispatcher(delivered::add, 1000, 1, 50, 1000),
+                new ParticipantFanOut(10, 5, 2, 1, 0));
+        ReminderBatcher batcher = new ReminderBatcher(repository, null, mail, 100, 3);
+
+        batcher.add(1, 300);
+        for (int i = 0; i < 50 && batcher.getReminderCount() < 1; i++) {
+            Thread.sleep(20);
+        }
+        batcher.shutdown();
+        mail.shutdown();
+
+        assertEquals(1, batcher.getFailureCount());
+        assertEquals(1, batcher.getReminderCount());
+        assertEquals(0, batcher.getDroppedCount());
+        // the retry only looks up the failed chunk again
+        assertEquals(4, repository.userQueries.get());
+        assertEquals(20, delivered.size());
+    }
+
+    @Test
+    public void testRetriesStopAfterMaxAttempts() throws Exception {
+        CountingRepository repository = new CountingRepository() {
+            @Override
+            public Map<Integer, Event> findEventsByIDs(Collection<Integer> eventIDs) {
+                super.findEventsByIDs(eventIDs);
+                throw new IllegalStateException("database down");
+            }
+        };
+        List<MailMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        MailStage mail = stage(new MailDispatcher(delivered::add, 1000, 1, 50, 1000),
+                new ParticipantFanOut(1000, 500, 8, 3, 200));
+        ReminderBatcher batcher = new ReminderBatcher(repository, null, mail, 50, 3);
+
+        batcher.add(1, 300);
+        for (int i = 0; i < 50 && batcher.getDroppedCount() < 1; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+        batcher.shutdown();
+        mail.shutdown();
+
+        assertEquals(1, batcher.getDroppedCount());
+        assertEquals(3, batcher.getFailureCount());
+        assertEquals(3, repository.eventQueries.get());
+        assertTrue(delivered.isEmpty());
+    }
+}
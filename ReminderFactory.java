@@ -0,0 +1,139 @@
+package Utilities;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import ReminderAPI.Reminder;
+import repositories.CachingDataRepository;
+import repositories.DataRepository;
+
+/**
+ * Picks the {@link Reminder} engine from the configuration.
+ *
+ * <pre>
+ *      reminder.engine = quartz          # QuartzReminder, the default
+ *      reminder.quartz.config = src/main/resources/quartz-cluster.properties
+ *      reminder.engine = timingwheel     # TimingWheelReminder
+ *      reminder.wheel.tickMillis = 100
+ *      reminder.wheel.size = 512
+ *      reminder.wheel.levels = 4
+ *      reminder.wheel.workerThreads = 32
+ *      reminder.cache.enabled = true     # put a CachingDataRepository in front of the repository
+ *      reminder.cache.maximumSize = 100000
+ *      reminder.cache.ttlSeconds = 300
+ *      reminder.cache.negative = true
+ * </pre>
+ *
+ * <p>
+ * A file naming a <code>reminder.config.parent</code> only holds what differs from that one, see
+ * {@link #loadProperties(String)}.
+ * </p>
+ *
+ * @see QuartzReminder
+ * @see TimingWheelReminder
+ */
+public final class ReminderFactory {
+
+    public static final String ENGINE = "reminder.engine";
+    public static final String QUARTZ_CONFIG = "reminder.quartz.config";
+    public static final String WHEEL_TICK_MILLIS = "reminder.wheel.tickMillis";
+    public static final String WHEEL_SIZE = "reminder.wheel.size";
+    public static final String WHEEL_LEVELS = "reminder.wheel.levels";
+    public static final String WHEEL_WORKER_THREADS = "reminder.wheel.workerThreads";
+    public static final String CACHE_ENABLED = "reminder.cache.enabled";
+    public static final String CACHE_MAXIMUM_SIZE = "reminder.cache.maximumSize";
+    public static final String CACHE_TTL_SECONDS = "reminder.cache.ttlSeconds";
+    public static final String CACHE_NEGATIVE = "reminder.cache.negative";
+    public static final String PARENT_CONFIG = "reminder.config.parent";
+
+    private ReminderFactory() {
+    }
+
+    /**
+     * <p>Builds the engine configured in {@link QuartzReminder#CONFIG_FILE}.</p>
+     *
+     * @param repo
+     * @return the configured reminder
+     * @throws Exception
+     */
+    public static Reminder create(DataRepository repo) throws Exception {
+        return create(repo, loadProperties(QuartzReminder.CONFIG_FILE));
+    }
+
+    /**
+     * <p>Builds the engine configured in the given properties.</p>
+     *
+     * @param repo
+     * @param properties
+     * @return the configured reminder
+     * @throws Exception
+     */
+    public static Reminder create(DataRepository repo, Properties properties) throws Exception {
+        repo = wrapRepository(repo, properties);
+        String engine = properties.getProperty(ENGINE, "quartz").trim();
+        switch (engine) {
+            case "quartz":
+                return new QuartzReminder(repo, properties.getProperty(QUARTZ_CONFIG, QuartzReminder.CONFIG_FILE).trim());
+            case "timingwheel":
+                return new TimingWheelReminder(repo, MailStage.fromProperties(properties),
+                        Long.parseLong(properties.getProperty(WHEEL_TICK_MILLIS, "100").trim()),
+                        Integer.parseInt(properties.getProperty(WHEEL_SIZE, "512").trim()),
+                        Integer.parseInt(properties.getProperty(WHEEL_LEVELS, "4").trim()),
+                        Integer.parseInt(properties.getProperty(WHEEL_WORKER_THREADS, "32").trim()));
+            default:
+                throw new IllegalArgumentException("unknown " + ENGINE + ": " + engine);
+        }
+    }
+
+    /**
+     * <p>Puts a {@link CachingDataRepository} in front of the repository when <code>reminder.cache.enabled</code> is set.</p>
+     *
+     * @param repo
+     * @param properties
+     * @return the repository the engine should use
+     */
+    public static DataRepository wrapRepository(DataRepository repo, Properties properties) {
+        if (repo instanceof CachingDataRepository
+                || !Boolean.parseBoolean(properties.getProperty(CACHE_ENABLED, "false").trim()))
+            return repo;
+        return new CachingDataRepository(repo,
+                Long.parseLong(properties.getProperty(CACHE_MAXIMUM_SIZE, "100000").trim()),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty(CACHE_TTL_SECONDS, "300").trim())),
+                Boolean.parseBoolean(properties.getProperty(CACHE_NEGATIVE, "true").trim()));
+    }
+
+    /**
+     * <p>Reads a configuration file. When it names a <code>reminder.config.parent</code>, the parent is read first
+     * and the settings of the file override it, so e.g. {@code quartz-cluster.properties} only replaces the job
+     * store and keeps the mail, outbox and cache settings of {@code quartz.properties}.</p>
+     *
+     * @param fileName
+     * @return the properties read from the file and its parents, without the parent key
+     * @throws IOException
+     * @throws IllegalArgumentException if the parents form a cycle
+     */
+    public static Properties loadProperties(String fileName) throws IOException {
+        return loadProperties(fileName, new HashSet<>());
+    }
+
+    private static Properties loadProperties(String fileName, Set<String> visited) throws IOException {
+        if (!visited.add(fileName))
+            throw new IllegalArgumentException(PARENT_CONFIG + " of " + fileName + " forms a cycle");
+        Properties own = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            own.load(in);
+        }
+        String parent = own.getProperty(PARENT_CONFIG);
+        if (parent == null)
+            return own;
+        Properties properties = loadProperties(parent.trim(), visited);
+        properties.putAll(own);
+        properties.remove(PARENT_CONFIG);
+        return properties;
+    }
+}
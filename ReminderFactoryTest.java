@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import Utilities.MailDispatcher;
+import Utilities.ReminderFactory;
+
+public class ReminderFactoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testChildConfigOverridesItsParent() throws Exception {
+        Path parent = dir.resolve("quartz.properties");
+        Files.writeString(parent, "org.quartz.jobStore.class = org.quartz.simpl.RAMJobStore\n"
+                + "spring.mail.host = smtp.example.test\n"
+                + "reminder.outbox.file = data/mail.outbox\n");
+        Path cluster = dir.resolve("quartz-cluster.properties");
+        Files.writeString(cluster, "reminder.config.parent = " + parent.toString().replace("\\", "/") + "\n"
+                + "org.quartz.jobStore.class = org.quartz.impl.jdbcjobstore.JobStoreTX\n");
+
+        Properties properties = ReminderFactory.loadProperties(cluster.toString());
+        assertEquals("org.quartz.impl.jdbcjobstore.JobStoreTX", properties.getProperty("org.quartz.jobStore.class").trim());
+        assertEquals("smtp.example.test", properties.getProperty("spring.mail.host").trim());
+        assertEquals("data/mail.outbox", properties.getProperty("reminder.outbox.file").trim());
+        assertFalse(properties.containsKey(ReminderFactory.PARENT_CONFIG));
+    }
+
+    @Test
+    public void testParentCycleIsRejected() throws Exception {
+        Path self = dir.resolve("self.properties");
+        Files.writeString(self, "reminder.config.parent = " + self.toString().replace("\\", "/") + "\n");
+        assertThrows(IllegalArgumentException.class, () -> ReminderFactory.loadProperties(self.toString()));
+    }
+
+    @Test
+    public void testMissingMailHostFailsFast() {
+        Properties properties = new Properties();
+        properties.setProperty("spring.mail.port", "587");
+        assertThrows(IllegalArgumentException.class, () -> MailDispatcher.fromProperties(properties));
+    }
+}
@@ -0,0 +1,170 @@
+package Utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events following a reminder from its scheduling to the delivery of its mails.
+ *
+ * <p>
+ * Every step is a duration event carrying the event ID, offset and number of participants it worked on, so a
+ * recording shows where the lag of a late reminder went: waiting for a thread (the lag of {@link Fired}), in the
+ * repository ({@link Lookup}), rendering ({@link Render}) or at the SMTP host ({@link MailSent}). While no recording
+ * runs, an event costs one enabled check, and the fields are only filled for events that are committed.
+ * </p>
+ * <p>
+ * The first event class to load starts the Flight Recorder machinery, which takes a good part of a second, so the
+ * components emitting them call {@link #register()} when they start rather than paying for it on the first fire.
+ * </p>
+ *
+ * <pre>
+ *      java -XX:StartFlightRecording=filename=reminders.jfr,settings=profile ...
+ *      jfr print --categories Reminder reminders.jfr
+ * </pre>
+ */
+public final class ReminderFlightEvents {
+
+    private static final String CATEGORY = "Reminder";
+
+    private static volatile boolean registered;
+
+    private ReminderFlightEvents() {
+    }
+
+    /**
+     * <p>Registers the events with the Flight Recorder, only the first call does anything.</p>
+     */
+    public static void register() {
+        if (registered)
+            return;
+        synchronized (ReminderFlightEvents.class) {
+            if (registered)
+                return;
+            FlightRecorder.register(Scheduled.class);
+            FlightRecorder.register(Fired.class);
+            FlightRecorder.register(Lookup.class);
+            FlightRecorder.register(Render.class);
+            FlightRecorder.register(MailSent.class);
+            registered = true;
+        }
+    }
+
+    @Name("Utilities.ReminderScheduled")
+    @Label("Reminder Scheduled")
+    @Description("Trigger of a reminder stored by QuartzReminder.sendNotification")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Scheduled extends Event {
+        @Label("Event ID")
+        public int eventID;
+
+        @Label("Offset")
+        @Timespan(Timespan.SECONDS)
+        public long offset;
+
+        @Label("Participants")
+        public int participants;
+    }
+
+    @Name("Utilities.ReminderFired")
+    @Label("Reminder Fired")
+    @Description("Execution of a fired reminder job, from the job start to the mails being queued")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Fired extends Event {
+        @Label("Event ID")
+        public int eventID;
+
+        @Label("Offset")
+        @Timespan(Timespan.SECONDS)
+        public long offset;
+
+        @Label("Participants")
+        @Description("Participants reminded by this fire, 0 when the reminder was handed to a batch")
+        public int participants;
+
+        @Label("Fire Lag")
+        @Description("Time between the original due time and the actual fire time, misfires included")
+        @Timespan(Timespan.MILLISECONDS)
+        public long fireLag;
+
+        @Label("Priority")
+        public int priority;
+
+        @Label("Mode")
+        @Description("direct, outbox or batch")
+        public String mode;
+    }
+
+    @Name("Utilities.ReminderLookup")
+    @Label("Reminder Lookup")
+    @Description("Repository lookup of the events of a reminder or of their participants")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Lookup extends Event {
+        @Label("Event ID")
+        @Description("Event the lookup is for, 0 for the lookups of a batch")
+        public int eventID;
+
+        @Label("Events")
+        public int events;
+
+        @Label("Participants")
+        @Description("Participants requested")
+        public int participants;
+
+        @Label("Found")
+        @Description("Events or users the repository returned")
+        public int found;
+    }
+
+    /**
+     * one per mail, so by default only the renders of a millisecond or more are recorded
+     */
+    @Name("Utilities.ReminderRender")
+    @Label("Reminder Render")
+    @Description("Rendering of a reminder or digest mail for one recipient")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class Render extends Event {
+        @Label("Event ID")
+        @Description("Event of the reminder, the first event of a digest")
+        public int eventID;
+
+        @Label("Events")
+        public int events;
+
+        @Label("Characters")
+        public int characters;
+    }
+
+    @Name("Utilities.ReminderMailSent")
+    @Label("Reminder Mail Sent")
+    @Description("Batch of mails handed to the mail sink by a MailDispatcher worker")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class MailSent extends Event {
+        @Label("Messages")
+        public int messages;
+
+        @Label("Participants")
+        @Description("Recipients of all the messages of the batch")
+        public int participants;
+
+        @Label("Failed")
+        public int failed;
+
+        @Label("Queued")
+        @Description("Time the oldest message of the batch spent between its creation and the sink")
+        @Timespan(Timespan.MILLISECONDS)
+        public long queued;
+    }
+}
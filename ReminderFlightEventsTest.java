@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import Utilities.MailDispatcher;
+import Utilities.MailMessage;
+import Utilities.ReminderMessages;
+import entities.Event;
+import entities.User;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class ReminderFlightEventsTest {
+
+    @Test
+    public void testRenderAndSendAreRecorded(@TempDir Path dir) throws Exception {
+        Event event = new Event(7, "standup", "organizer", Instant.parse("2026-03-01T02:30:00Z"), 1,
+                Arrays.asList("name1", "name2"));
+        Event later = new Event(8, "review", "organizer", Instant.parse("2026-03-01T04:30:00Z"), 1,
+                Arrays.asList("name1"));
+        User user = new User("name1", "name1@test");
+
+        Path file = dir.resolve("reminders.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("Utilities.ReminderRender").withThreshold(Duration.ZERO);
+            recording.enable("Utilities.ReminderMailSent");
+            recording.start();
+
+            ReminderMessages messages = ReminderMessages.fromProperties(new Properties());
+            MailMessage reminder = messages.reminder(user, event);
+            MailMessage digest = messages.digest(user, Arrays.asList(event, later));
+            MailDispatcher dispatcher = new MailDispatcher(message -> { }, 100, 1, 10, 1000);
+            assertTrue(dispatcher.submit(reminder));
+            assertTrue(dispatcher.submit(digest));
+            dispatcher.shutdown();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> renders = new ArrayList<>();
+        int sent = 0;
+        for (RecordedEvent recorded : RecordingFile.readAllEvents(file)) {
+            String name = recorded.getEventType().getName();
+            if (name.equals("Utilities.ReminderRender"))
+                renders.add(recorded);
+            else if (name.equals("Utilities.ReminderMailSent"))
+                sent += recorded.getInt("messages");
+        }
+        assertEquals(2, renders.size());
+        for (RecordedEvent render : renders) {
+            assertEquals(7, render.getInt("eventID"));
+            assertTrue(render.getInt("characters") > 0);
+        }
+        assertEquals(3, renders.get(0).getInt("events") + renders.get(1).getInt("events"));
+        assertEquals(2, sent);
+    }
+}
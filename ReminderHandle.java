@@ -0,0 +1,68 @@
+package ReminderAPI;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle of a reminder scheduled through {@link Reminder#sendMail(int)}.
+ *
+ * <p>
+ * Scheduling returns right away with this handle, the caller never waits for the reminder to fire. The handle
+ * cancels or moves the reminder and tells when it has been fired.
+ * </p>
+ *
+ * <pre>
+ *      ReminderHandle handle = reminder.sendMail(eid);
+ *      handle.whenFired().thenRun(() -&gt; logger.info("event {} reminded", eid));
+ *      handle.reschedule(newDate);
+ * </pre>
+ *
+ * @see Reminder
+ */
+public interface ReminderHandle {
+
+    /**
+     * state of the reminder
+     */
+    enum Status {
+        PENDING, FIRED, CANCELLED, FAILED
+    }
+
+    /**
+     * @return the event the reminder is about
+     */
+    int getEventID();
+
+    /**
+     * @return when the reminder fires, or fired
+     */
+    Instant getFireTime();
+
+    /**
+     * @return the current state of the reminder
+     */
+    Status getStatus();
+
+    /**
+     * cancel the reminder unless it already fired.
+     *
+     * @return true if the reminder was pending and is now cancelled
+     */
+    boolean cancel();
+
+    /**
+     * move the pending reminder to another time.
+     *
+     * @param fireAt
+     * @return true if the reminder was pending and has been moved
+     */
+    boolean reschedule(Instant fireAt);
+
+    /**
+     * completion notification: completes with this handle once the reminder has been fired, is cancelled when
+     * the reminder is cancelled and completes exceptionally when it could not be scheduled or delivered.
+     *
+     * @return the future of the reminder
+     */
+    CompletableFuture<ReminderHandle> whenFired();
+}
@@ -0,0 +1,63 @@
+package Utilities;
+
+import org.quartz.Job;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.simpl.SimpleJobFactory;
+import org.quartz.spi.TriggerFiredBundle;
+
+import repositories.DataRepository;
+
+/**
+ * {@link org.quartz.spi.JobFactory} handing the live collaborators to every {@link EventReminderJob} it creates.
+ *
+ * <p>
+ * The <code>JobDataMap</code> only carries serializable identifiers, which is what lets the jobs be stored by a
+ * JDBC job store and fired by any node of a cluster. Everything that can not be persisted, like the
+ * {@link DataRepository} or the {@link MailStage}, is resolved here on the node that fires the trigger.
+ * </p>
+ *
+ * @see QuartzReminder
+ */
+public class ReminderJobFactory extends SimpleJobFactory {
+
+    private final DataRepository repository;
+    private final MailStage mail;
+    private final MailOutbox outbox;
+    private final ReminderBatcher batcher;
+
+    /**
+     * <p>Constructor</p>
+     * @param repository repository given to the jobs
+     * @param mail mail stage the jobs hand the reminders to
+     */
+    public ReminderJobFactory(DataRepository repository, MailStage mail) {
+        this(repository, mail, null, null);
+    }
+
+    /**
+     * <p>Constructor</p>
+     * @param repository repository given to the jobs
+     * @param mail mail stage the jobs hand the reminders to
+     * @param outbox outbox the jobs record the reminders in, null to hand them to the mail stage directly
+     * @param batcher batcher the jobs add the reminders to, null to execute every reminder on its own
+     */
+    public ReminderJobFactory(DataRepository repository, MailStage mail, MailOutbox outbox, ReminderBatcher batcher) {
+        this.repository = repository;
+        this.mail = mail;
+        this.outbox = outbox;
+        this.batcher = batcher;
+    }
+
+    @Override
+    public Job newJob(TriggerFiredBundle bundle, Scheduler scheduler) throws SchedulerException {
+        Job job = super.newJob(bundle, scheduler);
+        if (job instanceof EventReminderJob) {
+            ((EventReminderJob) job).setRepository(repository);
+            ((EventReminderJob) job).setMailStage(mail);
+            ((EventReminderJob) job).setOutbox(outbox);
+            ((EventReminderJob) job).setBatcher(batcher);
+        }
+        return job;
+    }
+}
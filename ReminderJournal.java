@@ -0,0 +1,274 @@
+package Utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-mapped snapshot and append-log of the pending offset reminders, so that an in-memory job store can be
+ * refilled on restart without rescheduling every event.
+ *
+ * <p>
+ * The file is a 16 byte header (magic, format version, end of the valid data) followed by fixed-size 20 byte
+ * records:
+ * </p>
+ * <pre>
+ *      int eventID | int offsetSeconds | long fireAtEpochMillis | int type (1 = pending, 0 = removed)
+ * </pre>
+ * <p>
+ * {@link #compact()} rewrites the file as a snapshot holding one record per pending reminder, every change after
+ * that is appended. Replaying the records in order therefore yields the pending reminders. A record is only
+ * counted once the header points past it, so a record torn by a crash is ignored. Writes land in the page cache
+ * and survive a crash of the process; {@link #force()} makes them survive a crash of the machine.
+ * </p>
+ *
+ * <pre>
+ *      reminder.journal.file = data/reminders.journal
+ * </pre>
+ *
+ * @see QuartzReminder
+ */
+public class ReminderJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReminderJournal.class);
+
+    static final int MAGIC = 0x524d4a31; // "RMJ1"
+    static final int FORMAT = 1;
+    static final int HEADER = 16;
+    static final int RECORD = 20;
+
+    private static final int END_POSITION = 8;
+    private static final int PENDING = 1;
+    private static final int REMOVED = 0;
+
+    /**
+     * receives the pending reminders of {@link ReminderJournal#forEachPending(Visitor)}
+     */
+    public interface Visitor {
+        void visit(int eventID, int offsetSeconds, long fireAtMillis);
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+
+    /**
+     * <p>Opens the journal, creating it if it does not exist.</p>
+     * @param path
+     * @param initialBytes size mapped for a new file, grown by doubling
+     * @throws IOException if the file is not a journal
+     */
+    public ReminderJournal(Path path, int initialBytes) throws IOException {
+        this.path = path;
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        boolean exists = Files.exists(path) && Files.size(path) >= HEADER;
+        open(exists ? Files.size(path) : Math.max(initialBytes, HEADER + RECORD));
+        if (exists) {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT)
+                throw new IOException(path + " is not a reminder journal");
+            end = (int) Math.min(buffer.getLong(END_POSITION), buffer.capacity());
+            end -= (end - HEADER) % RECORD;
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT);
+            setEnd(HEADER);
+        }
+    }
+
+    private void open(long size) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void setEnd(int end) {
+        this.end = end;
+        buffer.putLong(END_POSITION, end);
+    }
+
+    /**
+     * <p>Records that the reminder fired {@code offsetSeconds} before the event is pending at {@code fireAtMillis},
+     * replacing what was recorded for the same event and offset.</p>
+     *
+     * @param eventID
+     * @param offsetSeconds
+     * @param fireAtMillis
+     */
+    public synchronized void put(int eventID, int offsetSeconds, long fireAtMillis) {
+        append(eventID, offsetSeconds, fireAtMillis, PENDING);
+    }
+
+    /**
+     * <p>Records that the reminder fired {@code offsetSeconds} before the event is no longer pending.</p>
+     *
+     * @param eventID
+     * @param offsetSeconds
+     */
+    public synchronized void remove(int eventID, int offsetSeconds) {
+        append(eventID, offsetSeconds, 0, REMOVED);
+    }
+
+    private void append(int eventID, int offsetSeconds, long fireAtMillis, int type) {
+        if (end + RECORD > buffer.capacity()) {
+            try {
+                makeRoom();
+            } catch (IOException e) {
+                throw new IllegalStateException("could not grow " + path, e);
+            }
+        }
+        buffer.putInt(end, eventID);
+        buffer.putInt(end + 4, offsetSeconds);
+        buffer.putLong(end + 8, fireAtMillis);
+        buffer.putInt(end + 16, type);
+        setEnd(end + RECORD);
+    }
+
+    /**
+     * <p>Compacts the log, and doubles the mapping if the snapshot still fills more than half of it.</p>
+     */
+    private void makeRoom() throws IOException {
+        compact();
+        if (end + RECORD > buffer.capacity() / 2) {
+            long size = (long) buffer.capacity() * 2;
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " would exceed 2GB");
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * <p>Replays the file and hands every pending reminder to the visitor, in no particular order.</p>
+     *
+     * @param visitor
+     * @return number of pending reminders
+     */
+    public synchronized int forEachPending(Visitor visitor) {
+        int[] count = new int[1];
+        replay().forEach((eventID, entries) -> {
+            for (int j = 0; j < entries.length; j += 2) {
+                visitor.visit(eventID, (int) entries[j], entries[j + 1]);
+            }
+            count[0] += entries.length / 2;
+        });
+        return count[0];
+    }
+
+    /**
+     * @return pending reminders by event ID, as (offsetSeconds, fireAtMillis) pairs
+     */
+    private IntObjectMap<long[]> replay() {
+        IntObjectMap<long[]> pending = new IntObjectMap<>(Math.max(16, (end - HEADER) / RECORD / 4));
+        for (int i = HEADER; i < end; i += RECORD) {
+            int eventID = buffer.getInt(i);
+            int offsetSeconds = buffer.getInt(i + 4);
+            long fireAt = buffer.getLong(i + 8);
+            boolean isPending = buffer.getInt(i + 16) == PENDING;
+
+            long[] entries = pending.get(eventID);
+            int found = -1;
+            if (entries != null) {
+                for (int j = 0; j < entries.length; j += 2) {
+                    if (entries[j] == offsetSeconds)
+                        found = j;
+                }
+            }
+            if (isPending) {
+                if (found >= 0) {
+                    entries[found + 1] = fireAt;
+                } else {
+                    long[] grown = entries == null ? new long[2] : Arrays.copyOf(entries, entries.length + 2);
+                    grown[grown.length - 2] = offsetSeconds;
+                    grown[grown.length - 1] = fireAt;
+                    pending.put(eventID, grown);
+                }
+            } else if (found >= 0) {
+                if (entries.length == 2) {
+                    pending.remove(eventID);
+                } else {
+                    long[] shrunk = new long[entries.length - 2];
+                    System.arraycopy(entries, 0, shrunk, 0, found);
+                    System.arraycopy(entries, found + 2, shrunk, found, entries.length - found - 2);
+                    pending.put(eventID, shrunk);
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * <p>Rewrites the journal as a snapshot of the pending reminders only. The snapshot is written to a temporary
+     * file and moved over the journal, so a crash leaves either the old or the new file.</p>
+     *
+     * @return number of pending reminders
+     * @throws IOException
+     */
+    public synchronized int compact() throws IOException {
+        int before = (end - HEADER) / RECORD;
+        Path snapshot = path.resolveSibling(path.getFileName() + ".snapshot");
+        IntObjectMap<long[]> pending = replay();
+        int[] count = new int[1];
+        pending.forEach((eventID, entries) -> count[0] += entries.length / 2);
+        try (FileChannel out = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(buffer.capacity(), HEADER + (long) count[0] * RECORD));
+            target.putInt(0, MAGIC);
+            target.putInt(4, FORMAT);
+            int[] position = {HEADER};
+            pending.forEach((eventID, entries) -> {
+                for (int j = 0; j < entries.length; j += 2) {
+                    target.putInt(position[0], eventID);
+                    target.putInt(position[0] + 4, (int) entries[j]);
+                    target.putLong(position[0] + 8, entries[j + 1]);
+                    target.putInt(position[0] + 16, PENDING);
+                    position[0] += RECORD;
+                }
+            });
+            target.putLong(END_POSITION, position[0]);
+            target.force();
+        }
+        channel.close();
+        Files.move(snapshot, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(Files.size(path));
+        end = (int) buffer.getLong(END_POSITION);
+        logger.debug("journal compacted from {} to {} records", before, count[0]);
+        return count[0];
+    }
+
+    /**
+     * <p>Forgets every reminder.</p>
+     */
+    public synchronized void clear() {
+        setEnd(HEADER);
+    }
+
+    /**
+     * @return number of records in the file, pending or not
+     */
+    public synchronized int getRecordCount() {
+        return (end - HEADER) / RECORD;
+    }
+
+    /**
+     * <p>Writes the mapped pages to the disk.</p>
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
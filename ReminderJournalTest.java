@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.quartz.Scheduler;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+
+import Utilities.CatchUpPolicy;
+import Utilities.EventReminderJob;
+import Utilities.QuartzReminder;
+import Utilities.ReminderFactory;
+import Utilities.ReminderJournal;
+import entities.Event;
+import repositories.InMemoryDataRepository;
+
+public class ReminderJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private Map<String, Long> pending(ReminderJournal journal) {
+        Map<String, Long> result = new HashMap<>();
+        journal.forEachPending((eventID, offsetSeconds, fireAtMillis) -> result.put(eventID + ":" + offsetSeconds, fireAtMillis));
+        return result;
+    }
+
+    @Test
+    public void testReplayAfterReopenAndCompact() throws Exception {
+        Path file = dir.resolve("reminders.journal");
+        // small enough to force a compaction and a growth of the mapping
+        try (ReminderJournal journal = new ReminderJournal(file, 64)) {
+            for (int i = 0; i < 100; i++) {
+                journal.put(i, 3600, 1000L * i);
+            }
+            journal.put(1, 3600, 42);
+            journal.remove(2, 3600);
+            journal.remove(3, 900);
+        }
+        try (ReminderJournal journal = new ReminderJournal(file, 64)) {
+            Map<String, Long> pending = pending(journal);
+            assertEquals(99, pending.size());
+            assertEquals(42L, pending.get("1:3600"));
+            assertEquals(5000L, pending.get("5:3600"));
+            assertEquals(null, pending.get("2:3600"));
+
+            assertEquals(99, journal.compact());
+            assertEquals(99, journal.getRecordCount());
+            assertEquals(pending, pending(journal));
+
+            journal.clear();
+            assertEquals(0, journal.forEachPending((eventID, offsetSeconds, fireAtMillis) -> { }));
+        }
+    }
+
+    private Path journaledConfig() throws Exception {
+        Properties properties = ReminderFactory.loadProperties(QuartzReminder.CONFIG_FILE);
+        properties.setProperty("reminder.journal.file", dir.resolve("reminders.journal").toString());
+        Path config = dir.resolve("quartz.properties");
+        try (OutputStream out = Files.newOutputStream(config)) {
+            properties.store(out, null);
+        }
+        return config;
+    }
+
+    @Test
+    public void testRestartRestoresPendingReminders() throws Exception {
+        Path config = journaledConfig();
+
+        InMemoryDataRepository repository = new InMemoryDataRepository();
+        Instant tomorrow = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.DAYS);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(new Event(i, "event " + i, "organizer", tomorrow, 1, Arrays.asList("name1")));
+        }
+        List<Duration> offsets = Arrays.asList(Duration.ofHours(1), Duration.ofMinutes(15));
+
+        QuartzReminder reminder = new QuartzReminder(repository, config.toString());
+        try {
+            reminder.sendNotifications(events, offsets);
+            reminder.cancelEvent(3);
+            reminder.removeNotification(4, Duration.ofMinutes(15));
+        } finally {
+            reminder.shutdown();
+        }
+
+        reminder = new QuartzReminder(repository, config.toString());
+        try {
+            assertEquals(2, reminder.getTriggerKeys(0).size());
+            assertEquals(0, reminder.getTriggerKeys(3).size());
+            assertEquals(1, reminder.getTriggerKeys(4).size());
+            assertEquals(tomorrow.minus(1, ChronoUnit.HOURS),
+                    reminder.getScheduler().getTrigger(reminder.buildTriggerKey(4, Duration.ofHours(1))).getStartTime().toInstant());
+        } finally {
+            reminder.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestartRestoresDeferredReminder() throws Exception {
+        Path config = journaledConfig();
+        InMemoryDataRepository repository = new InMemoryDataRepository();
+        Instant tomorrow = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(1, ChronoUnit.DAYS);
+        Event event = new Event(1, "event 1", "organizer", tomorrow, 1, Arrays.asList("name1"));
+        TriggerKey key = new TriggerKey("1-3600", QuartzReminder.REMINDER_GROUP);
+
+        QuartzReminder reminder = new QuartzReminder(repository, config.toString());
+        try {
+            reminder.sendNotification(event, Duration.ofHours(1));
+            // what the catch-up policy does with a late fire: release it later, then drop the vetoed trigger
+            Scheduler scheduler = reminder.getScheduler();
+            Trigger late = scheduler.getTrigger(key);
+            scheduler.scheduleJob(TriggerBuilder.newTrigger()
+                    .forJob(late.getJobKey())
+                    .withIdentity("1-3600-catchup", QuartzReminder.REMINDER_GROUP)
+                    .usingJobData(late.getJobDataMap())
+                    .usingJobData(CatchUpPolicy.CATCH_UP, true)
+                    .startAt(Date.from(tomorrow.minus(30, ChronoUnit.MINUTES)))
+                    .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+                    .build());
+            scheduler.unscheduleJob(key);
+        } finally {
+            reminder.shutdown();
+        }
+
+        reminder = new QuartzReminder(repository, config.toString());
+        try {
+            Trigger restored = reminder.getScheduler().getTrigger(key);
+            assertEquals(tomorrow.minus(1, ChronoUnit.HOURS), restored.getStartTime().toInstant());
+            assertEquals(tomorrow.toEpochMilli(), restored.getJobDataMap().getLong(EventReminderJob.EVENT_START));
+        } finally {
+            reminder.shutdown();
+        }
+    }
+}
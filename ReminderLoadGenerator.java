@@ -0,0 +1,345 @@
+package Utilities;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import entities.Event;
+import entities.User;
+import repositories.InMemoryDataRepository;
+
+/**
+ * Macro-benchmark of {@link QuartzReminder}: schedules a synthetic population of reminders, lets them fire, and
+ * reports throughput, fire lag, heap and threads.
+ *
+ * <p>
+ * Events and users are generated from a fixed seed into an {@link InMemoryDataRepository}, so two runs with the
+ * same options schedule the same reminders. Every event gets one reminder, its offset drawn from a mix of near-term
+ * and far-horizon offsets, and the fire times are spread evenly over <code>seconds</code>, starting
+ * <code>lead</code> seconds after the run started so that scheduling is done first. The mails go through the real
+ * {@link MailDispatcher} and {@link SmtpMailSink} to a {@link FakeSmtpServer} on the loopback interface.
+ * </p>
+ * <p>
+ * The configuration is read from <code>config</code> and adjusted for the run: the mail settings point at the fake
+ * server, the digest window and the SMTP pacing are off, and the retry directory, journal and outbox are dropped.
+ * Any option whose name contains a dot overrides that property, e.g. <code>reminder.batch.windowMillis=200</code>.
+ * </p>
+ *
+ * <pre>
+ *      gradle loadTest --args="events=1000000 users=200000 participants=3 seconds=120 lead=60"
+ *
+ *      events=100000        reminders to schedule, one per event
+ *      users=50000          users the participants are drawn from
+ *      participants=3       mean participants per event
+ *      largeEvery=0         every n-th event gets largeSize participants, 0 for none
+ *      largeSize=5000
+ *      seconds=60           window the fire times are spread over
+ *      lead=20              seconds from the start of the run to the first fire
+ *      drainSeconds=120     how long to wait for the reminders after the last fire time
+ *      seed=42
+ *      config=src/main/resources/quartz.properties
+ * </pre>
+ */
+public class ReminderLoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReminderLoadGenerator.class);
+
+    /** offsets the reminders are drawn from, in the proportions of a calendar using every offset */
+    private static final Duration[] OFFSETS = {
+            Duration.ofMinutes(5), Duration.ofMinutes(10), Duration.ofMinutes(15), Duration.ofMinutes(30),
+            Duration.ofHours(1), Duration.ofDays(3), Duration.ofDays(7) };
+
+    private static final int SCHEDULE_BATCH = 10_000;
+
+    private enum Option {
+        events("100000"), users("50000"), participants("3"), largeEvery("0"), largeSize("5000"), seconds("60"),
+        lead("20"), drainSeconds("120"), seed("42"), config(QuartzReminder.CONFIG_FILE);
+
+        final String defaultValue;
+
+        Option(String defaultValue) {
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.out.println(run(options));
+    }
+
+    /**
+     * <p>Runs the load test, see the class comment for the options.</p>
+     *
+     * @param options by name, the missing ones take their default
+     * @return what was measured
+     * @throws Exception
+     */
+    public static Report run(Map<String, String> options) throws Exception {
+        Map<Option, String> settings = new EnumMap<>(Option.class);
+        Properties overrides = new Properties();
+        for (Option option : Option.values()) {
+            settings.put(option, option.defaultValue);
+        }
+        for (Map.Entry<String, String> e : options.entrySet()) {
+            if (e.getKey().contains(".")) {
+                overrides.setProperty(e.getKey(), e.getValue());
+                continue;
+            }
+            try {
+                settings.put(Option.valueOf(e.getKey()), e.getValue());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("unknown option " + e.getKey(), ex);
+            }
+        }
+        int events = Integer.parseInt(settings.get(Option.events));
+        int users = Integer.parseInt(settings.get(Option.users));
+        int participants = Integer.parseInt(settings.get(Option.participants));
+        int largeEvery = Integer.parseInt(settings.get(Option.largeEvery));
+        int largeSize = Integer.parseInt(settings.get(Option.largeSize));
+        long windowMillis = Long.parseLong(settings.get(Option.seconds)) * 1000;
+        long leadMillis = Long.parseLong(settings.get(Option.lead)) * 1000;
+        long drainMillis = Long.parseLong(settings.get(Option.drainSeconds)) * 1000;
+        Random random = new Random(Long.parseLong(settings.get(Option.seed)));
+
+        long startedAt = System.currentTimeMillis();
+        InMemoryDataRepository repository = new InMemoryDataRepository();
+        List<String> names = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String name = "user" + i;
+            names.add(name);
+            repository.putUser(new User(name, name + "@load.test"));
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Report report = new Report();
+        report.generated = events;
+
+        try (FakeSmtpServer smtp = new FakeSmtpServer(0)) {
+            Properties properties = ReminderFactory.loadProperties(settings.get(Option.config));
+            configure(properties, smtp.getPort());
+            properties.putAll(overrides);
+            Path configFile = Files.createTempFile("reminder-load", ".properties");
+            try {
+                try (OutputStream out = Files.newOutputStream(configFile)) {
+                    properties.store(out, "ReminderLoadGenerator");
+                }
+                threads.resetPeakThreadCount();
+
+                // owns the scheduler and the whole mail stage, its shutdown stops every thread the run started
+                QuartzReminder reminder = new QuartzReminder(repository, configFile.toString());
+                MailDispatcher dispatcher = reminder.getMailStage().getDispatcher();
+                try {
+                    long firstFire = startedAt + leadMillis;
+                    Map<Duration, List<Event>> pending = new LinkedHashMap<>();
+                    long scheduleStarted = System.nanoTime();
+                    for (int i = 0; i < events; i++) {
+                        Duration offset = OFFSETS[random.nextInt(OFFSETS.length)];
+                        long fireAt = firstFire + (long) (random.nextDouble() * windowMillis);
+                        int size = largeEvery > 0 && i % largeEvery == largeEvery - 1 ? largeSize
+                                : 1 + random.nextInt(Math.max(1, 2 * participants - 1));
+                        size = Math.min(size, users);
+                        int first = random.nextInt(users);
+                        List<String> eventParticipants = new ArrayList<>(size);
+                        for (int k = 0; k < size; k++) {
+                            eventParticipants.add(names.get((first + k) % users));
+                        }
+                        Event event = new Event(i, "load event " + i, "load organizer",
+                                Instant.ofEpochMilli(fireAt).plus(offset), 1, eventParticipants);
+                        repository.putEvent(event);
+                        report.participants += size;
+
+                        List<Event> batch = pending.computeIfAbsent(offset, o -> new ArrayList<>(SCHEDULE_BATCH));
+                        batch.add(event);
+                        if (batch.size() == SCHEDULE_BATCH) {
+                            report.scheduled += schedule(reminder, batch, offset);
+                            batch.clear();
+                        }
+                    }
+                    for (Map.Entry<Duration, List<Event>> e : pending.entrySet()) {
+                        report.scheduled += schedule(reminder, e.getValue(), e.getKey());
+                    }
+                    report.scheduleMillis = (System.nanoTime() - scheduleStarted) / 1_000_000;
+                    if (report.scheduled < report.generated)
+                        logger.warn("{} reminders were due before they could be scheduled, raise lead",
+                                report.generated - report.scheduled);
+
+                    ReminderMetrics metrics = reminder.getMetrics();
+                    long deadline = firstFire + windowMillis + drainMillis;
+                    long lastProgress = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        Thread.sleep(200);
+                        report.peakHeapBytes = Math.max(report.peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+                        long executed = metrics.getJobExecution().getCount();
+                        long now = System.currentTimeMillis();
+                        if (now - lastProgress >= 5000) {
+                            lastProgress = now;
+                            logger.info("{} of {} reminders executed, {} mails received, {} queued", executed,
+                                    report.scheduled, smtp.getMessageCount(), dispatcher.getQueueDepth());
+                        }
+                        if (executed >= report.scheduled && dispatcher.getQueueDepth() == 0
+                                && (smtp.getRecipientCount() >= report.participants || now - smtp.getLastMessageAt() > 2000))
+                            break;
+                    }
+                    long finishedAt = Math.max(smtp.getLastMessageAt(), firstFire + 1);
+
+                    report.executed = metrics.getJobExecution().getCount();
+                    report.misfires = metrics.getMisfireCount();
+                    report.fireLag = metrics.getFireLag();
+                    report.urgentFireLag = metrics.getUrgentFireLag();
+                    report.jobExecution = metrics.getJobExecution();
+                    report.mailLatency = dispatcher.getMailLatency();
+                    report.messages = smtp.getMessageCount();
+                    report.recipients = smtp.getRecipientCount();
+                    report.connections = smtp.getConnectionCount();
+                    report.firingMillis = finishedAt - firstFire;
+                    report.peakThreads = threads.getPeakThreadCount();
+                    report.threads = threads.getThreadCount();
+                    System.gc();
+                    report.retainedHeapBytes = memory.getHeapMemoryUsage().getUsed();
+                } finally {
+                    reminder.shutdown();
+                }
+            } finally {
+                Files.deleteIfExists(configFile);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * <p>Points the mail settings at the fake server and turns off what would slow the run down or write to disk.</p>
+     */
+    private static void configure(Properties properties, int smtpPort) {
+        properties.setProperty("org.quartz.scheduler.instanceName", "ReminderLoadGenerator");
+        properties.setProperty("spring.mail.host", "127.0.0.1");
+        properties.setProperty("spring.mail.port", Integer.toString(smtpPort));
+        properties.setProperty("spring.mail.username", "reminders@load.test");
+        properties.setProperty("spring.mail.password", "");
+        properties.setProperty("spring.mail.properties.mail.smtp.auth", "false");
+        properties.setProperty("spring.mail.properties.mail.smtp.starttls.enable", "false");
+        properties.setProperty("reminder.mail.ratePerSecond", "0");
+        properties.setProperty("reminder.digest.windowMillis", "0");
+        properties.remove("reminder.mail.retryDirectory");
+        properties.remove("reminder.journal.file");
+        properties.remove("reminder.outbox.file");
+    }
+
+    private static int schedule(QuartzReminder reminder, List<Event> events, Duration offset) throws Exception {
+        int scheduled = 0;
+        for (List<Instant> fireTimes : reminder.sendNotifications(events, Collections.singletonList(offset)).values()) {
+            scheduled += fireTimes.size();
+        }
+        return scheduled;
+    }
+
+    /**
+     * what one run measured, latencies in milliseconds
+     */
+    public static final class Report {
+        long generated;
+        long scheduled;
+        long participants;
+        long scheduleMillis;
+        long executed;
+        long misfires;
+        long messages;
+        long recipients;
+        long connections;
+        long firingMillis;
+        long peakHeapBytes;
+        long retainedHeapBytes;
+        int peakThreads;
+        int threads;
+        LatencyHistogram fireLag;
+        LatencyHistogram urgentFireLag;
+        LatencyHistogram jobExecution;
+        LatencyHistogram mailLatency;
+
+        /**
+         * @return reminders scheduled, less than generated if some were due before they could be scheduled
+         */
+        public long getScheduled() {
+            return scheduled;
+        }
+
+        /**
+         * @return reminder jobs executed
+         */
+        public long getExecuted() {
+            return executed;
+        }
+
+        /**
+         * @return participants of all the generated events, the recipients expected at the fake server
+         */
+        public long getParticipants() {
+            return participants;
+        }
+
+        /**
+         * @return recipients received by the fake server
+         */
+        public long getRecipients() {
+            return recipients;
+        }
+
+        public LatencyHistogram getFireLag() {
+            return fireLag;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(firingMillis, 1) / 1000.0;
+            StringBuilder s = new StringBuilder(1024);
+            s.append("reminders     ").append(scheduled).append(" scheduled of ").append(generated)
+                    .append(" in ").append(scheduleMillis).append(" ms (")
+                    .append(scheduleMillis == 0 ? "-" : Long.toString(scheduled * 1000 / scheduleMillis)).append("/s)\n");
+            s.append("executed      ").append(executed).append(" in ").append(firingMillis).append(" ms (")
+                    .append(String.format("%.0f", executed / seconds)).append("/s), ").append(misfires)
+                    .append(" misfires\n");
+            s.append("fire lag      ").append(percentiles(fireLag)).append('\n');
+            s.append("  urgent      ").append(percentiles(urgentFireLag)).append('\n');
+            s.append("job execution ").append(percentiles(jobExecution)).append('\n');
+            s.append("mails         ").append(messages).append(" to ").append(recipients).append(" of ")
+                    .append(participants).append(" recipients over ").append(connections).append(" connections (")
+                    .append(String.format("%.0f", messages / seconds)).append("/s)\n");
+            s.append("mail latency  ").append(percentiles(mailLatency)).append('\n');
+            s.append("heap          ").append(peakHeapBytes >> 20).append(" MB peak, ")
+                    .append(retainedHeapBytes >> 20).append(" MB after GC\n");
+            s.append("threads       ").append(peakThreads).append(" platform threads peak, ").append(threads)
+                    .append(" at the end");
+            return s.toString();
+        }
+
+        private static String percentiles(LatencyHistogram histogram) {
+            if (histogram == null || histogram.getCount() == 0)
+                return "-";
+            return "p50 " + histogram.getPercentile(50) + "  p99 " + histogram.getPercentile(99) + "  p999 "
+                    + histogram.getPercentile(99.9) + "  max " + histogram.getMax() + " ms (" + histogram.getCount()
+                    + ")";
+        }
+    }
+}
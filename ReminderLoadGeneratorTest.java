@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import Utilities.ReminderLoadGenerator;
+
+public class ReminderLoadGeneratorTest {
+
+    @Test
+    public void testEveryReminderReachesTheFakeServer() throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("events", "500");
+        options.put("users", "100");
+        options.put("participants", "3");
+        options.put("largeEvery", "250");
+        options.put("largeSize", "60");
+        options.put("seconds", "2");
+        options.put("lead", "3");
+        options.put("drainSeconds", "30");
+        ReminderLoadGenerator.Report report = ReminderLoadGenerator.run(options);
+
+        assertEquals(500, report.getScheduled());
+        assertEquals(500, report.getExecuted());
+        assertEquals(report.getParticipants(), report.getRecipients());
+        assertEquals(500, report.getFireLag().getCount());
+        assertTrue(report.toString().contains("p999"));
+    }
+
+    @Test
+    public void testRunStopsEveryThreadItStarted() throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("events", "50");
+        options.put("users", "20");
+        options.put("seconds", "1");
+        options.put("lead", "2");
+        options.put("drainSeconds", "10");
+        // also start the digest flusher and the batcher
+        options.put("reminder.digest.windowMillis", "50");
+        options.put("reminder.batch.windowMillis", "50");
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        ReminderLoadGenerator.Report report = ReminderLoadGenerator.run(options);
+        assertEquals(50, report.getExecuted());
+
+        List<String> left = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (thread.isAlive() && !before.contains(thread) && (name.startsWith("mail-") || name.startsWith("digest-")
+                    || name.startsWith("reminder-") || name.startsWith("ReminderLoadGenerator")
+                    || name.startsWith("fake-smtp")))
+                left.add(name);
+        }
+        assertTrue(left.isEmpty(), "threads left running: " + left);
+    }
+}
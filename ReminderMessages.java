@@ -0,0 +1,116 @@
+package Utilities;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Function;
+
+import entities.Event;
+import entities.User;
+
+/**
+ * Renders the reminder mails from {@link MessageTemplate}s, in the time zone of each recipient.
+ *
+ * <p>
+ * The templates are compiled once and every mail is rendered into one buffer sized from their length hints, so
+ * the text for one more recipient of a large event costs that buffer and the final <code>String</code>. The zone
+ * of a recipient comes from the zone resolver, by default the zone configured for all recipients.
+ * </p>
+ *
+ * <pre>
+ *      reminder.message.body = Upcoming event! {username}, {event} starts at {start}. excited?
+ *      reminder.message.digestHeader = Upcoming events! {username}
+ *      reminder.message.digestLine = \ - {event} at {start}
+ *      reminder.message.zone = UTC
+ *      reminder.message.locale = en
+ * </pre>
+ *
+ * @see EventReminderJob
+ * @see DigestCoalescer
+ */
+public class ReminderMessages {
+
+    static final String DEFAULT_BODY = "Upcoming event! {username}, {event} starts at {start}. excited?";
+    static final String DEFAULT_DIGEST_HEADER = "Upcoming events! {username}";
+    static final String DEFAULT_DIGEST_LINE = " - {event} at {start}";
+
+    private final MessageTemplate body;
+    private final MessageTemplate digestHeader;
+    private final MessageTemplate digestLine;
+    private final Function<User, ZoneId> zones;
+
+    /**
+     * <p>Constructor</p>
+     * @param body text of the mail for a single reminder
+     * @param digestHeader first line of a digest, rendered with the earliest of its events
+     * @param digestLine line of a digest per event
+     * @param zones time zone of each recipient
+     */
+    public ReminderMessages(MessageTemplate body, MessageTemplate digestHeader, MessageTemplate digestLine,
+            Function<User, ZoneId> zones) {
+        this.body = body;
+        this.digestHeader = digestHeader;
+        this.digestLine = digestLine;
+        this.zones = zones;
+    }
+
+    /**
+     * @param properties
+     * @return messages with the templates, zone and locale of the <code>reminder.message.*</code> properties
+     * @throws IllegalArgumentException if a template or the zone is invalid
+     */
+    public static ReminderMessages fromProperties(Properties properties) {
+        Locale locale = Locale.forLanguageTag(properties.getProperty("reminder.message.locale", "en").trim());
+        ZoneId zone = DateFormats.zone(properties.getProperty("reminder.message.zone", "UTC").trim());
+        return new ReminderMessages(
+                MessageTemplate.compile(properties.getProperty("reminder.message.body", DEFAULT_BODY), locale),
+                MessageTemplate.compile(properties.getProperty("reminder.message.digestHeader", DEFAULT_DIGEST_HEADER), locale),
+                MessageTemplate.compile(properties.getProperty("reminder.message.digestLine", DEFAULT_DIGEST_LINE), locale),
+                user -> zone);
+    }
+
+    /**
+     * @param user
+     * @param event
+     * @return the reminder of the event for the user
+     */
+    public MailMessage reminder(User user, Event event) {
+        ReminderFlightEvents.Render render = new ReminderFlightEvents.Render();
+        render.begin();
+        StringBuilder buffer = new StringBuilder(body.getLengthHint());
+        body.renderTo(buffer, user, event, zones.apply(user));
+        commit(render, event, 1, buffer);
+        return new MailMessage("reminder", buffer.toString(), new String[] {user.email});
+    }
+
+    /**
+     * @param user
+     * @param events sorted by start
+     * @return one mail listing all the events for the user
+     */
+    public MailMessage digest(User user, List<Event> events) {
+        ReminderFlightEvents.Render render = new ReminderFlightEvents.Render();
+        render.begin();
+        ZoneId zone = zones.apply(user);
+        StringBuilder buffer = new StringBuilder(
+                digestHeader.getLengthHint() + 1 + events.size() * (digestLine.getLengthHint() + 1));
+        digestHeader.renderTo(buffer, user, events.get(0), zone).append('\n');
+        for (Event event : events) {
+            digestLine.renderTo(buffer, user, event, zone).append('\n');
+        }
+        commit(render, events.get(0), events.size(), buffer);
+        return new MailMessage("reminder: " + events.size() + " upcoming events", buffer.toString(),
+                new String[] {user.email});
+    }
+
+    private static void commit(ReminderFlightEvents.Render render, Event event, int events, StringBuilder buffer) {
+        render.end();
+        if (render.shouldCommit()) {
+            render.eventID = event.eventID;
+            render.events = events;
+            render.characters = buffer.length();
+            render.commit();
+        }
+    }
+}
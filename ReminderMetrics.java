@@ -0,0 +1,276 @@
+package Utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.TriggerListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fire lag, job execution time, mail latency and misfires of the reminders, recorded by listening on the scheduler
+ * and published over JMX.
+ *
+ * <p>
+ * The fire lag is the difference between the time Quartz fired a trigger and the time the reminder was due, which
+ * is the number to watch under load. It is measured from the original due time, see
+ * {@link EventReminderJob#dueAt}, because misfire handling resets the scheduled fire time of a late trigger to the
+ * moment it fires. It is also recorded apart for the triggers of {@link QuartzReminder#PRIORITY_URGENT} and above,
+ * whose lag should stay flat while the others slip. Mail latency and queue depth come from the
+ * {@link MailDispatcher} of the reminder, reading them over JMX never creates one.
+ * </p>
+ *
+ * <pre>
+ *      jconsole -&gt; MBeans -&gt; Utilities -&gt; ReminderMetrics -&gt; FireLagP99
+ * </pre>
+ *
+ * @see QuartzReminder
+ * @see LatencyHistogram
+ */
+public class ReminderMetrics implements ReminderMetricsMXBean, TriggerListener, JobListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReminderMetrics.class);
+
+    private final LatencyHistogram fireLag = new LatencyHistogram();
+    private final LatencyHistogram urgentFireLag = new LatencyHistogram();
+    private final LatencyHistogram jobExecution = new LatencyHistogram();
+    private final AtomicLong misfires = new AtomicLong();
+    private final AtomicInteger executing = new AtomicInteger();
+    private final MailDispatcher dispatcher;
+
+    private ObjectName objectName;
+
+    /**
+     * <p>Constructor</p>
+     * @param dispatcher mail stage the mail latency and queue depth are read from
+     */
+    public ReminderMetrics(MailDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * <p>Creates the metrics, registers them as trigger and job listener of the scheduler and publishes them
+     * on the platform MBean server.</p>
+     *
+     * @param scheduler
+     * @param dispatcher mail stage the mail latency and queue depth are read from
+     * @return the installed metrics
+     * @throws SchedulerException
+     */
+    public static ReminderMetrics install(Scheduler scheduler, MailDispatcher dispatcher) throws SchedulerException {
+        ReminderMetrics metrics = new ReminderMetrics(dispatcher);
+        scheduler.getListenerManager().addTriggerListener(metrics);
+        scheduler.getListenerManager().addJobListener(metrics);
+        metrics.register(scheduler.getSchedulerName());
+        return metrics;
+    }
+
+    private void register(String schedulerName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("Utilities:type=ReminderMetrics,name=" + ObjectName.quote(schedulerName));
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // left behind by a scheduler of the same name that was not shut down
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            objectName = name;
+        } catch (JMException e) {
+            logger.warn("could not publish the reminder metrics over JMX", e);
+        }
+    }
+
+    /**
+     * <p>Removes the MBean, called when the scheduler shuts down.</p>
+     */
+    public void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("could not unregister {}", objectName, e);
+        }
+        objectName = null;
+    }
+
+    public LatencyHistogram getFireLag() {
+        return fireLag;
+    }
+
+    public LatencyHistogram getUrgentFireLag() {
+        return urgentFireLag;
+    }
+
+    public LatencyHistogram getJobExecution() {
+        return jobExecution;
+    }
+
+    @Override
+    public String getName() {
+        return "reminderMetrics";
+    }
+
+    // TriggerListener
+
+    @Override
+    public void triggerFired(Trigger trigger, JobExecutionContext context) {
+        long lag = context.getFireTime().getTime() - EventReminderJob.dueAt(context);
+        fireLag.record(lag);
+        if (trigger.getPriority() >= QuartzReminder.PRIORITY_URGENT)
+            urgentFireLag.record(lag);
+    }
+
+    @Override
+    public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+        return false;
+    }
+
+    @Override
+    public void triggerMisfired(Trigger trigger) {
+        misfires.incrementAndGet();
+    }
+
+    @Override
+    public void triggerComplete(Trigger trigger, JobExecutionContext context,
+            CompletedExecutionInstruction triggerInstructionCode) {
+    }
+
+    // JobListener
+
+    @Override
+    public void jobToBeExecuted(JobExecutionContext context) {
+        executing.incrementAndGet();
+    }
+
+    @Override
+    public void jobExecutionVetoed(JobExecutionContext context) {
+    }
+
+    @Override
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+        executing.decrementAndGet();
+        jobExecution.record(context.getJobRunTime());
+    }
+
+    // ReminderMetricsMXBean
+
+    @Override
+    public long getFireLagCount() {
+        return fireLag.getCount();
+    }
+
+    @Override
+    public long getFireLagP50() {
+        return fireLag.getPercentile(50);
+    }
+
+    @Override
+    public long getFireLagP99() {
+        return fireLag.getPercentile(99);
+    }
+
+    @Override
+    public long getFireLagP999() {
+        return fireLag.getPercentile(99.9);
+    }
+
+    @Override
+    public long getFireLagMax() {
+        return fireLag.getMax();
+    }
+
+    @Override
+    public long getUrgentFireLagP99() {
+        return urgentFireLag.getPercentile(99);
+    }
+
+    @Override
+    public long getUrgentFireLagP999() {
+        return urgentFireLag.getPercentile(99.9);
+    }
+
+    @Override
+    public long getJobExecutionP50() {
+        return jobExecution.getPercentile(50);
+    }
+
+    @Override
+    public long getJobExecutionP99() {
+        return jobExecution.getPercentile(99);
+    }
+
+    @Override
+    public long getJobExecutionP999() {
+        return jobExecution.getPercentile(99.9);
+    }
+
+    @Override
+    public long getJobExecutionMax() {
+        return jobExecution.getMax();
+    }
+
+    @Override
+    public long getMailLatencyCount() {
+        return dispatcher.getMailLatency().getCount();
+    }
+
+    @Override
+    public long getMailLatencyP50() {
+        return dispatcher.getMailLatency().getPercentile(50);
+    }
+
+    @Override
+    public long getMailLatencyP99() {
+        return dispatcher.getMailLatency().getPercentile(99);
+    }
+
+    @Override
+    public long getMailLatencyP999() {
+        return dispatcher.getMailLatency().getPercentile(99.9);
+    }
+
+    @Override
+    public long getMailLatencyMax() {
+        return dispatcher.getMailLatency().getMax();
+    }
+
+    @Override
+    public long getMisfireCount() {
+        return misfires.get();
+    }
+
+    @Override
+    public int getMailQueueDepth() {
+        return dispatcher.getQueueDepth();
+    }
+
+    @Override
+    public int getExecutingJobs() {
+        return executing.get();
+    }
+
+    @Override
+    public void reset() {
+        fireLag.reset();
+        urgentFireLag.reset();
+        jobExecution.reset();
+        misfires.set(0);
+        dispatcher.getMailLatency().reset();
+    }
+}
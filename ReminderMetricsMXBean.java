@@ -0,0 +1,45 @@
+package Utilities;
+
+/**
+ * JMX view of {@link ReminderMetrics}, registered as <code>Utilities:type=ReminderMetrics,name=&lt;scheduler&gt;</code>.
+ *
+ * <p>All latencies are in milliseconds.</p>
+ */
+public interface ReminderMetricsMXBean {
+
+    /** lag between the scheduled and the actual fire time of the triggers */
+    long getFireLagCount();
+    long getFireLagP50();
+    long getFireLagP99();
+    long getFireLagP999();
+    long getFireLagMax();
+
+    /** fire lag of the reminders fired an hour or less before their event */
+    long getUrgentFireLagP99();
+    long getUrgentFireLagP999();
+
+    /** run time of the reminder jobs */
+    long getJobExecutionP50();
+    long getJobExecutionP99();
+    long getJobExecutionP999();
+    long getJobExecutionMax();
+
+    /** time from queueing a mail to its delivery, per recipient */
+    long getMailLatencyCount();
+    long getMailLatencyP50();
+    long getMailLatencyP99();
+    long getMailLatencyP999();
+    long getMailLatencyMax();
+
+    /** number of triggers that missed their fire time by more than the misfire threshold */
+    long getMisfireCount();
+
+    /** mails waiting in the queue of the dispatcher */
+    int getMailQueueDepth();
+
+    /** reminder jobs running right now */
+    int getExecutingJobs();
+
+    /** forget everything recorded so far */
+    void reset();
+}
@@ -6,12 +6,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.junit.jupiter.api.BeforeEach;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
+
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
 
+import ReminderAPI.ReminderHandle;
 import Utilities.EventReminderJob;
 import Utilities.QuartzReminder;
 import entities.Event;
@@ -100,4 +111,88 @@ public class ReminderTest {
 
         EasyMock.verifyRecording(repository);
     }
+
+    @Test
+    public void testBulkScheduling() throws Exception {
+        var reminder = new QuartzReminder(repository);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            events.add(new Event(100 + i, "bulk event", "test organizer", Instant.now().plus(2, ChronoUnit.DAYS), 1, Arrays.asList("name1")));
+        }
+        // the 1 week offset is already in the past and must be skipped
+        Map<Integer, List<Instant>> scheduled = reminder.sendNotifications(events,
+                Arrays.asList(Duration.ofDays(7), Duration.ofHours(1), Duration.ofMinutes(5)));
+
+        assertEquals(10, scheduled.size());
+        for (List<Instant> fireTimes : scheduled.values()) {
+            assertEquals(2, fireTimes.size());
+        }
+        reminder.shutdown();
+    }
+
+    @Test
+    public void testSeveralOffsetsShareOneJob() throws Exception {
+        var reminder = new QuartzReminder(repository);
+        Event event = new Event(200, "offset event", "test organizer", Instant.now().plus(8, ChronoUnit.DAYS), 1, Arrays.asList("name1"));
+        reminder.sendMailBefore1Week(testUser, event);
+        reminder.sendMailBefore5Min(testUser, event);
+        reminder.sendMailBefore5Min(testUser, event);
+
+        assertEquals(2, reminder.getScheduler().getTriggersOfJob(reminder.buildJobKey(200)).size());
+
+        reminder.removeNotification(200, Duration.ofDays(7));
+        assertEquals(1, reminder.getScheduler().getTriggersOfJob(reminder.buildJobKey(200)).size());
+        reminder.shutdown();
+    }
+
+    @Test
+    public void testSendMailReturnsHandle() throws Exception {
+        var reminder = new QuartzReminder(repository);
+        ReminderHandle handle = reminder.sendMail(3);
+
+        assertEquals(ReminderHandle.Status.PENDING, handle.getStatus());
+        assertTrue(handle.reschedule(handle.getFireTime().plus(1, ChronoUnit.HOURS)));
+        assertTrue(handle.cancel());
+        assertEquals(ReminderHandle.Status.CANCELLED, handle.getStatus());
+        assertTrue(handle.whenFired().isCancelled());
+        reminder.shutdown();
+    }
+
+    @Test
+    public void testFixedTimeReminderPriorityFollowsTimeUntilFire() throws Exception {
+        var reminder = new QuartzReminder(repository);
+        Instant soon = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(10, ChronoUnit.MINUTES);
+        Instant later = soon.plus(3, ChronoUnit.DAYS);
+        reminder.sendNotification(4, soon);
+        reminder.sendNotification(5, later);
+
+        assertEquals(QuartzReminder.PRIORITY_URGENT, reminder.getScheduler()
+                .getTrigger(new TriggerKey("4@" + soon.getEpochSecond(), QuartzReminder.REMINDER_GROUP)).getPriority());
+        assertEquals(Trigger.DEFAULT_PRIORITY, reminder.getScheduler()
+                .getTrigger(new TriggerKey("5@" + later.getEpochSecond(), QuartzReminder.REMINDER_GROUP)).getPriority());
+        reminder.shutdown();
+    }
+
+    @Test
+    public void testCancelAndRescheduleByEvent() throws Exception {
+        var reminder = new QuartzReminder(repository);
+        Event event = new Event(300, "moved event", "test organizer", Instant.now().plus(2, ChronoUnit.DAYS), 1, Arrays.asList("name1"));
+        reminder.sendMailBefore1Hour(testUser, event);
+        reminder.sendMailBefore15Min(testUser, event);
+        reminder.sendMailBefore5Min(testUser, event);
+        assertEquals(3, reminder.getTriggerKeys(300).size());
+
+        // moved to 30 minutes from now: the 1 hour reminder is already past and goes away
+        Instant moved = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(30, ChronoUnit.MINUTES);
+        List<Instant> fireTimes = reminder.rescheduleEvent(new Event(300, "moved event", "test organizer", moved, 1, Arrays.asList("name1")));
+        assertEquals(2, fireTimes.size());
+        assertEquals(2, reminder.getTriggerKeys(300).size());
+        assertEquals(moved.minus(Duration.ofMinutes(5)),
+                reminder.getScheduler().getTrigger(reminder.buildTriggerKey(300, Duration.ofMinutes(5))).getStartTime().toInstant());
+
+        assertEquals(2, reminder.cancelEvents(Arrays.asList(300, 301)));
+        assertEquals(0, reminder.getTriggerKeys(300).size());
+        assertEquals(0, reminder.getScheduler().getTriggersOfJob(reminder.buildJobKey(300)).size());
+        reminder.shutdown();
+    }
 }
@@ -0,0 +1,302 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * {@link MailSink} delivering over SMTP through a pool of connected {@link Transport}s.
+ *
+ * <p>
+ * A connection is borrowed once per batch and every message of the batch is sent in the same SMTP session,
+ * so the TCP and TLS handshakes and the login are paid once per connection instead of once per recipient.
+ * A connection is recycled after <code>messagesPerConnection</code> messages, since providers cap the number
+ * of messages of one session.
+ * </p>
+ *
+ * <p>
+ * With a {@link SmtpRateLimiter} every message waits for a token first, and the 4xx replies of the host slow the
+ * limiter down. {@link #sendAll(List)} tells the messages worth retrying, i.e. refused with a 4xx reply, lost with
+ * the connection or failed to connect or log in, from the ones refused for good with a 5xx reply to a recipient or to
+ * the message data, which are also logged and counted in {@link #getRejectedCount()}.
+ * </p>
+ *
+ * @see MailDispatcher
+ */
+public class SmtpMailSink implements MailSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmtpMailSink.class);
+
+    /** reply code in the message of a failed connect, e.g. "Got bad greeting from SMTP host: ..., response: 421 ..." */
+    private static final Pattern REPLY = Pattern.compile("response: (\\d{3})");
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int messagesPerConnection;
+
+    private final BlockingQueue<PooledTransport> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    private final int poolSize;
+
+    private final SmtpRateLimiter limiter;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * <p>Constructor</p>
+     * @param mailProperties jakarta mail properties, <code>mail.smtp.auth</code>, <code>mail.smtp.starttls.enable</code>...
+     * @param host
+     * @param port
+     * @param username
+     * @param password
+     * @param poolSize maximum number of open connections
+     * @param messagesPerConnection messages sent before a connection is recycled
+     */
+    public SmtpMailSink(Properties mailProperties, String host, int port, String username, String password,
+            int poolSize, int messagesPerConnection) {
+        this(mailProperties, host, port, username, password, poolSize, messagesPerConnection, null);
+    }
+
+    /**
+     * <p>Constructor</p>
+     * @param mailProperties
+     * @param host
+     * @param port
+     * @param username
+     * @param password
+     * @param poolSize
+     * @param messagesPerConnection
+     * @param limiter pace of the host, null for no limit
+     */
+    public SmtpMailSink(Properties mailProperties, String host, int port, String username, String password,
+            int poolSize, int messagesPerConnection, SmtpRateLimiter limiter) {
+        this.limiter = limiter;
+        this.session = Session.getInstance(mailProperties);
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.messagesPerConnection = messagesPerConnection;
+        this.idle = new LinkedBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * @return the host this sink delivers to
+     */
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public void send(MailMessage message) throws Exception {
+        PooledTransport transport = borrow();
+        try {
+            deliver(transport, message);
+        } finally {
+            release(transport);
+        }
+    }
+
+    @Override
+    public Result sendAll(List<MailMessage> messages) {
+        List<MailMessage> failed = new ArrayList<>(0);
+        List<MailMessage> refused = new ArrayList<>(0);
+        PooledTransport transport;
+        try {
+            transport = borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(new ArrayList<>(messages), refused);
+        }
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                MailMessage message = messages.get(i);
+                try {
+                    deliver(transport, message);
+                } catch (MessagingException e) {
+                    int reply = replyCode(e);
+                    if (isRefused(e)) {
+                        rejected.incrementAndGet();
+                        logger.error("{} refused {} with {}", host, message, reply, e);
+                        refused.add(message);
+                    } else {
+                        logger.warn("could not send {}, reply {}", message, reply, e);
+                        failed.add(message);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.addAll(messages.subList(i, messages.size()));
+                    break;
+                }
+            }
+        } finally {
+            release(transport);
+        }
+        return new Result(failed, refused);
+    }
+
+    private void deliver(PooledTransport pooled, MailMessage message) throws MessagingException, InterruptedException {
+        if (limiter != null)
+            limiter.acquire();
+        try {
+            transmit(pooled, message);
+        } catch (MessagingException e) {
+            int reply = replyCode(e);
+            if (limiter != null && reply >= 400 && reply < 500)
+                limiter.throttled();
+            throw e;
+        }
+        if (limiter != null)
+            limiter.succeeded();
+    }
+
+    private void transmit(PooledTransport pooled, MailMessage message) throws MessagingException {
+        if (pooled.sent >= messagesPerConnection) {
+            pooled.transport.close();
+            pooled.sent = 0;
+        }
+        if (!pooled.transport.isConnected()) {
+            pooled.transport.connect(host, port, username, password);
+            pooled.sent = 0;
+        }
+        MimeMessage mime = new MimeMessage(session);
+        mime.setFrom(new InternetAddress(username));
+        for (String recipient : message.getRecipients()) {
+            mime.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+        }
+        mime.setSubject(message.getSubject());
+        mime.setText(message.getBody());
+        mime.saveChanges();
+        pooled.sent++;
+        pooled.transport.sendMessage(mime, mime.getAllRecipients());
+    }
+
+    /**
+     * @param e
+     * @return SMTP reply code of the failure, -1 if there was no reply, e.g. the connection broke
+     */
+    static int replyCode(MessagingException e) {
+        for (Exception cause = e; cause != null;
+                cause = cause instanceof MessagingException ? ((MessagingException) cause).getNextException() : null) {
+            if (cause instanceof SMTPSendFailedException)
+                return ((SMTPSendFailedException) cause).getReturnCode();
+            if (cause instanceof SMTPAddressFailedException)
+                return ((SMTPAddressFailedException) cause).getReturnCode();
+            if (cause instanceof SMTPSenderFailedException)
+                return ((SMTPSenderFailedException) cause).getReturnCode();
+        }
+        Matcher matcher = REPLY.matcher(String.valueOf(e.getMessage()));
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * @param e
+     * @return true if the host refused the message itself for good, with a 5xx reply to a recipient or to the
+     *         message data. The same reply to the connect, the login or <code>MAIL FROM</code>, e.g. 530 or 535,
+     *         concerns the session and the message may well pass on the next attempt
+     */
+    static boolean isRefused(MessagingException e) {
+        for (Exception cause = e; cause != null;
+                cause = cause instanceof MessagingException ? ((MessagingException) cause).getNextException() : null) {
+            String command;
+            int reply;
+            if (cause instanceof SMTPAddressFailedException) {
+                command = ((SMTPAddressFailedException) cause).getCommand();
+                reply = ((SMTPAddressFailedException) cause).getReturnCode();
+            } else if (cause instanceof SMTPSendFailedException) {
+                command = ((SMTPSendFailedException) cause).getCommand();
+                reply = ((SMTPSendFailedException) cause).getReturnCode();
+            } else {
+                continue;
+            }
+            if (reply >= 500 && reply != 530 && command != null
+                    && (command.startsWith("RCPT") || command.equals("DATA") || command.equals(".")))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return messages refused for good with a 5xx reply to a recipient or to the message data
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the limiter pacing this sink, null if unlimited
+     */
+    public SmtpRateLimiter getLimiter() {
+        return limiter;
+    }
+
+    private PooledTransport borrow() throws InterruptedException {
+        PooledTransport transport = idle.poll();
+        if (transport != null)
+            return transport;
+        if (created.incrementAndGet() <= poolSize) {
+            try {
+                return new PooledTransport(session.getTransport("smtp"));
+            } catch (MessagingException e) {
+                created.decrementAndGet();
+                throw new IllegalStateException("no smtp transport", e);
+            }
+        }
+        created.decrementAndGet();
+        return idle.take();
+    }
+
+    private void release(PooledTransport transport) {
+        idle.offer(transport);
+    }
+
+    /**
+     * <p>Closes every idle connection.</p>
+     */
+    @Override
+    public void close() {
+        PooledTransport transport;
+        while ((transport = idle.poll()) != null) {
+            try {
+                transport.transport.close();
+            } catch (MessagingException e) {
+                logger.warn("could not close smtp connection", e);
+            }
+        }
+    }
+
+    /**
+     * connection of the pool together with the number of messages it sent in the current session
+     */
+    private static final class PooledTransport {
+        final Transport transport;
+        int sent;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Utilities.FakeSmtpServer;
+import Utilities.MailMessage;
+import Utilities.MailSink;
+import Utilities.SmtpMailSink;
+
+public class SmtpMailSinkTest {
+
+    private FakeSmtpServer server;
+    private SmtpMailSink sink;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new FakeSmtpServer(0);
+        Properties properties = new Properties();
+        properties.put("mail.smtp.auth", "false");
+        sink = new SmtpMailSink(properties, "127.0.0.1", server.getPort(), "reminder@test", "", 1, 100);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        sink.close();
+        server.close();
+    }
+
+    private static MailMessage message(String recipient) {
+        return new MailMessage("reminder", "body", new String[] {recipient});
+    }
+
+    @Test
+    public void testRefusedRecipientIsPermanent() {
+        server.refuse("gone@test");
+        MailMessage gone = message("gone@test");
+        MailMessage known = message("known@test");
+
+        MailSink.Result result = sink.sendAll(List.of(gone, known));
+
+        assertEquals(List.of(gone), result.getRefused());
+        assertEquals(0, result.getRetryable().size());
+        assertEquals(1, sink.getRejectedCount());
+        assertEquals(1, server.getMessageCount());
+    }
+
+    @Test
+    public void testSessionFailuresAreRetryable() throws Exception {
+        // 530 to MAIL FROM, the host wants a login
+        server.setAuthenticationRequired(true);
+        MailMessage first = message("known@test");
+        MailSink.Result result = sink.sendAll(List.of(first));
+        assertEquals(List.of(first), result.getRetryable());
+        assertEquals(0, result.getRefused().size());
+
+        // no host to connect to
+        server.close();
+        MailMessage second = message("known@test");
+        result = sink.sendAll(List.of(second));
+        assertEquals(List.of(second), result.getRetryable());
+        assertEquals(0, sink.getRejectedCount());
+    }
+}
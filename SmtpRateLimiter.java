@@ -0,0 +1,153 @@
+package Utilities;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket in front of one SMTP host whose rate adapts to the throttling replies of the host.
+ *
+ * <p>
+ * Every message takes a token, tokens come back at the current rate and at most one second worth of them is kept.
+ * A 4xx reply (421 "try again later", 450/451/452) halves the rate, at most once per second so that a batch of
+ * rejected messages counts as one signal, down to <code>minRatePerSecond</code>. Every accepted message raises
+ * the rate again by a share sized so that the rate climbs from the minimum back to <code>maxRatePerSecond</code>
+ * in about <code>recoverySeconds</code>. The senders thus hover just below the ceiling of the provider instead of
+ * running into it with every connection.
+ * </p>
+ *
+ * <pre>
+ *      reminder.mail.ratePerSecond = 20
+ *      reminder.mail.minRatePerSecond = 1
+ *      reminder.mail.rateRecoverySeconds = 30
+ * </pre>
+ *
+ * @see SmtpMailSink
+ */
+public class SmtpRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmtpRateLimiter.class);
+
+    private static final Map<String, SmtpRateLimiter> hosts = new ConcurrentHashMap<>();
+
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String host;
+    private final double maxRate;
+    private final double minRate;
+    private final double recoverySeconds;
+
+    private double rate;
+    private double tokens;
+    private long refilledAt;
+    private long decreasedAt;
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * <p>Constructor, starting at the full rate.</p>
+     * @param host
+     * @param maxRatePerSecond ceiling of the provider
+     * @param minRatePerSecond floor of the rate however often the host throttles
+     * @param recoverySeconds time to climb back from the floor to the ceiling
+     */
+    public SmtpRateLimiter(String host, double maxRatePerSecond, double minRatePerSecond, double recoverySeconds) {
+        if (maxRatePerSecond <= 0 || minRatePerSecond <= 0 || minRatePerSecond > maxRatePerSecond)
+            throw new IllegalArgumentException("rates must satisfy 0 < min <= max");
+        this.host = host;
+        this.maxRate = maxRatePerSecond;
+        this.minRate = minRatePerSecond;
+        this.recoverySeconds = Math.max(recoverySeconds, 1);
+        this.rate = maxRatePerSecond;
+        this.tokens = Math.max(1, maxRatePerSecond);
+        this.refilledAt = System.nanoTime();
+        this.decreasedAt = refilledAt - DECREASE_INTERVAL_NANOS;
+    }
+
+    /**
+     * <p>Limiter shared by every sink delivering to the host, created with the given settings on first use.</p>
+     *
+     * @param host
+     * @param maxRatePerSecond
+     * @param minRatePerSecond
+     * @param recoverySeconds
+     * @return the limiter of the host
+     */
+    public static SmtpRateLimiter forHost(String host, double maxRatePerSecond, double minRatePerSecond,
+            double recoverySeconds) {
+        return hosts.computeIfAbsent(host,
+                h -> new SmtpRateLimiter(h, maxRatePerSecond, minRatePerSecond, recoverySeconds));
+    }
+
+    /**
+     * <p>Waits until the message may be sent.</p>
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * <p>Takes a token, possibly one that is only paid back in the future.</p>
+     *
+     * @return nanos to wait before the token is really available
+     */
+    synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(Math.max(1, rate), tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+
+    /**
+     * <p>Raises the rate after a message was accepted.</p>
+     */
+    public synchronized void succeeded() {
+        if (rate < maxRate)
+            rate = Math.min(maxRate, rate + (maxRate - minRate) / (rate * recoverySeconds));
+    }
+
+    /**
+     * <p>Halves the rate after the host answered with a 4xx reply.</p>
+     */
+    public synchronized void throttled() {
+        throttled.incrementAndGet();
+        long now = System.nanoTime();
+        if (now - decreasedAt < DECREASE_INTERVAL_NANOS)
+            return;
+        refill(now);
+        decreasedAt = now;
+        rate = Math.max(minRate, rate / 2);
+        tokens = Math.min(tokens, Math.max(1, rate));
+        logger.warn("{} is throttling, sending at {} messages/s", host, String.format("%.1f", rate));
+    }
+
+    /**
+     * @return messages per second currently allowed
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return number of 4xx replies seen
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,246 @@
+package Utilities;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.InputMismatchException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ReminderAPI.Reminder;
+import ReminderAPI.ReminderHandle;
+import entities.Event;
+import entities.User;
+import repositories.DataRepository;
+
+/**
+ * Lightweight {@link Reminder} keeping the pending reminders in a {@link HashedTimingWheel} instead of Quartz.
+ *
+ * <p>
+ * Meant for the huge number of short-horizon reminders (5, 10, 15, 30 minutes): a pending reminder costs one
+ * small wheel entry and one index entry instead of a <code>JobDetail</code>, a <code>Trigger</code> and the
+ * <code>RAMJobStore</code> wrappers around them, and scheduling never takes a global lock. Reminders only live
+ * in memory, exactly like with <code>RAMJobStore</code>.
+ * </p>
+ *
+ * <p>
+ * Select it with <code>reminder.engine = timingwheel</code>, see {@link ReminderFactory}.
+ * </p>
+ *
+ * @see QuartzReminder
+ */
+public class TimingWheelReminder implements Reminder {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelReminder.class);
+
+    private final DataRepository repo;
+    private final MailStage mail;
+    private final ExecutorService workers;
+    private final HashedTimingWheel wheel;
+
+    /**
+     * pending reminders by {@link #key(int, Duration)}, used to cancel or replace them
+     */
+    private final ConcurrentHashMap<Long, HashedTimingWheel.Timeout> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * pending handles of {@link #sendMail(int)} by event ID
+     */
+    private final ConcurrentHashMap<Integer, WheelHandle> mailHandles = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Constructor using a 100ms tick, 512 slots on 4 levels and 32 worker threads.</p>
+     * @param repo
+     * @param mail mail stage the reminders are handed to, shut down with the engine
+     * @throws Exception
+     */
+    public TimingWheelReminder(DataRepository repo, MailStage mail) throws Exception {
+        this(repo, mail, 100, 512, 4, 32);
+    }
+
+    /**
+     * <p>Constructor</p>
+     * @param repo
+     * @param mail mail stage the reminders are handed to, shut down with the engine
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize slots per level
+     * @param levels levels of the wheel
+     * @param workerThreads threads delivering the due reminders
+     * @throws Exception
+     */
+    public TimingWheelReminder(DataRepository repo, MailStage mail, long tickMillis, int wheelSize, int levels, int workerThreads) throws Exception {
+        if(repo == null)
+            throw new Exception("no reop");
+        this.repo = repo;
+        this.mail = mail;
+        ReminderFlightEvents.register();
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        this.wheel = new HashedTimingWheel(tickMillis, wheelSize, levels, workers);
+    }
+
+    /**
+     * <p>Schedules the reminder fired {@code offset} before the event, replacing the one already pending
+     * for the same event and offset.</p>
+     *
+     * @param event
+     * @param offset
+     * @return the fire time of the reminder
+     */
+    public Instant sendNotification(Event event, Duration offset) {
+        Instant fireAt = Instant.from(event.date).minus(offset);
+        int eid = event.eventID;
+        long key = key(eid, offset);
+        HashedTimingWheel.Timeout timeout = wheel.schedule(() -> fire(eid, key), fireAt);
+        HashedTimingWheel.Timeout previous = timeouts.put(key, timeout);
+        if (previous != null)
+            previous.cancel();
+        return fireAt;
+    }
+
+    /**
+     * <p>Cancels the reminder fired {@code offset} before the event.</p>
+     *
+     * @param eventID
+     * @param offset
+     * @return true if such a reminder was pending
+     */
+    public boolean removeNotification(int eventID, Duration offset) {
+        HashedTimingWheel.Timeout timeout = timeouts.remove(key(eventID, offset));
+        return timeout != null && timeout.cancel();
+    }
+
+    /**
+     * @return number of reminders still pending
+     */
+    public long getPendingCount() {
+        return wheel.size();
+    }
+
+    private void fire(int eid, long key) {
+        timeouts.computeIfPresent(key, (k, timeout) -> timeout.isExpired() ? null : timeout);
+        EventReminderJob.remindParticipants(repo, mail, eid);
+    }
+
+    /**
+     * handle of a reminder scheduled by {@link #sendMail(int)}
+     */
+    private final class WheelHandle extends AbstractReminderHandle {
+
+        private volatile HashedTimingWheel.Timeout timeout;
+
+        WheelHandle(int eventID, Instant fireAt) {
+            super(eventID, fireAt);
+        }
+
+        void schedule(Instant fireAt) {
+            timeout = wheel.schedule(this::fire, fireAt);
+        }
+
+        private void fire() {
+            mailHandles.remove(getEventID(), this);
+            try {
+                EventReminderJob.remindParticipants(repo, mail, getEventID());
+                markFired();
+            } catch (RuntimeException e) {
+                markFailed(e);
+                throw e;
+            }
+        }
+
+        @Override
+        protected boolean doCancel() {
+            mailHandles.remove(getEventID(), this);
+            return timeout.cancel();
+        }
+
+        @Override
+        protected boolean doReschedule(Instant fireAt) {
+            if (!timeout.cancel())
+                return false;
+            schedule(fireAt);
+            return true;
+        }
+    }
+
+    private static long key(int eventID, Duration offset) {
+        return ((long) eventID << 32) | (offset.getSeconds() & 0xffffffffL);
+    }
+
+    /**
+     * <p>Stops the wheel, lets the reminders already handed to the workers finish and sends what they queued.</p>
+     * @throws InterruptedException
+     */
+    @Override
+    public void shutdown() throws InterruptedException {
+        wheel.shutdown();
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        mail.shutdown();
+    }
+
+    @Override
+    public void sendMailBefore1Week(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofDays(7));
+    }
+
+    @Override
+    public void sendMailBefore3Days(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofDays(3));
+    }
+
+    /**
+     * <p>Schedules the reminder at {@code Event.date} and returns right away. Scheduling the same event again
+     * cancels its pending reminder.</p>
+     */
+    @Override
+    public ReminderHandle sendMail(int eid) {
+        Event e = repo.findEventByID(eid);
+        if (e == null) {
+            WheelHandle handle = new WheelHandle(eid, null);
+            handle.markFailed(new InputMismatchException("the eid does not exist"));
+            return handle;
+        }
+        WheelHandle handle = new WheelHandle(eid, Instant.from(e.date));
+        WheelHandle previous = mailHandles.put(eid, handle);
+        if (previous != null)
+            previous.cancel();
+        handle.schedule(handle.getFireTime());
+        return handle;
+    }
+
+    @Override
+    public void sendMailBefore1Hour(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofHours(1));
+    }
+
+    @Override
+    public void sendMailBefore30Min(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofMinutes(30));
+    }
+
+    @Override
+    public void sendMailBefore15Min(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofMinutes(15));
+    }
+
+    @Override
+    public void sendMailBefore10Min(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofMinutes(10));
+    }
+
+    @Override
+    public void sendMailBefore5Min(User user, Event event) throws Exception {
+        logger.info("preparing to fire alarm for reminding clients");
+        sendNotification(event, Duration.ofMinutes(5));
+    }
+}
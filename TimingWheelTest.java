@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Utilities.HashedTimingWheel;
+
+public class TimingWheelTest {
+
+    private ExecutorService workers;
+    private HashedTimingWheel wheel;
+
+    @BeforeEach
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(4);
+        // 4 slots of 10ms per level, so anything beyond 40ms has to cascade
+        wheel = new HashedTimingWheel(10, 4, 3, workers);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        wheel.shutdown();
+        workers.shutdown();
+    }
+
+    @Test
+    public void testFiresAcrossLevels() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        long[] firedAt = new long[3];
+        long[] delays = {5, 120, 700};
+        Instant start = Instant.now();
+        for (int i = 0; i < delays.length; i++) {
+            int index = i;
+            wheel.schedule(() -> {
+                firedAt[index] = System.currentTimeMillis();
+                latch.countDown();
+            }, start.plusMillis(delays[i]));
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(firedAt[i] >= start.toEpochMilli() + delays[i], "reminder " + i + " fired early");
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AtomicInteger fired = new AtomicInteger();
+        HashedTimingWheel.Timeout cancelled = wheel.schedule(fired::incrementAndGet, Instant.now().plusMillis(200));
+        wheel.schedule(fired::incrementAndGet, Instant.now().plusMillis(100));
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        Thread.sleep(500);
+
+        assertEquals(1, fired.get());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,152 @@
+package Utilities;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Quartz {@link ThreadPool} running every fired job on its own virtual thread.
+ *
+ * <p>
+ * Reminder jobs spend nearly all their time blocked on the repository and on the mail stage, so a fixed number of
+ * platform threads caps the number of concurrent deliveries. Here a job only costs a virtual thread, and the only
+ * bound is <code>maxConcurrency</code>, enforced with a semaphore so that a burst can not pile up unbounded work.
+ * </p>
+ *
+ * <p>
+ * {@link #blockForAvailableThreads()} blocks only while every permit is taken and otherwise reports all free
+ * permits, so the scheduler thread acquires as many triggers per round as
+ * <code>org.quartz.scheduler.batchTriggerAcquisitionMaxCount</code> allows instead of one trigger per free thread
+ * of a small fixed pool.
+ * </p>
+ *
+ * <pre>
+ *      org.quartz.threadPool.class = Utilities.VirtualThreadPool
+ *      org.quartz.threadPool.maxConcurrency = 1000
+ * </pre>
+ *
+ * @see org.quartz.simpl.SimpleThreadPool
+ */
+public class VirtualThreadPool implements ThreadPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadPool.class);
+
+    private int maxConcurrency = 1000;
+    private String instanceName = "QuartzScheduler";
+    private String instanceId = "";
+
+    private Semaphore permits;
+    private ThreadFactory threadFactory;
+    private ClassLoader contextClassLoader;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * <p>Set by Quartz from <code>org.quartz.threadPool.maxConcurrency</code>.</p>
+     *
+     * @param maxConcurrency maximum number of jobs running at the same time
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void setInstanceId(String schedInstId) {
+        this.instanceId = schedInstId;
+    }
+
+    @Override
+    public void setInstanceName(String schedName) {
+        this.instanceName = schedName;
+    }
+
+    @Override
+    public void initialize() throws SchedulerConfigException {
+        if (maxConcurrency <= 0)
+            throw new SchedulerConfigException("maxConcurrency must be > 0");
+        permits = new Semaphore(maxConcurrency);
+        threadFactory = Thread.ofVirtual().name(instanceName + "-" + instanceId + "-job-", 0).factory();
+        // same as threadsInheritContextClassLoaderOfInitializingThread on SimpleThreadPool
+        contextClassLoader = Thread.currentThread().getContextClassLoader();
+        logger.info("virtual thread pool initialized with a concurrency of {}", maxConcurrency);
+    }
+
+    @Override
+    public boolean runInThread(Runnable runnable) {
+        if (runnable == null || shutdown)
+            return false;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        Thread thread = threadFactory.newThread(() -> {
+            try {
+                runnable.run();
+            } finally {
+                running.remove(Thread.currentThread());
+                permits.release();
+            }
+        });
+        thread.setContextClassLoader(contextClassLoader);
+        running.add(thread);
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public int blockForAvailableThreads() {
+        while (!shutdown) {
+            try {
+                if (permits.tryAcquire(500, TimeUnit.MILLISECONDS)) {
+                    permits.release();
+                    return Math.max(1, permits.availablePermits());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return permits.availablePermits();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return number of jobs running right now
+     */
+    public int getActiveCount() {
+        return running.size();
+    }
+
+    @Override
+    public void shutdown(boolean waitForJobsToComplete) {
+        shutdown = true;
+        if (!waitForJobsToComplete)
+            return;
+        for (Thread thread : running) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.debug("virtual thread pool shut down");
+    }
+}